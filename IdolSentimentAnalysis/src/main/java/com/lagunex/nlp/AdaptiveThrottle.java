@@ -0,0 +1,131 @@
+package com.lagunex.nlp;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls how many calls to the API are sent at the same time and how often.
+ *
+ * - A fixed budget of requests per second, spaced evenly, is never exceeded.
+ * - The number of calls in flight adapts with AIMD (additive increase, multiplicative decrease):
+ *   every call answered within the target latency raises the limit by 1/limit (about one more call per
+ *   round trip), while a throttled or slow answer halves it. The limit stays between 1 and the maximum
+ *   concurrency and is halved at most once per target latency, so a burst of throttled answers to calls
+ *   sent together counts as a single signal.
+ *
+ * Throttled calls are expected to be retried after backoff(attempt) milliseconds.
+ *
+ * This class is thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class AdaptiveThrottle {
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final long permitIntervalNanos;
+    private final int maxConcurrency;
+    private final long targetLatencyNanos;
+    private final long baseBackoffMillis;
+
+    private double limit;
+    private int inFlight;
+    private long nextPermitNanos = System.nanoTime();
+    private long lastDecreaseNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+    private long throttled;
+
+    /**
+     *
+     * @param requestsPerSecond maximum rate of calls, 0 or less for no limit
+     * @param maxConcurrency maximum number of calls in flight
+     * @param targetLatencyMillis calls slower than this reduce the concurrency
+     * @param baseBackoffMillis wait before the first retry, it doubles with every attempt
+     */
+    public AdaptiveThrottle(double requestsPerSecond, int maxConcurrency, long targetLatencyMillis,
+                            long baseBackoffMillis) {
+        this.permitIntervalNanos = requestsPerSecond > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+        this.maxConcurrency = maxConcurrency;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.limit = maxConcurrency;
+    }
+
+    /**
+     * Blocks until the call can be sent within the concurrency limit and the rate budget.
+     * Every call to acquire that returns must be followed by a call to release
+     *
+     * @throws InterruptedException if interrupted while waiting, without taking a slot
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            while (inFlight >= (int)limit) {
+                wait();
+            }
+            inFlight++;
+            long now = System.nanoTime();
+            wait = Math.max(0, nextPermitNanos - now);
+            nextPermitNanos = Math.max(now, nextPermitNanos) + permitIntervalNanos;
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                synchronized (this) { // the call is not sent, its slot is given back
+                    inFlight--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a call and adapts the concurrency limit
+     *
+     * @param latencyNanos time the call took
+     * @param wasThrottled true if the API answered 429 or 503
+     */
+    public synchronized void release(long latencyNanos, boolean wasThrottled) {
+        inFlight--;
+        long now = System.nanoTime();
+        if (wasThrottled || latencyNanos > targetLatencyNanos) {
+            if (wasThrottled) throttled++;
+            if (now - lastDecreaseNanos >= targetLatencyNanos) {
+                limit = Math.max(1, limit / 2);
+                lastDecreaseNanos = now;
+            }
+        } else {
+            limit = Math.min(maxConcurrency, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Exponential backoff with a random jitter between half and one and a half times the nominal wait
+     *
+     * @param attempt number of retries already performed, starting at 0
+     * @return milliseconds to wait before the next retry
+     */
+    public long backoff(int attempt) {
+        long nominal = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempt, 20));
+        return (long)(nominal * (0.5 + ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * @return current maximum number of calls in flight
+     */
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return number of calls answered with 429 or 503
+     */
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+}
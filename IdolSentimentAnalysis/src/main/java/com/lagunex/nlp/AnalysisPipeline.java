@@ -0,0 +1,255 @@
+package com.lagunex.nlp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.lagunex.util.RecordCodec;
+
+/**
+ * Analyses lines of input concurrently and hands the results over in input order.
+ *
+ * Each line has the format "id|text|lang", where text may have escaped separators and collapsed line breaks
+ * (see RecordCodec) that are restored before the analysis. Lines are read ahead and submitted to a fixed pool
+ * of workers, but at most getReadAhead() lines can be pending at any time. Once that limit is reached,
+ * the reader waits for the oldest pending line and writes its result before reading the next one.
+ * This way a slow API slows down the reader instead of letting the buffer grow without bound.
+ *
+ * When the batch size is greater than one, lines are grouped by language and each group of batch size
+ * lines is analysed by a single call. Groups that are not full are sent when the reader has to wait
+ * for one of their lines or at the end of the input.
+ *
+ * Before a line is grouped, an OpinionFilter decides if it is worth analysing. Filtered lines get their
+ * result from the filter right away and never reach the analyser.
+ *
+ * Inputs that arrive over time, like a socket or a pipe, can say when no line is ready. The pipeline then
+ * sends incomplete batches and writes every pending result instead of keeping them until the next line arrives.
+ *
+ * Several pipelines, e.g. one per client of AnalysisServer, can share the same workers.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class AnalysisPipeline {
+    private static final int READ_AHEAD_PER_WORKER = 2;
+
+    private final BiFunction<List<String>, SentimentAnalysis.Language, List<SentimentResult>> analyser;
+    private final ExecutorService workers;
+    private final boolean ownsWorkers;
+    private final int batchSize;
+    private final int readAhead;
+    private final Map<SentimentAnalysis.Language, List<PendingLine>> batches = new HashMap<>();
+    private final RecordCodec codec = new RecordCodec();
+    private OpinionFilter filter = new OpinionFilter();
+
+    /**
+     *
+     * @param analyser function that performs the analysis of one text, e.g. SentimentAnalysis::analyse
+     * @param concurrency maximum number of lines analysed in parallel
+     */
+    public AnalysisPipeline(BiFunction<String, SentimentAnalysis.Language, SentimentResult> analyser,
+                            int concurrency) {
+        this(perText(analyser), concurrency, 1);
+    }
+
+    /**
+     *
+     * @param analyser function that analyses a batch of texts with the same language and returns
+     *                 one result per text in the same order
+     * @param concurrency maximum number of batches analysed in parallel
+     * @param batchSize maximum number of texts per batch
+     */
+    public AnalysisPipeline(BiFunction<List<String>, SentimentAnalysis.Language, List<SentimentResult>> analyser,
+                            int concurrency, int batchSize) {
+        this(analyser, null, concurrency, batchSize);
+    }
+
+    /**
+     *
+     * @param analyser function that analyses a batch of texts with the same language and returns
+     *                 one result per text in the same order
+     * @param workers pool shared with other pipelines, shutdown() does not stop it
+     * @param concurrency number of threads of workers
+     * @param batchSize maximum number of texts per batch
+     */
+    public AnalysisPipeline(BiFunction<List<String>, SentimentAnalysis.Language, List<SentimentResult>> analyser,
+                            ExecutorService workers, int concurrency, int batchSize) {
+        if (concurrency < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("concurrency and batch size must be greater than zero");
+        }
+        this.analyser = analyser;
+        this.ownsWorkers = workers == null;
+        this.workers = ownsWorkers ? Executors.newFixedThreadPool(concurrency) : workers;
+        this.batchSize = batchSize;
+        this.readAhead = READ_AHEAD_PER_WORKER * concurrency * batchSize;
+    }
+
+    /**
+     *
+     * @param analyser function that performs the analysis of one text, e.g. SentimentAnalysis::analyse
+     * @return a batch analyser that analyses its only text with analyser
+     */
+    public static BiFunction<List<String>, SentimentAnalysis.Language, List<SentimentResult>> perText(
+            BiFunction<String, SentimentAnalysis.Language, SentimentResult> analyser) {
+        return (texts, lang) -> Collections.singletonList(analyser.apply(texts.get(0), lang));
+    }
+
+    /**
+     * Reads every line from input until it returns null and passes each id with its result to output,
+     * in the same order the lines were read.
+     *
+     * @param input supplier of lines with the format "id|text|lang", null at the end of the input
+     * @param output action to perform with the id and the result (null if the line could not be analysed)
+     */
+    public void process(Supplier<String> input, BiConsumer<String, SentimentResult> output) {
+        process(input, () -> true, output);
+    }
+
+    /**
+     * Like process(input, output), for inputs that may have to wait for their next line.
+     * Whenever ready returns false, every line read so far is written before input is asked for another one.
+     *
+     * @param input supplier of lines with the format "id|text|lang", null at the end of the input
+     * @param ready true if input can return the next line without waiting
+     * @param output action to perform with the id and the result (null if the line could not be analysed)
+     */
+    public void process(Supplier<String> input, BooleanSupplier ready, BiConsumer<String, SentimentResult> output) {
+        Deque<PendingLine> pending = new ArrayDeque<>(readAhead);
+        String line = input.get();
+        while (line != null) {
+            if (pending.size() == readAhead) {
+                write(pending.removeFirst(), output);
+            }
+            pending.addLast(submit(line));
+            if (!ready.getAsBoolean()) {
+                submitIncompleteBatches();
+                while (!pending.isEmpty()) {
+                    write(pending.removeFirst(), output);
+                }
+            }
+            line = input.get();
+        }
+        submitIncompleteBatches();
+        while (!pending.isEmpty()) {
+            write(pending.removeFirst(), output);
+        }
+    }
+
+    private PendingLine submit(String line) {
+        int fields = codec.split(line); // format: "id|text|lang" e.g. "8245245|text to analyze|en"
+        PendingLine pending = new PendingLine(
+                fields > 0 ? codec.getField(0) : "",
+                fields > 1 ? codec.decode(1).toString() : "",
+                fields > 2 ? SentimentAnalysis.Language.getLanguage(codec.getField(2)) : null);
+
+        OpinionFilter.Reason reason = filter.check(pending.text, pending.lang);
+        if (reason != null) {
+            pending.submitted = true;
+            pending.result.complete(filter.getResult(reason));
+            return pending;
+        }
+
+        List<PendingLine> batch = batches.computeIfAbsent(pending.lang, lang -> new ArrayList<>(batchSize));
+        batch.add(pending);
+        if (batch.size() == batchSize) {
+            submit(batches.remove(pending.lang));
+        }
+        return pending;
+    }
+
+    private void submit(List<PendingLine> batch) {
+        List<String> texts = batch.stream().map(line -> line.text).collect(Collectors.toList());
+        SentimentAnalysis.Language lang = batch.get(0).lang;
+        batch.forEach(line -> line.submitted = true);
+        CompletableFuture
+            .supplyAsync(() -> analyser.apply(texts, lang), workers)
+            .whenComplete((results, error) -> {
+                if (error == null && results.size() != batch.size()) {
+                    error = new IllegalStateException(String.format(
+                            "Expected %d results but received %d", batch.size(), results.size()));
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    if (error != null) {
+                        batch.get(i).result.completeExceptionally(error);
+                    } else {
+                        batch.get(i).result.complete(results.get(i));
+                    }
+                }
+            });
+    }
+
+    private void submitIncompleteBatches() {
+        batches.values().forEach(this::submit);
+        batches.clear();
+    }
+
+    private void write(PendingLine line, BiConsumer<String, SentimentResult> output) {
+        if (!line.submitted) {
+            submitIncompleteBatches(); // the line is still waiting for its batch to be full
+        }
+        output.accept(line.id, waitFor(line.result));
+    }
+
+    private SentimentResult waitFor(CompletableFuture<SentimentResult> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the workers unless they are shared. Lines already submitted are still analysed.
+     */
+    public void shutdown() {
+        if (ownsWorkers) {
+            workers.shutdown();
+        }
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Replaces the default filter, which has no noise patterns. It must be set before process() is called
+     *
+     * @param filter
+     */
+    public void setFilter(OpinionFilter filter) {
+        this.filter = filter;
+    }
+
+    public OpinionFilter getFilter() {
+        return filter;
+    }
+
+    private static class PendingLine {
+        private final String id;
+        private final String text;
+        private final SentimentAnalysis.Language lang;
+        private final CompletableFuture<SentimentResult> result = new CompletableFuture<>();
+        private boolean submitted; // only accessed by the reader
+
+        PendingLine(String id, String text, SentimentAnalysis.Language lang) {
+            this.id = id;
+            this.text = text;
+            this.lang = lang;
+        }
+    }
+}
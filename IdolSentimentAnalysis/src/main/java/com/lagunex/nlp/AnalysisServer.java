@@ -0,0 +1,206 @@
+package com.lagunex.nlp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.logging.Logger;
+
+/**
+ * Analyses the lines that clients send over TCP connections, to localhost unless another address is given,
+ * so every run of a small input reuses the same warm analyser: its loaded classes, open connections,
+ * cache and throttle. A ShardCoordinator can use several servers as the workers of a single input.
+ *
+ * Clients send UTF-8 lines with the format "id|text|lang" and receive the same output as com.lagunex.nlp.Main,
+ * in the same order. The results are sent as soon as the client stops writing, so a client can either stream
+ * a whole file and close its output, or send a few lines and wait for their results.
+ *
+ * Every client has its own AnalysisPipeline, but all of them share the same concurrency workers.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class AnalysisServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(AnalysisServer.class.getName());
+
+    private final BiFunction<List<String>, SentimentAnalysis.Language, List<SentimentResult>> analyser;
+    private final int concurrency;
+    private final int batchSize;
+    private final ServerSocket socket;
+    private final ExecutorService workers;
+    private final ExecutorService clients;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private OpinionFilter filter = new OpinionFilter();
+    private SentimentMetrics metrics;
+
+    /**
+     *
+     * @param port port to listen to on the loopback interface, 0 for any free port
+     * @param analyser function that analyses a batch of texts with the same language and returns
+     *                 one result per text in the same order
+     * @param concurrency maximum number of batches analysed in parallel among all clients
+     * @param batchSize maximum number of texts per batch
+     * @throws IOException if the port cannot be opened
+     */
+    public AnalysisServer(int port, BiFunction<List<String>, SentimentAnalysis.Language, List<SentimentResult>> analyser,
+                          int concurrency, int batchSize) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, analyser, concurrency, batchSize);
+    }
+
+    /**
+     *
+     * @param address address to listen to, e.g. 0.0.0.0 for every interface
+     * @param port port to listen to, 0 for any free port
+     * @param analyser function that analyses a batch of texts with the same language and returns
+     *                 one result per text in the same order
+     * @param concurrency maximum number of batches analysed in parallel among all clients
+     * @param batchSize maximum number of texts per batch
+     * @throws IOException if the port cannot be opened
+     */
+    public AnalysisServer(InetAddress address, int port,
+                          BiFunction<List<String>, SentimentAnalysis.Language, List<SentimentResult>> analyser,
+                          int concurrency, int batchSize) throws IOException {
+        if (concurrency < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("concurrency and batch size must be greater than zero");
+        }
+        this.analyser = analyser;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+        this.socket = new ServerSocket(port, 50, address);
+        this.workers = Executors.newFixedThreadPool(concurrency);
+        this.clients = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "analysis-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Accepts clients until stop() or close() is called
+     */
+    public void serve() {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                clients.execute(() -> handle(client));
+            } catch (IOException ex) {
+                if (!socket.isClosed()) {
+                    LOGGER.warning(ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        connections.add(client);
+        AnalysisPipeline pipeline = new AnalysisPipeline(analyser, workers, concurrency, batchSize);
+        pipeline.setFilter(filter);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)))) {
+            pipeline.process(
+                    () -> readLine(in, out),
+                    () -> isReady(in),
+                    (id, result) -> {
+                        Main.printResult(out, id, result);
+                        if (metrics != null) metrics.recordLine();
+                    });
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warning(String.format("Client %s: %s", client.getRemoteSocketAddress(), ex.getMessage()));
+        } finally {
+            connections.remove(client);
+            closeQuietly(client);
+        }
+    }
+
+    // sends the results written so far before waiting for the client
+    private String readLine(BufferedReader in, PrintWriter out) {
+        try {
+            if (!in.ready()) {
+                out.flush();
+            }
+            return in.readLine();
+        } catch (IOException ex) {
+            LOGGER.warning(ex.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isReady(BufferedReader in) {
+        try {
+            return in.ready();
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            LOGGER.warning(ex.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the default filter, which has no noise patterns. It must be set before serve() is called
+     *
+     * @param filter
+     */
+    public void setFilter(OpinionFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param metrics metrics that count the lines written to every client
+     */
+    public void setMetrics(SentimentMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     *
+     * @return the port the server listens to
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     *
+     * @return number of clients connected
+     */
+    public int getClients() {
+        return connections.size();
+    }
+
+    /**
+     * Stops accepting clients and disconnects the current ones, so serve() returns, e.g. from a shutdown hook
+     */
+    public void stop() {
+        closeQuietly(socket);
+        connections.forEach(this::closeQuietly);
+    }
+
+    /**
+     * Stops accepting clients, disconnects the current ones and stops the workers
+     */
+    @Override
+    public void close() {
+        stop();
+        clients.shutdownNow();
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,205 @@
+package com.lagunex.nlp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads the calls to the API over several API keys, so their quotas add up.
+ *
+ * Keys are picked by smooth weighted round-robin: a key with weight 2 gets two calls for every call of a key
+ * with weight 1, and its calls are interleaved with the others instead of sent in a row. A key that was throttled
+ * cools down for the given time and is skipped meanwhile; when every key is cooling down, acquire() waits for the
+ * first one that is ready. Keys can also have a daily quota of calls, counted in UTC days, after which they are
+ * skipped until the next day.
+ *
+ * This class is thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class ApiKeyPool {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final List<Key> keys;
+    private final long dailyQuota;
+
+    /**
+     *
+     * @param keys comma-separated list of keys, each one optionally followed by its weight, e.g. "key1,key2:3"
+     * @param dailyQuota calls per key per day, 0 or less for no quota
+     * @return the pool
+     * @throws IllegalArgumentException if keys is empty or a weight is not a positive number
+     */
+    public static ApiKeyPool parse(String keys, long dailyQuota) {
+        List<Key> parsed = new ArrayList<>();
+        for (String key : keys.split(",")) {
+            int colon = key.lastIndexOf(':');
+            String value = (colon < 0 ? key : key.substring(0, colon)).trim();
+            int weight = colon < 0 ? 1 : Integer.parseInt(key.substring(colon + 1).trim());
+            if (!value.isEmpty()) {
+                parsed.add(new Key(value, weight));
+            }
+        }
+        return new ApiKeyPool(parsed, dailyQuota);
+    }
+
+    /**
+     *
+     * @param keys
+     * @param dailyQuota calls per key per day, 0 or less for no quota
+     */
+    public ApiKeyPool(List<Key> keys, long dailyQuota) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("at least one API key is required");
+        }
+        this.keys = new ArrayList<>(keys);
+        this.dailyQuota = dailyQuota;
+    }
+
+    /**
+     * Picks the key for the next call and counts the call. Blocks while every key with quota left is cooling down
+     *
+     * @return the key to use
+     * @throws InterruptedException
+     * @throws IllegalStateException if every key used its daily quota
+     */
+    public synchronized Key acquire() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            long today = System.currentTimeMillis() / DAY_MILLIS;
+            Key best = null;
+            int totalWeight = 0;
+            long wait = Long.MAX_VALUE;
+            for (Key key : keys) {
+                if (key.day != today) {
+                    key.day = today;
+                    key.callsToday = 0;
+                }
+                if (dailyQuota > 0 && key.callsToday >= dailyQuota) {
+                    continue;
+                }
+                if (key.coolDownUntil - now > 0) {
+                    wait = Math.min(wait, key.coolDownUntil - now);
+                    continue;
+                }
+                key.currentWeight += key.weight;
+                totalWeight += key.weight;
+                if (best == null || key.currentWeight > best.currentWeight) {
+                    best = key;
+                }
+            }
+            if (best != null) {
+                best.currentWeight -= totalWeight;
+                best.calls++;
+                best.callsToday++;
+                return best;
+            }
+            if (wait == Long.MAX_VALUE) {
+                throw new IllegalStateException("Every API key used its daily quota of " + dailyQuota + " calls");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, wait);
+        }
+    }
+
+    /**
+     * Skips key for the given time, e.g. after it was throttled
+     *
+     * @param key
+     * @param millis
+     */
+    public synchronized void coolDown(Key key, long millis) {
+        key.throttled++;
+        key.coolDownUntil = Math.max(key.coolDownUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Counts a call with key that failed for any reason other than throttling
+     *
+     * @param key
+     */
+    public synchronized void failed(Key key) {
+        key.failed++;
+    }
+
+    public List<Key> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     *
+     * @return "****abcd[weight=n calls=n throttled=n failed=n] .." for every key
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Key key : keys) {
+            sb.append(sb.length() > 0 ? " " : "").append(key.getName())
+              .append(String.format("[weight=%d calls=%d throttled=%d failed=%d]",
+                      key.weight, key.calls, key.throttled, key.failed));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * An API key with its weight and counters. Counters are updated by the pool
+     */
+    public static class Key {
+        private final String value;
+        private final int weight;
+        private int currentWeight;
+        private long coolDownUntil = System.nanoTime();
+        private long day;
+        private long callsToday;
+        // written by the pool while it holds its lock
+        private volatile long calls, throttled, failed;
+
+        /**
+         *
+         * @param value the key sent to the API
+         * @param weight share of the calls of this key relative to the others
+         */
+        public Key(String value, int weight) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("weight must be greater than zero");
+            }
+            this.value = value;
+            this.weight = weight;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         *
+         * @return the key with all but its last four characters masked, to be logged
+         */
+        public String getName() {
+            return value.length() > 4 ? "****" + value.substring(value.length() - 4) : "****";
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return number of calls sent with this key, including retries
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getThrottled() {
+            return throttled;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+    }
+}
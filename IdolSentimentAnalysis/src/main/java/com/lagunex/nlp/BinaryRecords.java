@@ -0,0 +1,170 @@
+package com.lagunex.nlp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.lagunex.util.BinaryRecordReader;
+import com.lagunex.util.BinaryRecordWriter;
+import com.lagunex.util.LineReader;
+import com.lagunex.util.RecordCodec;
+import com.lagunex.util.SentimentRecord;
+import com.lagunex.util.StringUtils;
+import com.lagunex.util.TweetRecord;
+
+/**
+ * Analyses binary records (see BinaryRecordWriter) instead of lines of text.
+ *
+ * The tweet frames of the input are read as "id|text|lang" lines for the pipeline, and each result is
+ * written as the same tweet with its aggregate followed by one sentiment frame per sentiment found.
+ * A tweet that could not be analysed is written without aggregate. Other frames of the input are ignored.
+ *
+ * As in TblWriter, results are joined with their tweets by id and tweets are kept until their result is written.
+ * This class is not thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class BinaryRecords implements LineReader {
+    private static final Logger LOGGER = Logger.getLogger(BinaryRecords.class.getName());
+
+    private final BinaryRecordReader reader;
+    private final BinaryRecordWriter writer;
+    private final RecordCodec codec = new RecordCodec();
+    private final StringBuilder line = new StringBuilder(256);
+    private final SentimentRecord sentiment = new SentimentRecord();
+    private final Map<String, Deque<TweetRecord>> records = new HashMap<>();
+    private long unmatched;
+
+    /**
+     *
+     * @param reader input tweets
+     * @param writer output of the analysis
+     */
+    public BinaryRecords(BinaryRecordReader reader, BinaryRecordWriter writer) {
+        this.reader = reader;
+        this.writer = writer;
+    }
+
+    /**
+     * Reads the next tweet and keeps it until its result is written
+     *
+     * @return the tweet as "id|text|lang", with the text escaped like in tweet.tbl, or null at the end of the input
+     * @throws IOException
+     */
+    @Override
+    public String readLine() throws IOException {
+        int type;
+        while ((type = reader.read()) != BinaryRecordWriter.TWEET) {
+            if (type < 0) {
+                return null;
+            }
+        }
+        TweetRecord tweet = new TweetRecord(reader.getTweet());
+        String id = Long.toString(tweet.getId());
+        records.computeIfAbsent(id, key -> new ArrayDeque<>(1)).addLast(tweet);
+        line.setLength(0);
+        line.append(id).append(StringUtils.SEPARATOR);
+        codec.encode(tweet.getMessage(), line).append(StringUtils.SEPARATOR).append(tweet.getLanguage());
+        return line.toString();
+    }
+
+    /**
+     *
+     * @return offset of the next tweet in the input
+     */
+    @Override
+    public long getOffset() {
+        return reader.getOffset();
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return reader.ready();
+    }
+
+    /**
+     * Writes the tweet of id with the aggregate of result followed by its sentiments
+     *
+     * @param id
+     * @param result null if the tweet could not be analysed
+     * @throws UncheckedIOException if the output cannot be written
+     */
+    public void write(String id, SentimentResult result) {
+        Deque<TweetRecord> pending = records.get(id);
+        if (pending == null) {
+            unmatched++;
+            LOGGER.warning("Result without record: " + id);
+            return;
+        }
+        TweetRecord tweet = pending.removeFirst();
+        if (pending.isEmpty()) {
+            records.remove(id);
+        }
+        try {
+            if (result != null && result.getAggregate() != null) { // else written without aggregate
+                tweet.setAggregate(result.getAggregate().getSentiment(), result.getAggregate().getScore());
+            }
+            writer.write(tweet);
+            if (result != null) {
+                for (Sentiment found : result.getPositive()) {
+                    writeSentiment(tweet.getId(), found);
+                }
+                for (Sentiment found : result.getNegative()) {
+                    writeSentiment(tweet.getId(), found);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void writeSentiment(long id, Sentiment found) throws IOException {
+        writer.write(sentiment.setTweetId(id)
+                              .setSentiment(found.getSentiment())
+                              .setTopic(found.getTopic())
+                              .setScore(found.getScore()));
+    }
+
+    /**
+     * Writes the frames buffered so far
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     *
+     * @return number of results whose id had no tweet
+     */
+    public long getUnmatched() {
+        return unmatched;
+    }
+
+    /**
+     *
+     * @return number of tweets whose result was not written yet
+     */
+    public int getPending() {
+        return records.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    /**
+     * Closes the input and the output
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.lagunex.nlp;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Position of a run of com.lagunex.nlp.Main that was completely written: every input line before
+ * inputOffset has its results in the output before outputOffset, and nothing else is there.
+ *
+ * The checkpoint is a properties file that is replaced atomically, so a run that dies while
+ * writing it leaves the previous checkpoint intact.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class Checkpoint {
+    private static final String INPUT_OFFSET = "inputOffset";
+    private static final String OUTPUT_OFFSET = "outputOffset";
+    private static final String LINES = "lines";
+
+    private final long inputOffset;
+    private final long outputOffset;
+    private final long lines;
+
+    /**
+     *
+     * @param inputOffset byte offset of the first input line not analysed
+     * @param outputOffset size in bytes of the output written for the lines before inputOffset
+     * @param lines number of input lines before inputOffset
+     */
+    public Checkpoint(long inputOffset, long outputOffset, long lines) {
+        if (inputOffset < 0 || outputOffset < 0 || lines < 0) {
+            throw new IllegalArgumentException("offsets and lines cannot be negative");
+        }
+        this.inputOffset = inputOffset;
+        this.outputOffset = outputOffset;
+        this.lines = lines;
+    }
+
+    /**
+     *
+     * @param output output file of a run
+     * @return the checkpoint file of output: output.checkpoint
+     */
+    public static Path fileFor(Path output) {
+        return output.resolveSibling(output.getFileName() + ".checkpoint");
+    }
+
+    /**
+     *
+     * @param file
+     * @return the checkpoint saved in file or null if file does not exist
+     * @throws IOException if file cannot be read or is not a valid checkpoint
+     */
+    public static Checkpoint read(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        try {
+            return new Checkpoint(
+                    Long.parseLong(properties.getProperty(INPUT_OFFSET)),
+                    Long.parseLong(properties.getProperty(OUTPUT_OFFSET)),
+                    Long.parseLong(properties.getProperty(LINES)));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid checkpoint " + file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Saves the checkpoint in file. The content is synced to disk in a temporary file
+     * that then replaces file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(INPUT_OFFSET, Long.toString(inputOffset));
+        properties.setProperty(OUTPUT_OFFSET, Long.toString(outputOffset));
+        properties.setProperty(LINES, Long.toString(lines));
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public long getInputOffset() {
+        return inputOffset;
+    }
+
+    public long getOutputOffset() {
+        return outputOffset;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("inputOffset=%d outputOffset=%d lines=%d", inputOffset, outputOffset, lines);
+    }
+}
@@ -0,0 +1,104 @@
+package com.lagunex.nlp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker that stops calling the API when too many of the latest calls failed.
+ *
+ * - CLOSED: calls are allowed and their outcome is recorded in a window of the latest calls.
+ *   When the window is full and its error rate reaches the threshold, the breaker opens.
+ * - OPEN: calls are rejected, so callers fail fast and use a fallback, until the open time elapses.
+ * - HALF_OPEN: a single trial call is allowed. If it succeeds the breaker closes, otherwise it opens again.
+ *
+ * This class is thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class CircuitBreaker {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final boolean[] window; // true for failures
+    private final double threshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int next, size, failures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long rejected;
+
+    /**
+     *
+     * @param windowSize number of latest calls considered
+     * @param threshold error rate between 0 and 1 that opens the breaker, more than 1 never opens it
+     * @param openMillis time to wait before the trial call
+     */
+    public CircuitBreaker(int windowSize, double threshold, long openMillis) {
+        this.window = new boolean[windowSize];
+        this.threshold = threshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return true if the call can be performed. In that case, its outcome must be recorded
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        boolean allowed = state == State.CLOSED || (state == State.HALF_OPEN && !trialInFlight);
+        if (state == State.HALF_OPEN && allowed) {
+            trialInFlight = true;
+        }
+        if (!allowed) rejected++;
+        return allowed;
+    }
+
+    /**
+     * @param success false if the call failed
+     */
+    public synchronized void record(boolean success) {
+        if (state == State.HALF_OPEN) {
+            if (success) {
+                close();
+            } else {
+                open();
+            }
+            return;
+        }
+        if (size == window.length) {
+            if (window[next]) failures--;
+        } else {
+            size++;
+        }
+        window[next] = !success;
+        if (!success) failures++;
+        next = (next + 1) % window.length;
+
+        if (state == State.CLOSED && size == window.length && failures >= threshold * size) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        next = size = failures = 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return number of calls rejected while the breaker was open
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
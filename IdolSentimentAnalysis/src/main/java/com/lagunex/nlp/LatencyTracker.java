@@ -0,0 +1,148 @@
+package com.lagunex.nlp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies used to estimate percentiles.
+ *
+ * Latencies are counted in logarithmic buckets: every power of two of microseconds is split in
+ * eight buckets, so a percentile is never more than 12.5% above the real value. Recording is
+ * lock free and the memory used is fixed.
+ *
+ * By default every latency recorded counts. With a window, the latencies are kept in two histograms
+ * and the older one is emptied and reused each time the newer one holds window latencies, so the mean
+ * and the percentiles only cover the latest window to 2 * window calls and follow changes of the API.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class LatencyTracker {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long window;
+    private final AtomicLong count = new AtomicLong();
+    private volatile Histogram current = new Histogram();
+    private volatile Histogram previous = new Histogram();
+
+    private static class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+
+        void clear() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalNanos.set(0);
+        }
+    }
+
+    /**
+     * Counts every latency recorded
+     */
+    public LatencyTracker() {
+        this(0);
+    }
+
+    /**
+     * @param window number of latest calls the statistics are kept for, at least; 0 to keep every call
+     */
+    public LatencyTracker(long window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must not be negative");
+        }
+        this.window = window;
+    }
+
+    /**
+     * @param nanos latency of one call
+     */
+    public void record(long nanos) {
+        Histogram h = current;
+        h.buckets.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        h.totalNanos.addAndGet(nanos);
+        count.incrementAndGet();
+        if (h.count.incrementAndGet() >= window && window > 0) {
+            rotate(h);
+        }
+    }
+
+    private synchronized void rotate(Histogram full) {
+        if (current == full) { // another thread has not rotated it yet
+            Histogram empty = previous;
+            empty.clear();
+            previous = full;
+            current = empty;
+        }
+    }
+
+    private int bucket(long micros) {
+        long value = Math.max(1, micros);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = exponent >= SUB_BUCKET_BITS ?
+                (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1) :
+                (int)(value << (SUB_BUCKET_BITS - exponent)) & (SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return upper bound in nanoseconds of the latencies counted in bucket
+     */
+    private long upperBound(int bucket) {
+        int exponent = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        double micros = Math.pow(2, exponent) * (SUB_BUCKETS + sub + 1) / SUB_BUCKETS;
+        return (long)(micros * 1000);
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99 for the 99th percentile
+     * @return latency in nanoseconds below which percentile% of the calls were recorded, 0 if there are no records
+     */
+    public long getPercentile(double percentile) {
+        Histogram newer = current, older = previous;
+        long total = newer.count.get() + older.count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(total * percentile / 100);
+        long seen = 0;
+        int last = newer.buckets.length() - 1;
+        for (int i = 0; i < last; i++) {
+            seen += newer.buckets.get(i) + older.buckets.get(i);
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(last);
+    }
+
+    /**
+     * @return number of latencies recorded, including those that are out of the window
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return mean latency in nanoseconds, 0 if there are no records
+     */
+    public long getMean() {
+        Histogram newer = current, older = previous;
+        long total = newer.count.get() + older.count.get();
+        return total == 0 ? 0 : (newer.totalNanos.get() + older.totalNanos.get()) / total;
+    }
+
+    /**
+     *
+     * @return "n=count mean=m p50=x p95=y p99=z" with latencies in milliseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1fms p50=%.1fms p95=%.1fms p99=%.1fms", getCount(),
+                getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(95) / 1e6, getPercentile(99) / 1e6);
+    }
+}
@@ -0,0 +1,257 @@
+package com.lagunex.nlp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scores opinions inside the JVM with a lexicon of sentiment words, without calling any API.
+ *
+ * The lexicon of each language is read from lexicon/code.txt next to this class (see lexicon/en.txt
+ * for the format). Every sentiment word found becomes a Sentiment whose topic is the next word that is
+ * neither a stopword nor a sentiment word. Its score is multiplied by a preceding intensifier and flipped by
+ * a negator up to three words before it. The aggregate is positive, negative, mixed or neutral and its score
+ * is the mean of the sentiments, the same shape IdolOnDemand answers with.
+ *
+ * score() also tells how much the result can be trusted, so the hybrid mode of SentimentAnalysis
+ * only sends the opinions the lexicon is unsure about to the API:
+ *
+ * - no sentiment word, no negator and no contrast word: 1, the opinion is obviously neutral
+ * - negators, contrast words (but, however, ?) or both polarities: 0
+ * - otherwise it grows with the number of sentiment words: 1 - 1 / (1 + words)
+ *
+ * Languages without a lexicon always get confidence 0 and a null result.
+ *
+ * This class is immutable and thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class LexiconEngine implements SentimentEngine {
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}']+|\\?");
+    private static final int NEGATION_WINDOW = 3;
+    private static final String POSITIVE = "positive", NEGATIVE = "negative", NEUTRAL = "neutral", MIXED = "mixed";
+
+    private final Map<SentimentAnalysis.Language, Lexicon> lexicons = new EnumMap<>(SentimentAnalysis.Language.class);
+
+    /**
+     * Loads the lexicons of every language that has one
+     */
+    public LexiconEngine() {
+        for (SentimentAnalysis.Language lang : SentimentAnalysis.Language.values()) {
+            String name = "lexicon/" + lang.getCode() + ".txt";
+            InputStream is = LexiconEngine.class.getResourceAsStream(name);
+            if (is != null) {
+                lexicons.put(lang, Lexicon.read(name, is));
+            }
+        }
+    }
+
+    /**
+     *
+     * @param lang
+     * @return true if opinions in lang can be scored
+     */
+    public boolean supports(SentimentAnalysis.Language lang) {
+        return lexicons.containsKey(lang);
+    }
+
+    @Override
+    public SentimentResult analyse(String opinion, SentimentAnalysis.Language lang) {
+        return score(opinion, lang).getResult();
+    }
+
+    /**
+     *
+     * @param opinion
+     * @param lang
+     * @return the result and how much it can be trusted
+     */
+    public Scored score(String opinion, SentimentAnalysis.Language lang) {
+        Lexicon lexicon = lexicons.get(lang);
+        if (opinion == null || lexicon == null) {
+            return new Scored(null, 0);
+        }
+
+        List<String> tokens = tokenize(opinion);
+        List<Sentiment> positive = new ArrayList<>();
+        List<Sentiment> negative = new ArrayList<>();
+        boolean uncertain = false;
+        int lastNegator = -NEGATION_WINDOW - 1;
+        double intensity = 1;
+        double total = 0;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (lexicon.negators.contains(token)) {
+                lastNegator = i;
+                uncertain = true;
+            } else if (lexicon.contrast.contains(token)) {
+                uncertain = true;
+            } else if (lexicon.intensifiers.containsKey(token)) {
+                intensity *= lexicon.intensifiers.get(token);
+            } else if (lexicon.words.containsKey(token)) {
+                double score = lexicon.words.get(token) * intensity;
+                if (i - lastNegator <= NEGATION_WINDOW) {
+                    score = -score;
+                }
+                score = round(Math.max(-1, Math.min(1, score)));
+                Sentiment sentiment = new Sentiment();
+                sentiment.setSentiment(token);
+                sentiment.setTopic(topic(tokens, i, lexicon));
+                sentiment.setScore(score);
+                (score >= 0 ? positive : negative).add(sentiment);
+                total += score;
+                intensity = 1;
+            }
+        }
+
+        int found = positive.size() + negative.size();
+        Aggregate aggregate = new Aggregate();
+        if (found == 0) {
+            aggregate.setSentiment(NEUTRAL);
+        } else {
+            aggregate.setSentiment(negative.isEmpty() ? POSITIVE : positive.isEmpty() ? NEGATIVE : MIXED);
+            aggregate.setScore(round(total / found));
+        }
+        SentimentResult result = new SentimentResult();
+        result.setPositive(positive);
+        result.setNegative(negative);
+        result.setAggregate(aggregate);
+
+        double confidence;
+        if (uncertain || (!positive.isEmpty() && !negative.isEmpty())) {
+            confidence = 0;
+        } else if (found == 0) {
+            confidence = 1;
+        } else {
+            confidence = 1 - 1.0 / (1 + found);
+        }
+        return new Scored(result, confidence);
+    }
+
+    /**
+     * Keeps four decimals, so products of weights print as 0.9 and not 0.8999999999999999
+     */
+    private double round(double score) {
+        return Math.round(score * 10000) / 10000.0;
+    }
+
+    private List<String> tokenize(String opinion) {
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(opinion.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            tokens.add(matcher.group());
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the closest of the next two words that is neither a stopword nor a sentiment word, or null
+     */
+    private String topic(List<String> tokens, int position, Lexicon lexicon) {
+        for (int i = position + 1; i < tokens.size() && i <= position + 2; i++) {
+            String token = tokens.get(i);
+            if (lexicon.contrast.contains(token)) {
+                break;
+            }
+            if (!lexicon.stopwords.contains(token) && !lexicon.words.containsKey(token)
+                    && !lexicon.negators.contains(token) && !lexicon.intensifiers.containsKey(token)) {
+                return token;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A result and how much it can be trusted, between 0 and 1
+     */
+    public static class Scored {
+        private final SentimentResult result;
+        private final double confidence;
+
+        Scored(SentimentResult result, double confidence) {
+            this.result = result;
+            this.confidence = confidence;
+        }
+
+        /**
+         * @return result or null if the language has no lexicon
+         */
+        public SentimentResult getResult() {
+            return result;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+    }
+
+    /**
+     * Words of one language, read from a file with [words], [negators], [intensifiers],
+     * [contrast] and [stopwords] sections
+     */
+    private static class Lexicon {
+        private final Map<String, Double> words = new HashMap<>();
+        private final Map<String, Double> intensifiers = new HashMap<>();
+        private final Set<String> negators = new HashSet<>();
+        private final Set<String> contrast = new HashSet<>();
+        private final Set<String> stopwords = new HashSet<>();
+
+        /**
+         * @param name name of the file, for the errors
+         * @param is content of the file
+         * @throws UncheckedIOException if is cannot be read or a line is not valid
+         */
+        static Lexicon read(String name, InputStream is) {
+            Lexicon lexicon = new Lexicon();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                String section = null;
+                String line;
+                for (int number = 1; (line = reader.readLine()) != null; number++) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    if (line.startsWith("[")) {
+                        section = line;
+                        continue;
+                    }
+                    if (section == null) {
+                        throw new IOException(String.format("%s:%d: word before the first section", name, number));
+                    }
+                    String[] fields = line.toLowerCase(Locale.ROOT).split("\\s+");
+                    try {
+                        switch (section) {
+                            case "[words]": lexicon.words.put(fields[0], Double.parseDouble(fields[1])); break;
+                            case "[intensifiers]":
+                                lexicon.intensifiers.put(fields[0], Double.parseDouble(fields[1])); break;
+                            case "[negators]": lexicon.negators.add(fields[0]); break;
+                            case "[contrast]": lexicon.contrast.add(fields[0]); break;
+                            case "[stopwords]": lexicon.stopwords.add(fields[0]); break;
+                            default:
+                                throw new IOException(String.format("%s:%d: unknown section %s", name, number, section));
+                        }
+                    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                        throw new IOException(String.format("%s:%d: a word and its score expected", name, number), e);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return lexicon;
+        }
+    }
+}
@@ -1,13 +1,40 @@
 package com.lagunex.nlp;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.lagunex.util.BinaryRecordReader;
+import com.lagunex.util.BinaryRecordWriter;
+import com.lagunex.util.ChunkedLineReader;
+import com.lagunex.util.LineReader;
+import com.lagunex.util.OffsetLineReader;
 
 // external dependencies used to parse the command line arguments
 import org.apache.commons.cli.BasicParser;
@@ -30,7 +57,15 @@ import org.apache.commons.cli.ParseException;
  * 4983759487|This is a good valid line|en
  * 4857234985|Esta es una línea en español|es|2015-01-01 14:00:00|additional data...
  * 
- * The line is splitted by '|' and only the first three tokens are required
+ * The line is splitted by '|' and only the first three tokens are required. Escaped separators (\|) and
+ * collapsed line breaks (\n) in the text are restored before it is analysed, see RecordCodec
+ * 
+ * Input files are read as UTF-8 in chunks of lines decoded ahead by other threads (see ChunkedLineReader),
+ * and decompressed if their name ends in .gz. stdin is read line by line with the platform charset.
+ * The output file of -o is written as UTF-8 too, and stdout with the platform charset.
+ * 
+ * Lines with an unsupported language or with noise (see -f) are not analysed and produce an empty line.
+ * Texts with nothing but URLs, mentions and hashtags are not sent either, they are always neutral|0.0
  * 
  * The output consiste of one or more lines per line of input.
  * The first line can be null if there was an error analysin the input or it can have the format
@@ -49,16 +84,61 @@ import org.apache.commons.cli.ParseException;
  * 
  * 4983759487|good|valid line|0.6
  * 
+ * While it runs, a summary of the metrics of SentimentAnalysis is logged periodically (see -s)
+ * and published through JMX as com.lagunex.nlp:type=SentimentMetrics.
+ * 
+ * When both -i and -o are files, a checkpoint is saved in output.checkpoint every -k lines of input:
+ * the offset of the next input line and the size of the output written so far, synced to disk.
+ * Results are written in input order, so the checkpoint never covers a line whose results are missing.
+ * After a failure, run again with -r to truncate the output to the checkpoint and continue reading
+ * the input from there, without analysing the same lines twice.
+ * 
+ * With -p the application runs as a server that keeps the analyser warm and analyses the lines sent by
+ * local clients over TCP (see AnalysisServer). Results are written as soon as the input stops,
+ * so a slow producer piped to stdin gets its results while it keeps writing.
+ * 
+ * With -w the application coordinates several of those servers, e.g. one per API key, and splits the input
+ * among them by the hash of the id (see ShardCoordinator). The output is the same as if it ran alone.
+ * 
+ * With -t the output is written as the tbl files loaded in Vertica instead, tweet.tbl and sentiment.tbl,
+ * in the same pass (see TblWriter). Each input line is kept until its result is written next to it.
+ * 
+ * With -B both input and output are binary records (see BinaryRecordWriter) instead of text: the input is
+ * the tweets written by TwitterCollect -B and the output is each tweet with its aggregate followed by its
+ * sentiments (see BinaryRecords). Checkpoints work the same, with offsets in bytes of the binary files.
+ * 
  * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
  */
 public class Main {
     private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
 
-    private final String SEPARATOR_REGEX="\\|";
-    private final char DEFAULT_SEPARATOR = '|';
+    private static final char DEFAULT_SEPARATOR = '|';
+    private final int DEFAULT_CONCURRENCY = 1;
+    private final int DEFAULT_BATCH_SIZE = 1;
+    private final int DEFAULT_STATS_INTERVAL = 10;
+    private final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+    private final String METRICS_NAME = "com.lagunex.nlp:type=SentimentMetrics";
 
-    private final BufferedReader input;
+    private final Checkpoint start;
+    private final Path checkpointFile;
+    private final LineReader input;
+    private final FileOutputStream outputFile;
     private final PrintWriter output;
+    private final TblWriter tbl;
+    private final BinaryRecords binary;
+    private final int concurrency;
+    private final int batchSize;
+    private final OpinionFilter filter;
+    private final int statsInterval;
+    private final int checkpointInterval;
+    private final int port;
+    private final InetAddress address;
+    private final List<InetSocketAddress> workers;
+    // offsets where the input lines read but not written yet end, in input order
+    private final Deque<Long> pendingOffsets = new ArrayDeque<>();
+    private long linesWritten;
+    private long inputOffset;
+    private SentimentMetrics metrics;
 
     /**
      * Entry poing of the application
@@ -67,23 +147,81 @@ public class Main {
      */
     public static void main(String[] args) {
         Main main = new Main(args);
-        main.analyseInput();
+        if (main.port > 0) {
+            main.serve();
+        } else if (main.workers != null) {
+            main.coordinate();
+        } else {
+            main.analyseInput();
+        }
         main.flushAndCloseResources();
+        if (main.workers == null) {
+            SentimentAnalysis.getInstance().close();
+        }
     }
 
     public Main(String[] args) {
         Options opt = getCliOptions();
         CommandLine cli = parseOptions(opt,args);
 
-        input = getBufferReader(cli);
+        checkpointFile = cli.hasOption('i') && cli.hasOption('o') ?
+                Checkpoint.fileFor(Paths.get(cli.getOptionValue('o'))) : null;
+        if (cli.hasOption('r') && checkpointFile == null) {
+            System.err.println("--resume requires -i and -o");
+            printHelpAndExit(opt, -1);
+        }
+        start = getCheckpoint(cli);
+        if (cli.hasOption('t') && (cli.hasOption('o') || cli.hasOption('p') || cli.hasOption('w'))) {
+            System.err.println("--tbl cannot be used with -o, -p or -w");
+            printHelpAndExit(opt, -1);
+        }
+        if (cli.hasOption('B') && (cli.hasOption('t') || cli.hasOption('p') || cli.hasOption('w'))) {
+            System.err.println("--binary cannot be used with -t, -p or -w");
+            printHelpAndExit(opt, -1);
+        }
+        outputFile = start == null ? null : getOutputFile(cli);
+        input = start == null ? null : cli.hasOption('B') ? getBinaryRecords(cli) : getLineReader(cli);
+        binary = input instanceof BinaryRecords ? (BinaryRecords) input : null;
         output = getPrintWriter(cli);
-        if (input == null || output == null) printHelpAndExit(opt, -1);
+        tbl = cli.hasOption('t') ? getTblWriter(cli) : null;
+        concurrency = getPositiveInt(cli, 'c', DEFAULT_CONCURRENCY);
+        batchSize = getPositiveInt(cli, 'b', DEFAULT_BATCH_SIZE);
+        filter = getFilter(cli);
+        statsInterval = getPositiveInt(cli, 's', DEFAULT_STATS_INTERVAL);
+        checkpointInterval = getPositiveInt(cli, 'k', DEFAULT_CHECKPOINT_INTERVAL);
+        port = getPositiveInt(cli, 'p', 0);
+        if (port > 0 && (cli.hasOption('i') || cli.hasOption('o'))) {
+            System.err.println("--port cannot be used with -i or -o");
+            printHelpAndExit(opt, -1);
+        }
+        address = getAddress(cli);
+        workers = cli.hasOption('w') ? getWorkers(cli) : null;
+        if (port > 0 && workers != null) {
+            System.err.println("--port cannot be used with --workers");
+            printHelpAndExit(opt, -1);
+        }
+        if (input == null || output == null || (cli.hasOption('t') && tbl == null) || concurrency < 1 || batchSize < 1 || filter == null || statsInterval < 0
+                || checkpointInterval < 0 || port < 0 || port > 65535 || address == null
+                || (cli.hasOption('w') && workers == null)) {
+            printHelpAndExit(opt, -1);
+        }
     }
 
     private Options getCliOptions() {
         Options options = new Options();
         options.addOption("i", "input", true, "Input file with opinions (default stdin)");
         options.addOption("o", "output", true, "Output file (default stdout)");
+        options.addOption("t", "tbl", true, "Directory where tweet.tbl and sentiment.tbl are written instead of the output");
+        options.addOption("B", "binary", false, "Reads and writes binary records instead of lines of text");
+        options.addOption("c", "concurrency", true, "Number of requests sent in parallel (default 1)");
+        options.addOption("b", "batch-size", true, "Number of lines with the same language sent per request (default 1)");
+        options.addOption("f", "filter", true, "File with regular expressions of noise texts that are not analysed, one per line");
+        options.addOption("s", "stats", true, "Seconds between summaries of the metrics, 0 disables them (default 10)");
+        options.addOption("k", "checkpoint", true, "Input lines between checkpoints when -i and -o are files, 0 disables them (default 1000)");
+        options.addOption("r", "resume", false, "Continues from the checkpoint of the output file (requires -i and -o)");
+        options.addOption("p", "port", true, "Runs as a server that analyses the lines sent to this port of localhost");
+        options.addOption("a", "address", true, "Address the server listens to with -p, e.g. 0.0.0.0 to accept remote coordinators (default localhost)");
+        options.addOption("w", "workers", true, "Splits the input among the servers in this comma-separated list of host:port");
 
         options.addOption("h", "help", false, "Prints this message");
         return options;
@@ -121,87 +259,447 @@ public class Main {
     }
 
     /**
-     * Returns a BufferedReader from stdin (default) or a filename if specified
-     * with -i option
+     * Returns the checkpoint to continue from when -r is specified, or the beginning of the input
+     * when it is not or there is no checkpoint yet. Returns null if the checkpoint cannot be used
      * @param cli
      * @return 
      */
-    private BufferedReader getBufferReader(CommandLine cli) {
-        BufferedReader br = null;
+    private Checkpoint getCheckpoint(CommandLine cli) {
+        Checkpoint checkpoint = new Checkpoint(0, 0, 0);
+        if (cli.hasOption('r')) {
+            try {
+                Checkpoint saved = Checkpoint.read(checkpointFile);
+                if (saved == null) {
+                    LOGGER.warning("No checkpoint found in " + checkpointFile + ", starting from the beginning");
+                } else if (Files.size(Paths.get(cli.getOptionValue('o'))) < saved.getOutputOffset()) {
+                    throw new IOException("Output is shorter than its checkpoint " + saved);
+                } else {
+                    LOGGER.info("Resuming from checkpoint " + saved);
+                    checkpoint = saved;
+                }
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+                LOGGER.severe(ex.getMessage());
+                checkpoint = null;
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Returns a reader from stdin (default) or a filename if specified
+     * with -i option, positioned at the input offset of the checkpoint
+     * @param cli
+     * @return 
+     */
+    private LineReader getLineReader(CommandLine cli) {
+        LineReader reader = null;
         if (cli.hasOption('i')) {
             try {
-                br = new BufferedReader(new FileReader(cli.getOptionValue('i')));
-            } catch (FileNotFoundException ex) {
+                reader = new ChunkedLineReader(Paths.get(cli.getOptionValue('i')), StandardCharsets.UTF_8,
+                        start.getInputOffset());
+            } catch (IOException ex) {
                 System.err.println(ex.getMessage());
                 LOGGER.severe(ex.getMessage());
             }
         } else {
-           br = new BufferedReader(new InputStreamReader(System.in));
+            reader = new OffsetLineReader(System.in, Charset.defaultCharset(), 0);
+        }
+        inputOffset = start.getInputOffset();
+        linesWritten = start.getLines();
+        return reader;
+    }
+
+    /**
+     * Returns the tweets of stdin (default) or the file specified with -i option
+     * from the input offset of the checkpoint, analysed into stdout (default) or the file
+     * specified with -o option. Returns null if the files cannot be opened
+     * @param cli
+     * @return 
+     */
+    private BinaryRecords getBinaryRecords(CommandLine cli) {
+        if (cli.hasOption('o') && outputFile == null) {
+            return null;
+        }
+        BinaryRecords records = null;
+        try {
+            BinaryRecordReader reader;
+            if (cli.hasOption('i')) {
+                FileInputStream in = new FileInputStream(cli.getOptionValue('i'));
+                in.getChannel().position(start.getInputOffset());
+                reader = new BinaryRecordReader(in, start.getInputOffset());
+            } else {
+                reader = new BinaryRecordReader(System.in, 0);
+            }
+            OutputStream out = outputFile != null ? outputFile : System.out;
+            records = new BinaryRecords(reader, new BinaryRecordWriter(out));
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.severe(ex.getMessage());
         }
-        return br;
+        inputOffset = start.getInputOffset();
+        linesWritten = start.getLines();
+        return records;
     }
 
     /**
-     * Returns a PrintWriter from stdout (default) or a filename if specified
+     * Returns the file specified with -o option truncated to the output offset of the checkpoint,
+     * or null if the output is stdout or the file cannot be opened
+     * @param cli
+     * @return 
+     */
+    private FileOutputStream getOutputFile(CommandLine cli) {
+        FileOutputStream out = null;
+        if (cli.hasOption('o')) {
+            Path file = Paths.get(cli.getOptionValue('o'));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.truncate(start.getOutputOffset());
+                out = new FileOutputStream(file.toFile(), true);
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+                LOGGER.severe(ex.getMessage());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Returns a PrintWriter from stdout (default) or the file specified
      * with -o option
      * @param cli
      * @return 
      */
     private PrintWriter getPrintWriter(CommandLine cli) {
         PrintWriter pw = null;
-        if (cli.hasOption('o')) {
+        if (!cli.hasOption('o')) {
+            pw = new PrintWriter(System.out);
+        } else if (outputFile != null) {
+            pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(outputFile, StandardCharsets.UTF_8)));
+        }
+        return pw;
+    }
+
+    /**
+     * Returns a writer of the tbl files in the directory specified with -t option.
+     * Returns null if the files cannot be created
+     * @param cli
+     * @return 
+     */
+    private TblWriter getTblWriter(CommandLine cli) {
+        TblWriter writer = null;
+        try {
+            writer = new TblWriter(Paths.get(cli.getOptionValue('t')), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.severe(ex.getMessage());
+        }
+        return writer;
+    }
+
+    /**
+     * Returns the address specified with -a option or the loopback address (default).
+     * Returns null if the address cannot be resolved
+     * @param cli
+     * @return 
+     */
+    private InetAddress getAddress(CommandLine cli) {
+        InetAddress inetAddress = null;
+        try {
+            inetAddress = cli.hasOption('a') ? InetAddress.getByName(cli.getOptionValue('a')) : InetAddress.getLoopbackAddress();
+        } catch (UnknownHostException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.severe(ex.getMessage());
+        }
+        return inetAddress;
+    }
+
+    /**
+     * Returns the servers specified with -w option as host:port,host:port...
+     * Returns null if any of them is not valid
+     * @param cli
+     * @return 
+     */
+    private List<InetSocketAddress> getWorkers(CommandLine cli) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String worker : cli.getOptionValue('w').split(",")) {
+            int colon = worker.lastIndexOf(':');
             try {
-                pw = new PrintWriter(cli.getOptionValue('o'));
-            } catch (IOException ex) {
+                addresses.add(new InetSocketAddress(worker.substring(0, colon).trim(),
+                        Integer.parseInt(worker.substring(colon + 1).trim())));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+                System.err.println("Invalid worker " + worker);
+                LOGGER.severe("Invalid worker " + worker);
+                return null;
+            }
+        }
+        return addresses;
+    }
+
+    // returns the value of option or -1 if it is not a valid integer
+    private int getPositiveInt(CommandLine cli, char option, int defaultValue) {
+        int value = -1;
+        try {
+            value = cli.hasOption(option) ? Integer.parseInt(cli.getOptionValue(option)) : defaultValue;
+        } catch (NumberFormatException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.severe(ex.getMessage());
+        }
+        return value;
+    }
+
+    /**
+     * Returns a filter with the noise patterns of the file specified with -f option
+     * or without noise patterns (default). Returns null if the file cannot be read
+     * @param cli
+     * @return 
+     */
+    private OpinionFilter getFilter(CommandLine cli) {
+        OpinionFilter opinionFilter = null;
+        if (cli.hasOption('f')) {
+            try {
+                opinionFilter = OpinionFilter.fromFile(Paths.get(cli.getOptionValue('f')));
+            } catch (IOException | RuntimeException ex) {
                 System.err.println(ex.getMessage());
                 LOGGER.severe(ex.getMessage());
             }
         } else {
-            pw = new PrintWriter(System.out);
+            opinionFilter = new OpinionFilter();
         }
-        return pw;
+        return opinionFilter;
     }
 
+    /**
+     * Analyses the input with a pool of concurrency workers, sending batchSize lines per request.
+     * The results are printed in the same order as the input lines
+     */
     private void analyseInput() {
         SentimentAnalysis client = SentimentAnalysis.getInstance();
-        String line = getNextLine();
-        while(line != null) {
-            String[] tokens = line.split(SEPARATOR_REGEX); // format: "id|text|lang" e.g. "8245245|text to analyze|en"
-            SentimentResult result = client.analyse(
-                tokens[1],
-                SentimentAnalysis.Language.getLanguage(tokens[2])
-            );
-            printResult(tokens[0],result);
-            line = getNextLine();
+        metrics = client.getMetrics();
+        metrics.setFilter(filter);
+        registerMetrics();
+        ScheduledExecutorService reporter = startReporter();
+        AnalysisPipeline pipeline = batchSize == 1 ?
+                new AnalysisPipeline(client::analyse, concurrency) :
+                new AnalysisPipeline(client::analyse, concurrency, batchSize);
+        pipeline.setFilter(filter);
+        try {
+            pipeline.process(this::getNextLine, this::isInputReady, this::printResult);
+            saveCheckpoint();
+        } finally {
+            pipeline.shutdown();
+            if (reporter != null) reporter.shutdownNow();
+        }
+        LOGGER.info("Metrics " + metrics.getSummary());
+        LOGGER.info(String.format("Filtered %d lines without calling the API: %s", filter.getFiltered(), filter));
+        if (client.getCache() != null) {
+            LOGGER.info("Cache " + client.getCache());
         }
+        if (client.getNearDuplicates() != null) {
+            LOGGER.info("Near-duplicates " + client.getNearDuplicates());
+        }
+        if (client.getKeys() != null) {
+            LOGGER.info("Keys " + client.getKeys());
+        }
+        LOGGER.info(String.format("Latency %s hedged=%d deadlinesExceeded=%d breakerRejected=%d localAnswers=%d",
+                client.getLatency(), client.getHedged(), client.getDeadlinesExceeded(),
+                client.getBreaker().getRejected(), client.getLocalAnswers()));
+    }
+
+    /**
+     * Splits the input among the workers and writes their results in input order
+     */
+    private void coordinate() {
+        metrics = new SentimentMetrics();
+        registerMetrics();
+        ScheduledExecutorService reporter = startReporter();
+        try (ShardCoordinator coordinator = new ShardCoordinator(workers)) {
+            try {
+                coordinator.process(this::getNextLine, this::isInputReady, this::printLines);
+                saveCheckpoint();
+            } finally {
+                LOGGER.info("Shards " + coordinator);
+            }
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.severe(ex.getMessage());
+        } finally {
+            if (reporter != null) reporter.shutdownNow();
+        }
+        LOGGER.info("Metrics " + metrics.getSummary());
+    }
+
+    /**
+     * Analyses the lines sent by clients to address:port until the application is stopped,
+     * sharing concurrency workers among all of them
+     */
+    private void serve() {
+        SentimentAnalysis client = SentimentAnalysis.getInstance();
+        metrics = client.getMetrics();
+        metrics.setFilter(filter);
+        registerMetrics();
+        ScheduledExecutorService reporter = startReporter();
+        try (AnalysisServer server = new AnalysisServer(address, port,
+                batchSize == 1 ? AnalysisPipeline.perText(client::analyse) : client::analyse,
+                concurrency, batchSize)) {
+            server.setFilter(filter);
+            server.setMetrics(metrics);
+            Thread main = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(); // serve() returns and the server is closed below
+                try {
+                    main.join(TimeUnit.SECONDS.toMillis(5)); // lets main close SentimentAnalysis
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            LOGGER.info(String.format("Listening on %s:%d", address.getHostAddress(), server.getPort()));
+            server.serve();
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.severe(ex.getMessage());
+        } finally {
+            if (reporter != null) reporter.shutdownNow();
+        }
+        LOGGER.info("Metrics " + metrics.getSummary());
+    }
+
+    /**
+     * Publishes the metrics through JMX. A failure is logged but does not stop the analysis
+     */
+    private void registerMetrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(METRICS_NAME));
+        } catch (JMException ex) {
+            LOGGER.warning(ex.getMessage());
+        }
+    }
+
+    /**
+     * Logs the summary of the metrics every statsInterval seconds
+     * @return the reporter or null if statsInterval is 0
+     */
+    private ScheduledExecutorService startReporter() {
+        if (statsInterval == 0) {
+            return null;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> LOGGER.info("Metrics " + metrics.getSummary()),
+                statsInterval, statsInterval, TimeUnit.SECONDS);
+        return reporter;
     }
 
     // Encapsulates the reading process to handle Exception
     private String getNextLine() {
         String line = null;
         try {
+            if (!isInputReady()) {
+                output.flush(); // the results written so far are not kept waiting for a slow producer
+                if (tbl != null) tbl.flush();
+                if (binary != null) binary.flush();
+            }
             line = input.readLine();
+            if (line != null) {
+                pendingOffsets.addLast(input.getOffset());
+                if (tbl != null) tbl.addRecord(line);
+            }
         } catch(IOException e) {
             LOGGER.severe(e.getMessage());
         }
         return line;
     }
 
-    private void printResult(String id, SentimentResult result) {
-        Consumer<Object> print = sentiment -> output.printf("%s%c%s%n", id, DEFAULT_SEPARATOR, sentiment);
+    private boolean isInputReady() {
+        try {
+            return input.ready();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the lines of a result: "id|aggregate" followed by one "id|sentiment" per sentiment,
+     * or an empty line if result is null
+     * @param out
+     * @param id
+     * @param result 
+     */
+    static void printResult(PrintWriter out, String id, SentimentResult result) {
+        Consumer<Object> print = sentiment -> out.printf("%s%c%s%n", id, DEFAULT_SEPARATOR, sentiment);
         if (result != null) {
             print.accept(result.getAggregate());
             result.getPositive().forEach(print);
             result.getNegative().forEach(print);
         } else {
-            output.println();
+            out.println();
+        }
+    }
+
+    private void printResult(String id, SentimentResult result) {
+        if (tbl != null) {
+            tbl.write(id, result);
+        } else if (binary != null) {
+            binary.write(id, result);
+        } else {
+            printResult(output, id, result);
+        }
+        lineWritten();
+    }
+
+    private void printLines(List<String> lines) {
+        lines.forEach(output::println);
+        lineWritten();
+    }
+
+    // keeps track of the position of the lines written for the checkpoints
+    private void lineWritten() {
+        metrics.recordLine();
+
+        inputOffset = pendingOffsets.removeFirst();
+        linesWritten++;
+        if (checkpointInterval > 0 && linesWritten % checkpointInterval == 0) {
+            saveCheckpoint();
+        }
+    }
+
+    /**
+     * Syncs the output to disk and then saves the position of the lines written so far.
+     * Does nothing unless both input and output are files
+     */
+    private void saveCheckpoint() {
+        if (checkpointFile == null || checkpointInterval == 0) {
+            return;
+        }
+        output.flush();
+        if (output.checkError()) {
+            throw new IllegalStateException("Cannot write the output, the checkpoint is not saved");
+        }
+        try {
+            if (binary != null) binary.flush();
+            outputFile.getFD().sync();
+            new Checkpoint(inputOffset, outputFile.getChannel().position(), linesWritten).write(checkpointFile);
+        } catch (IOException ex) {
+            LOGGER.warning("Cannot save checkpoint: " + ex.getMessage());
         }
-        System.err.print('.');
     }
 
     private void flushAndCloseResources() {
+        if (binary != null && (binary.getUnmatched() > 0 || binary.getPending() > 0)) {
+            LOGGER.warning(String.format("binary output: %d results without tweet, %d tweets without result",
+                    binary.getUnmatched(), binary.getPending()));
+        }
         try { input.close(); } catch (Exception e) { LOGGER.warning(e.getMessage()); }
         output.flush();
         output.close();
+        if (tbl != null) {
+            if (tbl.getUnmatched() > 0 || tbl.getPending() > 0) {
+                LOGGER.warning(String.format("tbl files: %d results without record, %d records without result",
+                        tbl.getUnmatched(), tbl.getPending()));
+            }
+            try { tbl.close(); } catch (IOException e) { LOGGER.severe(e.getMessage()); }
+        }
     }
 }
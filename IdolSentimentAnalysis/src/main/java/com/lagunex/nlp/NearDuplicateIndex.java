@@ -0,0 +1,237 @@
+package com.lagunex.nlp;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds results of texts that are almost the same as a new one: retweets ("RT @user: text"),
+ * quotes ("“@user: text”") or the same text with a different shortened URL.
+ *
+ * Every text is reduced to a 64 bit SimHash of its words and pairs of words, after removing
+ * retweet prefixes, mentions, URLs and punctuation. Two texts are near-duplicates when their
+ * fingerprints differ in at most maxDistance bits. The fingerprint is split in maxDistance + 1 bands,
+ * so near-duplicates share at least one band exactly, and each band is looked up in a table of
+ * fixed-size buckets. A lookup or an insertion checks a constant number of candidates.
+ *
+ * Memory is bounded: the latest capacity results are kept in a ring and the oldest are overwritten.
+ * Texts with fewer than MIN_WORDS words are not indexed, because their fingerprints are not reliable.
+ *
+ * This class is thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class NearDuplicateIndex {
+    static final int MIN_WORDS = 3;
+    private static final int BUCKET_SIZE = 4;
+    private static final Pattern NOISE = Pattern.compile(
+            "(?i)\\bRT\\b|https?://\\S+|www\\.\\S+|@[\\p{L}\\p{N}_]+");
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int maxDistance;
+    private final int bands;
+    private final int bandBits;
+
+    // ring of the latest results, slot i holds fingerprints[i], languages[i] and results[i]
+    private final long[] fingerprints;
+    private final SentimentAnalysis.Language[] languages;
+    private final SentimentResult[] results;
+    private int next, size;
+
+    // one table per band, each bucket keeps BUCKET_SIZE ring slots + 1 (0 means empty)
+    private final int[][] tables;
+    private final int bucketMask;
+
+    private long hits, misses;
+
+    /**
+     *
+     * @param capacity maximum number of results kept
+     * @param maxDistance maximum number of different bits between near-duplicates, between 0 and 15
+     */
+    public NearDuplicateIndex(int capacity, int maxDistance) {
+        if (capacity < 1 || maxDistance < 0 || maxDistance > 15) {
+            throw new IllegalArgumentException("capacity must be positive and maxDistance between 0 and 15");
+        }
+        this.maxDistance = maxDistance;
+        this.bands = maxDistance + 1;
+        this.bandBits = 64 / bands;
+        this.fingerprints = new long[capacity];
+        this.languages = new SentimentAnalysis.Language[capacity];
+        this.results = new SentimentResult[capacity];
+
+        int buckets = Integer.highestOneBit(Math.max(1, capacity * 2 / BUCKET_SIZE - 1)) << 1;
+        this.bucketMask = buckets - 1;
+        this.tables = new int[bands][buckets * BUCKET_SIZE];
+    }
+
+    /**
+     *
+     * @param text
+     * @param lang
+     * @return the result of a near-duplicate of text in the same language, or null if there is none
+     */
+    public SentimentResult get(String text, SentimentAnalysis.Language lang) {
+        long fingerprint = fingerprint(text);
+        if (fingerprint == 0) {
+            return null;
+        }
+        synchronized (this) {
+            for (int band = 0; band < bands; band++) {
+                int bucket = bucket(band, fingerprint);
+                for (int i = 0; i < BUCKET_SIZE; i++) {
+                    int slot = tables[band][bucket + i] - 1;
+                    if (slot >= 0 && languages[slot] == lang && bandOf(fingerprints[slot], band) == bandOf(fingerprint, band)
+                            && Long.bitCount(fingerprints[slot] ^ fingerprint) <= maxDistance) {
+                        hits++;
+                        return results[slot];
+                    }
+                }
+            }
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the result of text, overwriting the oldest one if the index is full
+     *
+     * @param text
+     * @param lang
+     * @param result ignored if null
+     */
+    public void put(String text, SentimentAnalysis.Language lang, SentimentResult result) {
+        long fingerprint = fingerprint(text);
+        if (fingerprint == 0 || result == null) {
+            return;
+        }
+        synchronized (this) {
+            int slot = next;
+            next = (next + 1) % results.length;
+            size = Math.min(size + 1, results.length);
+            fingerprints[slot] = fingerprint;
+            languages[slot] = lang;
+            results[slot] = result;
+            for (int band = 0; band < bands; band++) {
+                int bucket = bucket(band, fingerprint);
+                // takes an empty entry, or one whose slot now holds a text of another bucket. Entries of
+                // other band values that share the bucket are live and kept
+                int target = -1, oldest = -1;
+                for (int i = 0; i < BUCKET_SIZE && target < 0; i++) {
+                    int current = tables[band][bucket + i] - 1;
+                    if (current < 0 || current == slot || bucket(band, fingerprints[current]) != bucket) {
+                        target = bucket + i;
+                    } else if (oldest < 0 || age(current) > age(tables[band][oldest] - 1)) {
+                        oldest = bucket + i;
+                    }
+                }
+                if (target < 0) { // bucket full of live entries, the oldest one in the ring leaves
+                    target = oldest;
+                }
+                tables[band][target] = slot + 1;
+            }
+        }
+    }
+
+    // number of results put after the one of slot
+    private int age(int slot) {
+        return (next - 1 - slot + results.length) % results.length;
+    }
+
+    private long bandOf(long fingerprint, int band) {
+        int shift = band * bandBits;
+        int bits = band == bands - 1 ? 64 - shift : bandBits;
+        return bits == 64 ? fingerprint : (fingerprint >>> shift) & ((1L << bits) - 1);
+    }
+
+    /**
+     * @return position of the first entry of the bucket of fingerprint in the table of band
+     */
+    private int bucket(int band, long fingerprint) {
+        long h = mix(bandOf(fingerprint, band) * 31 + band);
+        return ((int)h & bucketMask) * BUCKET_SIZE;
+    }
+
+    /**
+     * SimHash of the words and pairs of words of text after removing retweet prefixes,
+     * mentions, URLs and punctuation
+     *
+     * @param text
+     * @return the fingerprint or 0 if text has fewer than MIN_WORDS words
+     */
+    static long fingerprint(String text) {
+        if (text == null) {
+            return 0;
+        }
+        Matcher words = WORD.matcher(NOISE.matcher(text).replaceAll(" ").toLowerCase(Locale.ROOT));
+        int[] weights = new int[64];
+        int count = 0;
+        long previous = 0;
+        while (words.find()) {
+            long word = hash(words.group());
+            add(weights, mix(word));
+            if (count > 0) {
+                add(weights, mix(previous * FNV_PRIME ^ word));
+            }
+            previous = word;
+            count++;
+        }
+        if (count < MIN_WORDS) {
+            return 0;
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) fingerprint |= 1L << bit;
+        }
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static void add(int[] weights, long feature) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((feature >>> bit) & 1) == 1 ? 1 : -1;
+        }
+    }
+
+    // FNV-1a
+    private static long hash(String word) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < word.length(); i++) {
+            h ^= word.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    // finalizer of MurmurHash3, spreads every bit of h over the whole value
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     *
+     * @return "hits=n misses=n size=n"
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("hits=%d misses=%d size=%d", hits, misses, size);
+    }
+}
@@ -0,0 +1,162 @@
+package com.lagunex.nlp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which opinions are not worth an API call before they are sent.
+ *
+ * - UNSUPPORTED_LANGUAGE: the language code is missing or not one of SentimentAnalysis.Language.
+ *   The line is skipped (null result, an empty output line), the same output the API call produced.
+ * - EMPTY_TEXT: nothing is left after removing URLs, mentions, hashtags, RT markers and punctuation.
+ *   The result is always neutral|0.0.
+ * - NOISE: the text matches one of the configured noise patterns, e.g. "(?i)follow back". The line is skipped.
+ *
+ * Every decision is counted by reason, so the number of calls saved is known at the end of a run.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class OpinionFilter {
+    private static final Pattern NOT_AN_OPINION = Pattern.compile(
+            "(?i)https?://\\S+|www\\.\\S+|[@#][\\p{L}\\p{N}_]+|\\bRT\\b");
+    private static final Pattern LETTER_OR_DIGIT = Pattern.compile("[\\p{L}\\p{N}]");
+
+    public enum Reason {
+        UNSUPPORTED_LANGUAGE(false), EMPTY_TEXT(true), NOISE(false);
+
+        private final boolean neutral;
+
+        /**
+         * @param neutral true if the opinion gets a neutral result, false if it is skipped
+         */
+        Reason(boolean neutral) {
+            this.neutral = neutral;
+        }
+
+        /**
+         * @return true if the opinions filtered for this reason have a null result
+         */
+        public boolean isSkipped() {
+            return !neutral;
+        }
+    }
+
+    private final List<Pattern> noise;
+    private final Map<Reason, AtomicLong> counts = new EnumMap<>(Reason.class);
+
+    /**
+     * Creates a filter without noise patterns
+     */
+    public OpinionFilter() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     *
+     * @param noise patterns of texts that are skipped if found anywhere in the text
+     */
+    public OpinionFilter(List<Pattern> noise) {
+        this.noise = new ArrayList<>(noise);
+        for (Reason reason : Reason.values()) {
+            counts.put(reason, new AtomicLong());
+        }
+    }
+
+    /**
+     * Reads the noise patterns from a file with one regular expression per line. Blank lines are ignored
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static OpinionFilter fromFile(Path file) throws IOException {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                patterns.add(Pattern.compile(line.trim()));
+            }
+        }
+        return new OpinionFilter(patterns);
+    }
+
+    /**
+     *
+     * @param text opinion as read from the input
+     * @param lang null if the language is unknown or unsupported
+     * @return null if the opinion must be analysed, otherwise the reason why it is not
+     */
+    public Reason check(String text, SentimentAnalysis.Language lang) {
+        Reason reason = null;
+        if (lang == null) {
+            reason = Reason.UNSUPPORTED_LANGUAGE;
+        } else if (text == null || !LETTER_OR_DIGIT.matcher(NOT_AN_OPINION.matcher(text).replaceAll("")).find()) {
+            reason = Reason.EMPTY_TEXT;
+        } else if (isNoise(text)) {
+            reason = Reason.NOISE;
+        }
+        if (reason != null) {
+            counts.get(reason).incrementAndGet();
+        }
+        return reason;
+    }
+
+    private boolean isNoise(String text) {
+        for (Pattern pattern : noise) {
+            if (pattern.matcher(text).find()) return true;
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param reason
+     * @return the output of the opinions filtered for reason, a new neutral result or null if they are skipped
+     */
+    public SentimentResult getResult(Reason reason) {
+        if (!reason.neutral) {
+            return null;
+        }
+        Aggregate aggregate = new Aggregate();
+        aggregate.setSentiment("neutral");
+        SentimentResult result = new SentimentResult();
+        result.setAggregate(aggregate);
+        result.setPositive(Collections.emptyList());
+        result.setNegative(Collections.emptyList());
+        return result;
+    }
+
+    /**
+     * @param reason
+     * @return number of opinions filtered for reason
+     */
+    public long getCount(Reason reason) {
+        return counts.get(reason).get();
+    }
+
+    /**
+     * @return number of API calls saved
+     */
+    public long getFiltered() {
+        return counts.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    /**
+     *
+     * @return "UNSUPPORTED_LANGUAGE=n EMPTY_TEXT=n NOISE=n"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        counts.forEach((reason, count) -> sb.append(sb.length() > 0 ? " " : "").append(reason).append('=').append(count));
+        return sb.toString();
+    }
+}
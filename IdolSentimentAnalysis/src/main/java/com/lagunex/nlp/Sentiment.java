@@ -1,6 +1,7 @@
 package com.lagunex.nlp;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.lagunex.util.RecordCodec;
 
 /**
  * Class that represents an Entity result of IdolOnDemand's analyzesentiment API
@@ -18,15 +19,25 @@ public class Sentiment {
 
     /**
      * 
-     * @return "sentiment|topic|score"
+     * @return "sentiment|topic|score", see format()
      */
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(sentiment).append(SEPARATOR)
-          .append(topic).append(SEPARATOR)
-          .append(score);
-        return sb.toString();
+        return format(new RecordCodec(SEPARATOR), new StringBuilder()).toString();
+    }
+
+    /**
+     * Appends "sentiment|topic|score" to out. Sentiment and topic are fragments of the text analysed,
+     * so they are encoded like the messages of the tbl files: line breaks collapsed and separators escaped
+     * 
+     * @param codec
+     * @param out
+     * @return out
+     */
+    public StringBuilder format(RecordCodec codec, StringBuilder out) {
+        codec.encode(String.valueOf(sentiment), out).append(SEPARATOR);
+        codec.encode(String.valueOf(topic), out).append(SEPARATOR);
+        return out.append(score);
     }
     
     public String getSentiment() {
@@ -1,35 +1,170 @@
 package com.lagunex.nlp;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 // external dependencies used to call IdolOnDemand's REST API
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpMessage;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.FormHttpMessageConverter;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 /**
  * Singleton that performs the Sentiment Analysis using IdolOnDemand's API
  * 
- * This class assumes that the following system property is defined:
+ * This class assumes that the following system property is defined, unless the engine is lexicon:
  * 
- * idolOnDemand.apiKey
+ * idolOnDemand.apiKey          API key, or comma-separated list of keys with optional weights, e.g. key1,key2:2
  * 
- * This property can be passed at runtime using Java's -D option or through a
+ * The following system properties are optional:
+ * 
+ * idolOnDemand.keyQuota        calls per API key per day, 0 for no quota (default 0)
+ * idolOnDemand.engine          idol, lexicon or hybrid, see Engine (default idol)
+ * idolOnDemand.hybridConfidence  confidence of LexiconEngine needed to skip the API in hybrid mode (default 0.6)
+ * idolOnDemand.fallback        none or lexicon, answers while the circuit breaker is open (default none)
+ * idolOnDemand.url             endpoint to call, e.g. a local stub (default IdolOnDemand's analyzesentiment API)
+ * idolOnDemand.maxConnections  size of the connection pool (default 20)
+ * idolOnDemand.connectTimeout  milliseconds to wait for a connection (default 5000)
+ * idolOnDemand.readTimeout     milliseconds to wait for a response (default 30000)
+ * idolOnDemand.cacheSize       results kept in memory to avoid repeated calls, 0 disables the cache (default 10000)
+ * idolOnDemand.cacheFile       file that keeps the cached results between runs (default none)
+ * idolOnDemand.nearDuplicates  results of recent texts reused for near-duplicates, e.g. 100000, whose results are
+ *                              approximate; 0 disables it (default 0)
+ * idolOnDemand.nearDuplicateDistance  bits two fingerprints may differ in to be near-duplicates, 0-15 (default 2)
+ * idolOnDemand.requestsPerSecond  maximum rate of calls, 0 for no limit (default 0)
+ * idolOnDemand.targetLatency   calls slower than this many milliseconds reduce the concurrency (default 5000)
+ * idolOnDemand.maxRetries      times a throttled call (429 or 503) is retried (default 5)
+ * idolOnDemand.retryBackoff    milliseconds to wait before the first retry, doubled on each attempt (default 500)
+ * idolOnDemand.deadline        milliseconds a call may take including its retries, 0 for no deadline (default 0)
+ * idolOnDemand.hedgePercentile latency percentile after which a duplicate call is sent, 0 disables hedging (default 0)
+ * idolOnDemand.breakerWindow   number of latest calls considered by the circuit breaker (default 20)
+ * idolOnDemand.breakerThreshold  error rate of the window that opens the circuit breaker (default 0.5)
+ * idolOnDemand.breakerOpenTime milliseconds the circuit breaker stays open before a trial call (default 30000)
+ * 
+ * These properties can be passed at runtime using Java's -D option or through a
  * configuration file accessible from the CLASSPATH called idol.properties
  * 
+ * Every call shares the same pool of keep-alive connections, so the TLS handshake
+ * is only paid once per connection and not once per opinion.
+ * 
+ * With several API keys, calls are spread over them by ApiKeyPool according to their weights.
+ * A throttled key cools down and the call is retried right away with another key.
+ * 
+ * A few very slow responses should not decide how long a run takes. A call that misses its deadline
+ * gives a null result, and a call slower than the given percentile of the latest calls is duplicated
+ * and the first answer wins. When too many calls fail, the circuit breaker skips the API and the
+ * fallback answers instead (null results unless another fallback is set). Fallback results are never cached.
+ * 
+ * Latencies by language, errors and null results by cause, calls in flight and bytes sent and received
+ * are collected by SentimentMetrics, see getMetrics().
+ * 
  * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
  */
-public class SentimentAnalysis {
-    private static final String URL = "https://api.idolondemand.com/1/api/sync/analyzesentiment/v1";
+public class SentimentAnalysis implements SentimentEngine {
+    private static final String DEFAULT_URL = "https://api.idolondemand.com/1/api/sync/analyzesentiment/v1";
+    private static final String DEFAULT_MAX_CONNECTIONS = "20";
+    private static final String DEFAULT_CONNECT_TIMEOUT = "5000";
+    private static final String DEFAULT_READ_TIMEOUT = "30000";
+    private static final String DEFAULT_CACHE_SIZE = "10000";
+    private static final String DEFAULT_NEAR_DUPLICATES = "0";
+    private static final String DEFAULT_NEAR_DUPLICATE_DISTANCE = "2";
+    private static final String DEFAULT_REQUESTS_PER_SECOND = "0";
+    private static final String DEFAULT_TARGET_LATENCY = "5000";
+    private static final String DEFAULT_MAX_RETRIES = "5";
+    private static final String DEFAULT_RETRY_BACKOFF = "500";
+    private static final String DEFAULT_DEADLINE = "0";
+    private static final String DEFAULT_HEDGE_PERCENTILE = "0";
+    private static final String DEFAULT_BREAKER_WINDOW = "20";
+    private static final String DEFAULT_BREAKER_THRESHOLD = "0.5";
+    private static final String DEFAULT_BREAKER_OPEN_TIME = "30000";
+    private static final String DEFAULT_ENGINE = "idol";
+    private static final String DEFAULT_HYBRID_CONFIDENCE = "0.6";
+    private static final String DEFAULT_FALLBACK = "none";
+    private static final String DEFAULT_KEY_QUOTA = "0";
+    private static final int MIN_HEDGE_SAMPLES = 20; // calls needed before the percentile is trusted
+    private static final int LATENCY_WINDOW = 1000; // latest calls the hedge percentile is taken from, at least
     private static final Logger LOGGER = Logger.getLogger(SentimentAnalysis.class.getName());
     
     private static SentimentAnalysis instance;
-    private final String API_KEY;
+    private final ApiKeyPool keys; // null if the engine is lexicon and no key is given
+    private final SentimentMetrics metrics = new SentimentMetrics();
+    private final String URL;
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate rest;
+    private final FormHttpMessageConverter form = new FormHttpMessageConverter(); // writes batch requests
+    private final SentimentResultDecoder decoder = new SentimentResultDecoder();
+    private final SentimentCache cache;
+    private final NearDuplicateIndex nearDuplicates; // null if disabled
+    private final AdaptiveThrottle throttle;
+    private final int maxRetries;
+    private final long deadlineNanos;
+    private final double hedgePercentile;
+    private final LatencyTracker latency = new LatencyTracker(LATENCY_WINDOW);
+    private final CircuitBreaker breaker;
+    private final ExecutorService callers; // runs calls with a deadline or hedging, null if neither is used
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong deadlinesExceeded = new AtomicLong();
+    private volatile BiFunction<String, Language, SentimentResult> fallback = (text, lang) -> null;
+    private final Engine engine;
+    private final LexiconEngine lexicon; // null if it is not used
+    private final double hybridConfidence;
+    private final AtomicLong localAnswers = new AtomicLong();
     
+    /**
+     * Where the opinions are analysed
+     */
+    public enum Engine {
+        /** every opinion is sent to IdolOnDemand */
+        IDOL,
+        /** every opinion is scored by LexiconEngine, the API is never called */
+        LEXICON,
+        /** opinions are scored by LexiconEngine and only the ones it is unsure about are sent to IdolOnDemand */
+        HYBRID
+    }
+
     /**
      * Languages valid to analyse
      */
@@ -58,6 +193,14 @@ public class SentimentAnalysis {
             this.longCode = longCode;
         }
 
+        /**
+         * 
+         * @return Two-letters ISO 639-1
+         */
+        public String getCode() {
+            return code;
+        }
+
         /**
          * Given a Two-letters language code, return the valid enum or null
          * if not found
@@ -77,36 +220,342 @@ public class SentimentAnalysis {
         }
     }
 
-    public static SentimentAnalysis getInstance() {
+    public static synchronized SentimentAnalysis getInstance() {
         if (instance == null) {
-            instance = new SentimentAnalysis();
+            instance = new SentimentAnalysis(loadProperties());
         }
         return instance;
     }
     
-    private SentimentAnalysis(){
-        API_KEY = getApiKey();
+    /**
+     * Creates an instance with its own connection pool
+     * 
+     * @param config properties with the names described in the class documentation
+     */
+    SentimentAnalysis(Properties config) {
+        engine = Engine.valueOf(config.getProperty("idolOnDemand.engine", DEFAULT_ENGINE).toUpperCase(Locale.ROOT));
+        boolean lexiconFallback = "lexicon".equals(config.getProperty("idolOnDemand.fallback", DEFAULT_FALLBACK));
+        lexicon = engine != Engine.IDOL || lexiconFallback ? new LexiconEngine() : null;
+        if (lexiconFallback) fallback = lexicon::analyse;
+        hybridConfidence = Double.parseDouble(
+                config.getProperty("idolOnDemand.hybridConfidence", DEFAULT_HYBRID_CONFIDENCE));
+        keys = createKeys(config);
+        metrics.setKeys(keys);
+        URL = config.getProperty("idolOnDemand.url", DEFAULT_URL);
+        httpClient = createHttpClient(config);
+        rest = createRestTemplate(httpClient);
+        cache = createCache(config);
+        nearDuplicates = createNearDuplicateIndex(config);
+        throttle = createThrottle(config);
+        metrics.setInFlight(throttle::getInFlight);
+        maxRetries = Integer.parseInt(config.getProperty("idolOnDemand.maxRetries", DEFAULT_MAX_RETRIES));
+        deadlineNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(config.getProperty("idolOnDemand.deadline", DEFAULT_DEADLINE)));
+        hedgePercentile = Double.parseDouble(
+                config.getProperty("idolOnDemand.hedgePercentile", DEFAULT_HEDGE_PERCENTILE));
+        breaker = createBreaker(config);
+        callers = deadlineNanos > 0 || hedgePercentile > 0 ? createCallers() : null;
     }
 
     /**
-     * Retrieves the API Key from system properties or from a configuration file
+     * Retrieves the configuration from system properties and from a configuration file.
+     * Values from the configuration file take precedence
      * @return 
      */
-    private String getApiKey() {
-        String apiKey = System.getProperty("idolOnDemand.apiKey");
+    private static Properties loadProperties() {
+        Properties config = new Properties();
+        config.putAll(System.getProperties());
         try {
             InputStream is = SentimentAnalysis.class.getResourceAsStream("/idol.properties");
-            Properties p = new Properties();
-            if (is != null) p.load(is);
-            if (p.containsKey("idolOnDemand.apiKey")) {
-                apiKey = p.getProperty("idolOnDemand.apiKey");
-            }
+            if (is != null) config.load(is);
         } catch (IOException e) {
         }
+        return config;
+    }
+
+    /**
+     * Creates the pool of API keys, which is only optional if the engine is lexicon
+     * 
+     * @param config
+     * @return the pool or null if there are no keys
+     */
+    private ApiKeyPool createKeys(Properties config) {
+        String apiKey = config.getProperty("idolOnDemand.apiKey");
         if (apiKey == null) {
+            if (engine == Engine.LEXICON) {
+                return null;
+            }
             throw new RuntimeException("property idolOnDemand.apiKey not defined");
         }
-        return apiKey;
+        return ApiKeyPool.parse(apiKey,
+                Long.parseLong(config.getProperty("idolOnDemand.keyQuota", DEFAULT_KEY_QUOTA)));
+    }
+
+    /**
+     * Creates an http client with a bounded pool of keep-alive connections.
+     * 
+     * The client asks for gzip responses and decompresses them transparently.
+     * Interceptors count the bytes of every request and response, before decompression, in the metrics.
+     * 
+     * @param config
+     * @return 
+     */
+    private CloseableHttpClient createHttpClient(Properties config) {
+        int maxConnections = Integer.parseInt(
+                config.getProperty("idolOnDemand.maxConnections", DEFAULT_MAX_CONNECTIONS));
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(maxConnections);
+        pool.setDefaultMaxPerRoute(maxConnections); // all calls go to the same host
+
+        RequestConfig timeouts = RequestConfig.custom()
+                .setConnectTimeout(getTimeout(config, "idolOnDemand.connectTimeout", DEFAULT_CONNECT_TIMEOUT))
+                .setConnectionRequestTimeout(getTimeout(config, "idolOnDemand.connectTimeout", DEFAULT_CONNECT_TIMEOUT))
+                .setSocketTimeout(getTimeout(config, "idolOnDemand.readTimeout", DEFAULT_READ_TIMEOUT))
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(timeouts)
+                .addInterceptorFirst((HttpRequestInterceptor)(request, context) -> {
+                    long bytes = request.getRequestLine().toString().length() + headerBytes(request);
+                    if (request instanceof HttpEntityEnclosingRequest) {
+                        HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+                        if (entity != null && entity.getContentLength() > 0) bytes += entity.getContentLength();
+                    }
+                    metrics.addBytesSent(bytes);
+                })
+                .addInterceptorFirst((HttpResponseInterceptor)(response, context) -> {
+                    metrics.addBytesReceived(response.getStatusLine().toString().length() + headerBytes(response));
+                    if (response.getEntity() != null) {
+                        response.setEntity(new CountingEntity(response.getEntity()));
+                    }
+                })
+                .build();
+    }
+
+    // name: value\r\n
+    private long headerBytes(HttpMessage message) {
+        long bytes = 0;
+        for (Header header : message.getAllHeaders()) {
+            bytes += header.getName().length() + header.getValue().length() + 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * Counts the bytes of the body as they are read
+     */
+    private class CountingEntity extends HttpEntityWrapper {
+        CountingEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) metrics.addBytesReceived(1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) metrics.addBytesReceived(read);
+                    return read;
+                }
+            };
+        }
+    }
+
+    private int getTimeout(Properties config, String name, String defaultValue) {
+        return Integer.parseInt(config.getProperty(name, defaultValue));
+    }
+
+    /**
+     * Creates the RestTemplate shared by every call. 
+     * Responses are not bound by message converters but decoded by SentimentResultDecoder
+     * 
+     * @param client
+     * @return 
+     */
+    private RestTemplate createRestTemplate(CloseableHttpClient client) {
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(client);
+        RestTemplate template = new RestTemplate(factory);
+        template.setMessageConverters(Collections.singletonList(form));
+        return template;
+    }
+
+    /**
+     * Creates the cache of results or returns null if it is disabled
+     * 
+     * @param config
+     * @return 
+     */
+    private SentimentCache createCache(Properties config) {
+        int size = Integer.parseInt(config.getProperty("idolOnDemand.cacheSize", DEFAULT_CACHE_SIZE));
+        String file = config.getProperty("idolOnDemand.cacheFile");
+        if (size <= 0) {
+            return null;
+        }
+        try {
+            return new SentimentCache(size, file == null ? null : Paths.get(file));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates the index of near-duplicates or returns null if it is disabled
+     * 
+     * @param config
+     * @return 
+     */
+    private NearDuplicateIndex createNearDuplicateIndex(Properties config) {
+        int size = Integer.parseInt(config.getProperty("idolOnDemand.nearDuplicates", DEFAULT_NEAR_DUPLICATES));
+        int distance = Integer.parseInt(
+                config.getProperty("idolOnDemand.nearDuplicateDistance", DEFAULT_NEAR_DUPLICATE_DISTANCE));
+        return size > 0 ? new NearDuplicateIndex(size, distance) : null;
+    }
+
+    /**
+     * Creates the throttle that keeps the calls within the rate budget. Its concurrency is bounded
+     * by the size of the connection pool
+     * 
+     * @param config
+     * @return 
+     */
+    private AdaptiveThrottle createThrottle(Properties config) {
+        return new AdaptiveThrottle(
+            Double.parseDouble(config.getProperty("idolOnDemand.requestsPerSecond", DEFAULT_REQUESTS_PER_SECOND)),
+            Integer.parseInt(config.getProperty("idolOnDemand.maxConnections", DEFAULT_MAX_CONNECTIONS)),
+            Long.parseLong(config.getProperty("idolOnDemand.targetLatency", DEFAULT_TARGET_LATENCY)),
+            Long.parseLong(config.getProperty("idolOnDemand.retryBackoff", DEFAULT_RETRY_BACKOFF)));
+    }
+
+    private CircuitBreaker createBreaker(Properties config) {
+        return new CircuitBreaker(
+            Integer.parseInt(config.getProperty("idolOnDemand.breakerWindow", DEFAULT_BREAKER_WINDOW)),
+            Double.parseDouble(config.getProperty("idolOnDemand.breakerThreshold", DEFAULT_BREAKER_THRESHOLD)),
+            Long.parseLong(config.getProperty("idolOnDemand.breakerOpenTime", DEFAULT_BREAKER_OPEN_TIME)));
+    }
+
+    /**
+     * Creates the threads that perform the calls while the caller waits for the deadline or the hedge.
+     * Their number is bounded in practice by the throttle and the connection pool
+     * 
+     * @return 
+     */
+    private ExecutorService createCallers() {
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "idol-call");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 
+     * @return the throttle that controls the rate and concurrency of the calls
+     */
+    public AdaptiveThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * 
+     * @return the cache of results or null if it is disabled
+     */
+    public SentimentCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 
+     * @return the index of near-duplicates or null if it is disabled
+     */
+    public NearDuplicateIndex getNearDuplicates() {
+        return nearDuplicates;
+    }
+
+    /**
+     * 
+     * @return counters and latencies of the calls, also published through JMX by com.lagunex.nlp.Main
+     */
+    public SentimentMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 
+     * @return latencies of the latest calls answered by the API, at least the latest 1000
+     */
+    public LatencyTracker getLatency() {
+        return latency;
+    }
+
+    /**
+     * 
+     * @return the API keys with their counters, null if the engine is lexicon and no key is given
+     */
+    public ApiKeyPool getKeys() {
+        return keys;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * 
+     * @return number of duplicate calls sent because the first one was slower than the hedge percentile
+     */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * 
+     * @return number of calls abandoned because they missed their deadline
+     */
+    public long getDeadlinesExceeded() {
+        return deadlinesExceeded.get();
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * 
+     * @return number of opinions answered by LexiconEngine without calling the API
+     */
+    public long getLocalAnswers() {
+        return localAnswers.get();
+    }
+
+    /**
+     * Sets the function that answers while the circuit breaker is open
+     * 
+     * @param fallback receives the encoded opinion and its language, it may return null
+     */
+    public void setFallback(BiFunction<String, Language, SentimentResult> fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Closes the connection pool and the cache. The instance cannot be used afterwards
+     */
+    void close() {
+        if (callers != null) callers.shutdownNow();
+        if (cache != null) cache.close();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warning(e.getMessage());
+        }
     }
 
     /**
@@ -126,13 +575,146 @@ public class SentimentAnalysis {
      * 
      * @return result or null if opinion could not be analyse with the given language 
      */
+    @Override
     public SentimentResult analyse(String opinion, Language lang) {
         if (opinion != null && lang != null) {
-            opinion = encode(opinion);
-            return callRestApi(opinion, lang.longCode);
+            String text = encode(opinion);
+            if (engine == Engine.LEXICON) {
+                localAnswers.incrementAndGet();
+                return analyseLocally(text, lang);
+            }
+            SentimentResult local = getTrustedLocalResult(text, lang);
+            return local != null ? local : analyseRemotely(text, lang);
         } else {
+            if (opinion != null) metrics.recordNullResults(SentimentMetrics.NullResult.UNSUPPORTED_LANGUAGE, 1);
+            return null;
+        }
+    }
+
+    private SentimentResult analyseLocally(String text, Language lang) {
+        SentimentResult result = lexicon.analyse(text, lang);
+        if (result == null) metrics.recordNullResults(SentimentMetrics.NullResult.NO_LEXICON, 1);
+        return result;
+    }
+
+    /**
+     * @return the answer of the fallback while the circuit breaker is open
+     */
+    private SentimentResult useFallback(String text, Language lang) {
+        SentimentResult result = fallback.apply(text, lang);
+        if (result == null) metrics.recordNullResults(SentimentMetrics.NullResult.BREAKER_OPEN, 1);
+        return result;
+    }
+
+    /**
+     * @return the result of LexiconEngine in hybrid mode if it is confident enough, null if the API must be called
+     */
+    private SentimentResult getTrustedLocalResult(String text, Language lang) {
+        if (engine != Engine.HYBRID) {
             return null;
         }
+        LexiconEngine.Scored local = lexicon.score(text, lang);
+        if (local.getResult() == null || local.getConfidence() < hybridConfidence) {
+            return null;
+        }
+        localAnswers.incrementAndGet();
+        return local.getResult();
+    }
+
+    /**
+     * Calls the API through the cache, or the fallback if the circuit breaker is open
+     */
+    private SentimentResult analyseRemotely(String text, Language lang) {
+        try {
+            if (cache == null) {
+                return load(text, lang);
+            }
+            return cache.get(text, lang, () -> load(text, lang));
+        } catch (CircuitOpenException e) {
+            return useFallback(text, lang);
+        } catch (CompletionException e) { // an identical call was rejected by the circuit breaker
+            if (e.getCause() instanceof CircuitOpenException) {
+                return useFallback(text, lang);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reuses the result of a near-duplicate of text or calls the API
+     */
+    private SentimentResult load(String text, Language lang) {
+        if (nearDuplicates == null) {
+            return callRestApi(text, lang);
+        }
+        SentimentResult result = nearDuplicates.get(text, lang);
+        if (result == null) {
+            result = callRestApi(text, lang);
+            nearDuplicates.put(text, lang, result);
+        }
+        return result;
+    }
+
+    /**
+     * Analyses a micro-batch of opinions written in the same language with a single call.
+     * 
+     * Opinions found in the cache, near-duplicates of recent opinions, or opinions answered by
+     * LexiconEngine according to the engine, are not sent.
+     * 
+     * @param opinions
+     * @param lang
+     * @return one result per opinion, in the same order. A result is null if its opinion could not be analysed
+     */
+    @Override
+    public List<SentimentResult> analyse(List<String> opinions, Language lang) {
+        List<SentimentResult> results = new ArrayList<>(Collections.nCopies(opinions.size(), null));
+        if (lang == null) {
+            metrics.recordNullResults(SentimentMetrics.NullResult.UNSUPPORTED_LANGUAGE, opinions.size());
+            return results;
+        }
+
+        List<Integer> pending = new ArrayList<>(opinions.size()); // positions of the opinions to send
+        List<String> texts = new ArrayList<>(opinions.size());
+        for (int i = 0; i < opinions.size(); i++) {
+            if (opinions.get(i) == null) continue;
+            String text = encode(opinions.get(i));
+            if (engine == Engine.LEXICON) {
+                localAnswers.incrementAndGet();
+                results.set(i, analyseLocally(text, lang));
+                continue;
+            }
+            SentimentResult known = getTrustedLocalResult(text, lang);
+            if (known == null && cache != null) {
+                known = cache.getIfPresent(text, lang);
+            }
+            if (known == null && nearDuplicates != null) {
+                known = nearDuplicates.get(text, lang);
+            }
+            if (known != null) {
+                results.set(i, known);
+            } else {
+                pending.add(i);
+                texts.add(text);
+            }
+        }
+
+        if (!texts.isEmpty()) {
+            List<SentimentResult> analysed;
+            try {
+                analysed = callRestApi(texts, lang);
+            } catch (CircuitOpenException e) {
+                for (int i = 0; i < texts.size(); i++) {
+                    results.set(pending.get(i), useFallback(texts.get(i), lang));
+                }
+                return results;
+            }
+            for (int i = 0; i < analysed.size(); i++) {
+                results.set(pending.get(i), analysed.get(i));
+                if (cache != null) cache.put(texts.get(i), lang, analysed.get(i));
+                if (nearDuplicates != null) nearDuplicates.put(texts.get(i), lang, analysed.get(i));
+            }
+        }
+        return results;
     }
 
     private String encode(String opinion) {
@@ -140,10 +722,10 @@ public class SentimentAnalysis {
     }
 
     /**
-     * Call the external API and binds the response into a SentimentResult object.
+     * Call the external API and decodes the response into a SentimentResult object.
      * 
-     * The binding is performed automatically by the third-party library jackson-databind.
-     * In order to do so, the class SentimentResult must match the JSON response format returned by the API.
+     * The response is decoded by SentimentResultDecoder, which streams through the JSON response
+     * instead of binding it by reflection.
      * 
      * SentimentResult follows the schema defined in
      * https://www.idolondemand.com/developer/apis/analyzesentiment#response
@@ -151,18 +733,277 @@ public class SentimentAnalysis {
      * @param opinion
      * @param lang
      * @return result from the call or null if a problem occurs
+     * @throws CircuitOpenException if the circuit breaker is open
      */
-    private SentimentResult callRestApi(String opinion, String lang) {
+    private SentimentResult callRestApi(String opinion, Language lang) {
+        if (!breaker.allowRequest()) {
+            throw CircuitOpenException.INSTANCE;
+        }
         SentimentResult result = null;
-        RestTemplate rest = new RestTemplate();
+        boolean failed = true;
+        long start = System.nanoTime();
         try {
             // calls the API and parse the JSON response into a Java object
-            result = rest.getForObject(
-                String.format("%s?apikey=%s&language=%s&text=%s",URL,API_KEY,lang,opinion),
-                SentimentResult.class); 
+            result = call(() -> execute(
+                apiKey -> String.format("%s?apikey=%s&language=%s&text=%s",URL,apiKey,lang.longCode,opinion),
+                HttpMethod.GET,
+                apiKey -> this::acceptJson,
+                response -> decoder.decode(response.getBody()))); 
+            failed = false;
         } catch (RestClientException ex) {
+            failed = isFailure(ex);
+            metrics.recordError(getError(ex));
             LOGGER.warning(ex.getMessage());
+        } finally {
+            breaker.record(!failed);
+            metrics.recordRequest(lang, System.nanoTime() - start);
         }
+        if (result == null) metrics.recordNullResults(SentimentMetrics.NullResult.API_ERROR, 1);
         return result;
     }
+
+    /**
+     * Sends every text in a single POST request with a form-encoded body and splits the
+     * response into one SentimentResult per text
+     * 
+     * @param texts
+     * @param lang
+     * @return one result per text, all of them are null if a problem occurs
+     * @throws CircuitOpenException if the circuit breaker is open
+     */
+    private List<SentimentResult> callRestApi(List<String> texts, Language lang) {
+        if (!breaker.allowRequest()) {
+            throw CircuitOpenException.INSTANCE;
+        }
+        List<SentimentResult> results = null;
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            results = call(() -> execute(apiKey -> URL, HttpMethod.POST,
+                apiKey -> request -> {
+                    MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+                    form.add("apikey", apiKey);
+                    form.add("language", lang.longCode);
+                    texts.forEach(text -> form.add("text", text));
+                    acceptJson(request);
+                    this.form.write(form, MediaType.APPLICATION_FORM_URLENCODED, request);
+                },
+                response -> decoder.decodeBatch(response.getBody())));
+            failed = false;
+            if (results != null && results.size() != texts.size()) {
+                LOGGER.warning(String.format("Expected %d results but received %d", texts.size(), results.size()));
+                metrics.recordError(SentimentMetrics.Error.INVALID_RESPONSE);
+                results = null;
+            }
+        } catch (RestClientException ex) {
+            failed = isFailure(ex);
+            metrics.recordError(getError(ex));
+            LOGGER.warning(ex.getMessage());
+        } finally {
+            breaker.record(!failed);
+            metrics.recordRequest(lang, System.nanoTime() - start);
+        }
+        if (results == null) {
+            metrics.recordNullResults(SentimentMetrics.NullResult.API_ERROR, texts.size());
+            return new ArrayList<>(Collections.nCopies(texts.size(), null));
+        }
+        return results;
+    }
+
+    private SentimentMetrics.Error getError(RestClientException ex) {
+        if (ex instanceof DeadlineExceededException) {
+            return SentimentMetrics.Error.DEADLINE;
+        } else if (ex instanceof HttpStatusCodeException) {
+            HttpStatus status = ((HttpStatusCodeException)ex).getStatusCode();
+            return isThrottled(status) ? SentimentMetrics.Error.THROTTLED :
+                   status.is4xxClientError() ? SentimentMetrics.Error.CLIENT_ERROR : SentimentMetrics.Error.SERVER_ERROR;
+        } else if (ex.getCause() instanceof JsonProcessingException) {
+            return SentimentMetrics.Error.INVALID_RESPONSE;
+        } else if (ex instanceof ResourceAccessException) {
+            return SentimentMetrics.Error.IO;
+        }
+        return SentimentMetrics.Error.OTHER;
+    }
+
+    /**
+     * Errors caused by the opinion itself (4xx other than 429) do not count against the circuit breaker
+     */
+    private boolean isFailure(RestClientException ex) {
+        if (ex instanceof HttpStatusCodeException) {
+            HttpStatus status = ((HttpStatusCodeException)ex).getStatusCode();
+            return !status.is4xxClientError() || isThrottled(status);
+        }
+        return true;
+    }
+
+    /**
+     * Runs the call within the deadline. If hedging is enabled and the call is still running after
+     * the hedge percentile of the latest latencies, a duplicate call is sent and the first one that
+     * succeeds is returned. The calls still running are interrupted when the result is known, which
+     * stops their retries
+     * 
+     * @param <T>
+     * @param attempt the call, including its retries
+     * @return the result of the first call that succeeds
+     * @throws RestClientException if every call fails or the deadline is exceeded
+     */
+    private <T> T call(Supplier<T> attempt) {
+        if (callers == null) {
+            return attempt.get();
+        }
+        long start = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        List<Future<?>> attempts = new ArrayList<>(2);
+        attempts.add(submit(attempt, result, running));
+        try {
+            long hedgeAfter = getHedgeDelay();
+            if (hedgeAfter > 0 && hedgeAfter < remaining(start)) {
+                try {
+                    return result.get(hedgeAfter, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    running.incrementAndGet();
+                    attempts.add(submit(attempt, result, running));
+                    hedged.incrementAndGet();
+                }
+            }
+            return result.get(remaining(start), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            deadlinesExceeded.incrementAndGet();
+            throw new DeadlineExceededException(String.format("Deadline of %d ms exceeded",
+                    TimeUnit.NANOSECONDS.toMillis(deadlineNanos)));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RestClientException ?
+                    (RestClientException)cause : new RestClientException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrupted while waiting for the API", e);
+        } finally {
+            attempts.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Completes result with the first success, or with the last failure once every attempt failed
+     */
+    private <T> Future<?> submit(Supplier<T> attempt, CompletableFuture<T> result, AtomicInteger running) {
+        return callers.submit(() -> {
+            try {
+                result.complete(attempt.get());
+            } catch (RuntimeException e) {
+                if (running.decrementAndGet() == 0) result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * @return nanoseconds to wait before hedging, 0 if hedging is disabled or there are too few latencies yet
+     */
+    private long getHedgeDelay() {
+        if (hedgePercentile <= 0 || latency.getCount() < MIN_HEDGE_SAMPLES) {
+            return 0;
+        }
+        return latency.getPercentile(hedgePercentile);
+    }
+
+    private long remaining(long start) {
+        return deadlineNanos > 0 ? deadlineNanos - (System.nanoTime() - start) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Performs the call within the limits of the throttle. Calls answered with 429 (Too Many Requests)
+     * or 503 (Service Unavailable) are retried up to maxRetries times. The key that was throttled cools down
+     * with jittered exponential backoff, or longer if the API sends a Retry-After header, and the retry uses
+     * the next key available
+     * 
+     * @param <T>
+     * @param url builds the url with the API key of the attempt
+     * @param method
+     * @param request builds the request with the API key of the attempt
+     * @param response
+     * @return the result extracted from the response
+     * @throws RestClientException if the call fails, or is still throttled after all retries
+     */
+    private <T> T execute(Function<String, String> url, HttpMethod method, Function<String, RequestCallback> request,
+                          ResponseExtractor<T> response) {
+        for (int attempt = 0; ; attempt++) {
+            ApiKeyPool.Key key;
+            try {
+                key = keys.acquire();
+                throttle.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RestClientException("Interrupted while waiting to call the API", e);
+            } catch (IllegalStateException e) { // every key used its quota
+                throw new RestClientException(e.getMessage(), e);
+            }
+            long start = System.nanoTime();
+            boolean throttled = false;
+            try {
+                T result = rest.execute(url.apply(key.getValue()), method, request.apply(key.getValue()), response);
+                latency.record(System.nanoTime() - start);
+                return result;
+            } catch (HttpStatusCodeException ex) {
+                throttled = isThrottled(ex.getStatusCode());
+                if (!throttled) {
+                    keys.failed(key);
+                    throw ex;
+                }
+                long wait = Math.max(throttle.backoff(attempt), getRetryAfter(ex));
+                keys.coolDown(key, wait);
+                if (attempt >= maxRetries) {
+                    throw ex;
+                }
+                LOGGER.fine(String.format("Throttled (%s) with key %s, cooling it down for %d ms",
+                        ex.getStatusCode(), key.getName(), wait));
+            } catch (RestClientException ex) {
+                keys.failed(key);
+                throw ex;
+            } finally {
+                throttle.release(System.nanoTime() - start, throttled);
+            }
+        }
+    }
+
+    private boolean isThrottled(HttpStatus status) {
+        return status == HttpStatus.TOO_MANY_REQUESTS || status == HttpStatus.SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * @return milliseconds requested by the Retry-After header, in seconds, or 0 if not present
+     */
+    private long getRetryAfter(HttpStatusCodeException ex) {
+        String retryAfter = ex.getResponseHeaders() == null ? null : ex.getResponseHeaders().getFirst("Retry-After");
+        try {
+            return retryAfter == null ? 0 : TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return 0; // it can also be an http date, the backoff is used instead
+        }
+    }
+
+    private void acceptJson(ClientHttpRequest request) {
+        request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * Thrown instead of calling the API while the circuit breaker is open, so the fallback
+     * answers outside of the cache. It has no stack trace because it is expected
+     */
+    private static class CircuitOpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private static final CircuitOpenException INSTANCE = new CircuitOpenException();
+
+        private CircuitOpenException() {
+            super("circuit breaker open", null, false, false);
+        }
+    }
+
+    private static class DeadlineExceededException extends RestClientException {
+        private static final long serialVersionUID = 1L;
+
+        DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
 }
@@ -0,0 +1,343 @@
+package com.lagunex.nlp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Cache of sentiment results keyed by the normalized text and its language.
+ *
+ * It has two tiers:
+ *
+ * - an in-memory LRU map bounded to a number of entries
+ * - an optional append-only file that keeps every result between runs. Only the position of each entry
+ *   in the file is kept in memory, the result is read back from disk when needed
+ *
+ * Concurrent requests for the same key share a single call to the loader (single flight).
+ * Results that are null (errors) are never cached.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class SentimentCache {
+    private static final Logger LOGGER = Logger.getLogger(SentimentCache.class.getName());
+    private static final int LENGTH_BITS = 24; // an entry is at most 16MB long, the rest of the bits are the offset
+    private static final int MAX_LENGTH = (1 << LENGTH_BITS) - 1;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, SentimentResult> memory;
+    private final Map<String, CompletableFuture<SentimentResult>> inFlight = new ConcurrentHashMap<>();
+    private final DiskTier disk;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     *
+     * @param capacity maximum number of results kept in memory
+     * @param file append-only file with the results of previous runs or null to keep results only in memory
+     * @throws IOException if file cannot be opened or read
+     */
+    public SentimentCache(int capacity, Path file) throws IOException {
+        memory = new LinkedHashMap<String, SentimentResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SentimentResult> eldest) {
+                boolean evict = size() > capacity;
+                if (evict) evictions.incrementAndGet();
+                return evict;
+            }
+        };
+        disk = file == null ? null : new DiskTier(file);
+    }
+
+    /**
+     * Returns the cached result for text and lang or calls loader to get it.
+     *
+     * @param text normalized text
+     * @param lang
+     * @param loader performs the analysis when the result is not cached
+     * @return result or null if it was not cached and loader returned null
+     */
+    public SentimentResult get(String text, SentimentAnalysis.Language lang, Supplier<SentimentResult> loader) {
+        String key = getKey(text, lang);
+        SentimentResult result = getCached(key);
+        if (result != null) {
+            return result;
+        }
+
+        CompletableFuture<SentimentResult> call = new CompletableFuture<>();
+        CompletableFuture<SentimentResult> running = inFlight.putIfAbsent(key, call);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return running.join();
+        }
+        try {
+            result = getFromMemory(key); // it may have been loaded while we checked in-flight calls
+            if (result == null) {
+                misses.incrementAndGet();
+                result = loader.get();
+                if (result != null) put(key, result);
+            }
+            call.complete(result);
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cached result for text and lang without loading it
+     *
+     * @param text normalized text
+     * @param lang
+     * @return result or null if it is not cached. In that case, it is counted as a miss
+     */
+    public SentimentResult getIfPresent(String text, SentimentAnalysis.Language lang) {
+        SentimentResult result = getCached(getKey(text, lang));
+        if (result == null) {
+            misses.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Caches a result loaded without calling get()
+     *
+     * @param text normalized text
+     * @param lang
+     * @param result ignored if null
+     */
+    public void put(String text, SentimentAnalysis.Language lang, SentimentResult result) {
+        if (result != null) {
+            put(getKey(text, lang), result);
+        }
+    }
+
+    private String getKey(String text, SentimentAnalysis.Language lang) {
+        return lang.getCode() + '|' + text;
+    }
+
+    private SentimentResult getCached(String key) {
+        SentimentResult result = getFromMemory(key);
+        if (result != null) {
+            hits.incrementAndGet();
+        } else if (disk != null) {
+            result = disk.get(key);
+            if (result != null) {
+                diskHits.incrementAndGet();
+                synchronized (memory) {
+                    memory.put(key, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private SentimentResult getFromMemory(String key) {
+        synchronized (memory) {
+            return memory.get(key);
+        }
+    }
+
+    private void put(String key, SentimentResult result) {
+        synchronized (memory) {
+            memory.put(key, result);
+        }
+        if (disk != null) disk.put(key, result);
+    }
+
+    /**
+     * Closes the file of the disk tier, if any
+     */
+    public void close() {
+        if (disk != null) disk.close();
+    }
+
+    /**
+     * @return number of results found in memory
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of results found on disk but not in memory
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return number of results that had to be loaded
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of requests that waited for an identical request in flight instead of loading the result
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return number of results removed from memory to keep it within capacity
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    /**
+     *
+     * @return "hits=h diskHits=d misses=m coalesced=c evictions=e size=s"
+     */
+    @Override
+    public String toString() {
+        return String.format("hits=%d diskHits=%d misses=%d coalesced=%d evictions=%d size=%d",
+                getHits(), getDiskHits(), getMisses(), getCoalesced(), getEvictions(), getSize());
+    }
+
+    /**
+     * Entry of the file, one JSON document per line
+     */
+    static class DiskEntry {
+        public String key;
+        public SentimentResult result;
+    }
+
+    /**
+     * Append-only file of DiskEntry lines. Memory holds the offset and length of each entry,
+     * indexed by the hash of its key. The key is checked when an entry is read to detect collisions
+     */
+    private class DiskTier {
+        private final FileChannel channel;
+        private final Map<Long, Long> index = new HashMap<>();
+        private long end;
+
+        DiskTier(Path file) throws IOException {
+            channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            loadIndex();
+        }
+
+        private void loadIndex() throws IOException {
+            channel.position(0);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long offset = 0;
+            for (int c = in.read(); c >= 0; c = in.read()) {
+                if (c == '\n') {
+                    if (line.size() > MAX_LENGTH) {
+                        LOGGER.warning("Ignoring oversized cache entry at offset " + offset);
+                    } else {
+                        try {
+                            DiskEntry entry = mapper.readValue(line.toByteArray(), DiskEntry.class);
+                            index.put(hash(entry.key), pack(offset, line.size()));
+                        } catch (IOException e) {
+                            LOGGER.warning("Ignoring corrupted cache entry at offset " + offset);
+                        }
+                    }
+                    offset += line.size() + 1;
+                    line.reset();
+                } else {
+                    line.write(c);
+                }
+            }
+            end = offset;
+            channel.truncate(end); // drops an incomplete last line
+        }
+
+        synchronized SentimentResult get(String key) {
+            Long position = index.get(hash(key));
+            if (position == null) {
+                return null;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate((int)(position & ((1 << LENGTH_BITS) - 1)));
+                long offset = position >>> LENGTH_BITS;
+                while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0);
+                DiskEntry entry = mapper.readValue(buffer.array(), DiskEntry.class);
+                return key.equals(entry.key) ? entry.result : null;
+            } catch (IOException e) {
+                LOGGER.warning(e.getMessage());
+                return null;
+            }
+        }
+
+        synchronized void put(String key, SentimentResult result) {
+            DiskEntry entry = new DiskEntry();
+            entry.key = key;
+            entry.result = result;
+            try {
+                byte[] json = mapper.writeValueAsBytes(entry);
+                if (json.length > MAX_LENGTH) {
+                    LOGGER.warning("Not caching on disk an entry of " + json.length + " bytes");
+                    return;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(json.length + 1);
+                buffer.put(json).put((byte)'\n').flip();
+                while (buffer.hasRemaining()) {
+                    end += channel.write(buffer, end);
+                }
+                index.put(hash(key), pack(end - json.length - 1, json.length));
+            } catch (IOException e) {
+                LOGGER.warning(e.getMessage());
+            }
+        }
+
+        synchronized void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warning(e.getMessage());
+            }
+        }
+
+        /**
+         * length must be at most MAX_LENGTH or it would overflow into the offset
+         */
+        private long pack(long offset, int length) {
+            return (offset << LENGTH_BITS) | length;
+        }
+
+        /**
+         * 64-bit FNV-1a hash of key
+         */
+        private long hash(String key) {
+            long h = 0xcbf29ce484222325L;
+            for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+                h ^= (b & 0xff);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+    }
+}
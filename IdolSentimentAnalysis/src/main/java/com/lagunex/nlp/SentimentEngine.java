@@ -0,0 +1,34 @@
+package com.lagunex.nlp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Something that analyses the sentiment of opinions and answers with the schema of
+ * IdolOnDemand's analyzesentiment API
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public interface SentimentEngine {
+
+    /**
+     *
+     * @param opinion
+     * @param lang
+     * @return result or null if opinion could not be analysed with the given language
+     */
+    SentimentResult analyse(String opinion, SentimentAnalysis.Language lang);
+
+    /**
+     * Analyses opinions written in the same language. By default, one by one
+     *
+     * @param opinions
+     * @param lang
+     * @return one result per opinion, in the same order. A result is null if its opinion could not be analysed
+     */
+    default List<SentimentResult> analyse(List<String> opinions, SentimentAnalysis.Language lang) {
+        List<SentimentResult> results = new ArrayList<>(opinions.size());
+        opinions.forEach(opinion -> results.add(analyse(opinion, lang)));
+        return results;
+    }
+}
@@ -0,0 +1,242 @@
+package com.lagunex.nlp;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counters and latency histograms of SentimentAnalysis and of the lines written by com.lagunex.nlp.Main.
+ *
+ * Latencies are kept per language in a LatencyTracker and cover whole calls, retries and hedges included.
+ * Opinions filtered by an OpinionFilter are counted as null results with the reason of the filter.
+ * Calls by API key are read from the ApiKeyPool of SentimentAnalysis.
+ *
+ * This class is thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class SentimentMetrics implements SentimentMetricsMXBean {
+
+    /**
+     * Why a call to the API failed
+     */
+    public enum Error {DEADLINE, THROTTLED, CLIENT_ERROR, SERVER_ERROR, IO, INVALID_RESPONSE, OTHER}
+
+    /**
+     * Why an opinion produced a null result
+     */
+    public enum NullResult {UNSUPPORTED_LANGUAGE, API_ERROR, BREAKER_OPEN, NO_LEXICON}
+
+    private final long startNanos = System.nanoTime();
+    private final Map<SentimentAnalysis.Language, LatencyTracker> latency =
+            new EnumMap<>(SentimentAnalysis.Language.class);
+    private final Map<Error, LongAdder> errors = new EnumMap<>(Error.class);
+    private final Map<NullResult, LongAdder> nullResults = new EnumMap<>(NullResult.class);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private volatile IntSupplier inFlight = () -> 0;
+    private volatile OpinionFilter filter;
+    private volatile ApiKeyPool keys;
+
+    public SentimentMetrics() {
+        for (SentimentAnalysis.Language lang : SentimentAnalysis.Language.values()) {
+            latency.put(lang, new LatencyTracker());
+        }
+        for (Error error : Error.values()) {
+            errors.put(error, new LongAdder());
+        }
+        for (NullResult cause : NullResult.values()) {
+            nullResults.put(cause, new LongAdder());
+        }
+    }
+
+    /**
+     * @param lang language of the texts sent
+     * @param nanos time the call took, successful or not
+     */
+    public void recordRequest(SentimentAnalysis.Language lang, long nanos) {
+        requests.increment();
+        latency.get(lang).record(nanos);
+    }
+
+    public void recordError(Error error) {
+        errors.get(error).increment();
+    }
+
+    /**
+     * @param cause
+     * @param count number of opinions without result
+     */
+    public void recordNullResults(NullResult cause, int count) {
+        nullResults.get(cause).add(count);
+    }
+
+    public void recordLine() {
+        lines.increment();
+    }
+
+    public void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void addBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    /**
+     * @param inFlight source of the number of calls in flight, e.g. AdaptiveThrottle::getInFlight
+     */
+    public void setInFlight(IntSupplier inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * @param filter filter whose skipped opinions are included in the null results
+     */
+    public void setFilter(OpinionFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param keys pool whose calls by key are published
+     */
+    public void setKeys(ApiKeyPool keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * @param lang
+     * @return latencies of the calls in lang
+     */
+    public LatencyTracker getLatency(SentimentAnalysis.Language lang) {
+        return latency.get(lang);
+    }
+
+    public long getError(Error error) {
+        return errors.get(error).sum();
+    }
+
+    public long getNullResults(NullResult cause) {
+        return nullResults.get(cause).sum();
+    }
+
+    @Override
+    public long getLines() {
+        return lines.sum();
+    }
+
+    @Override
+    public double getLinesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / (double)TimeUnit.SECONDS.toNanos(1);
+        return seconds > 0 ? getLines() / seconds : 0;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.getAsInt();
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        Map<String, Long> counts = new TreeMap<>();
+        errors.forEach((error, count) -> {
+            if (count.sum() > 0) counts.put(error.name(), count.sum());
+        });
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getNullResults() {
+        Map<String, Long> counts = new TreeMap<>();
+        nullResults.forEach((cause, count) -> {
+            if (count.sum() > 0) counts.put(cause.name(), count.sum());
+        });
+        OpinionFilter opinionFilter = filter;
+        if (opinionFilter != null) {
+            for (OpinionFilter.Reason reason : OpinionFilter.Reason.values()) {
+                long count = opinionFilter.getCount(reason);
+                if (reason.isSkipped() && count > 0) counts.merge(reason.name(), count, Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public Map<String, Long> getCallsByKey() {
+        return getByKey(ApiKeyPool.Key::getCalls);
+    }
+
+    @Override
+    public Map<String, Long> getThrottledByKey() {
+        return getByKey(ApiKeyPool.Key::getThrottled);
+    }
+
+    private Map<String, Long> getByKey(ToLongFunction<ApiKeyPool.Key> counter) {
+        Map<String, Long> counts = new TreeMap<>();
+        ApiKeyPool pool = keys;
+        if (pool != null) {
+            pool.getKeys().forEach(key -> counts.merge(key.getName(), counter.applyAsLong(key), Long::sum));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP50Millis() {
+        return getLatencyMillis(50);
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99Millis() {
+        return getLatencyMillis(99);
+    }
+
+    private Map<String, Double> getLatencyMillis(double percentile) {
+        Map<String, Double> millis = new TreeMap<>();
+        latency.forEach((lang, tracker) -> {
+            if (tracker.getCount() > 0) millis.put(lang.getCode(), tracker.getPercentile(percentile) / 1e6);
+        });
+        return millis;
+    }
+
+    /**
+     *
+     * @return "lines=n (x/s) inFlight=n requests=n errors={..} nullResults={..} sent=nKB received=nKB en[latency] .."
+     */
+    @Override
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("lines=%d (%.1f/s) inFlight=%d requests=%d errors=%s nullResults=%s sent=%dKB received=%dKB",
+                getLines(), getLinesPerSecond(), getInFlight(), getRequests(), getErrors(), getNullResults(),
+                getBytesSent() / 1024, getBytesReceived() / 1024));
+        latency.forEach((lang, tracker) -> {
+            if (tracker.getCount() > 0) sb.append(' ').append(lang.getCode()).append('[').append(tracker).append(']');
+        });
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+}
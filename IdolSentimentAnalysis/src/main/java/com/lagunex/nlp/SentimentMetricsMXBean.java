@@ -0,0 +1,77 @@
+package com.lagunex.nlp;
+
+import java.util.Map;
+
+/**
+ * Metrics of the sentiment analysis published through JMX, e.g. in jconsole under
+ * com.lagunex.nlp:type=SentimentMetrics
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public interface SentimentMetricsMXBean {
+
+    /**
+     * @return number of output lines written
+     */
+    long getLines();
+
+    /**
+     * @return output lines written per second since the metrics were created
+     */
+    double getLinesPerSecond();
+
+    /**
+     * @return number of calls to the API being performed right now
+     */
+    int getInFlight();
+
+    /**
+     * @return number of calls to the API, including their retries and hedges, that completed
+     */
+    long getRequests();
+
+    /**
+     * @return number of failed calls by cause
+     */
+    Map<String, Long> getErrors();
+
+    /**
+     * @return number of opinions without result (blank output lines) by cause
+     */
+    Map<String, Long> getNullResults();
+
+    /**
+     * @return approximate number of bytes sent to the API: request lines, headers and bodies
+     */
+    long getBytesSent();
+
+    /**
+     * @return approximate number of bytes received from the API: status lines, headers and bodies as sent
+     */
+    long getBytesReceived();
+
+    /**
+     * @return number of calls sent with each API key, named by its last four characters
+     */
+    Map<String, Long> getCallsByKey();
+
+    /**
+     * @return number of throttled calls of each API key, named by its last four characters
+     */
+    Map<String, Long> getThrottledByKey();
+
+    /**
+     * @return median latency of the calls in milliseconds by language code
+     */
+    Map<String, Double> getLatencyP50Millis();
+
+    /**
+     * @return 99th percentile of the latency of the calls in milliseconds by language code
+     */
+    Map<String, Double> getLatencyP99Millis();
+
+    /**
+     * @return one line with every metric
+     */
+    String getSummary();
+}
@@ -0,0 +1,184 @@
+package com.lagunex.nlp;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the JSON responses of IdolOnDemand's analyzesentiment API with Jackson's streaming parser.
+ *
+ * It replaces the reflection based binding of jackson-databind, for responses of one document or of a batch.
+ *
+ * The labels of the aggregate (positive, negative, neutral, mixed) are always the same String instances.
+ * Unknown fields are ignored.
+ *
+ * This class is thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class SentimentResultDecoder {
+    private static final String[] AGGREGATE_LABELS = {"positive", "negative", "neutral", "mixed"};
+    private static final char[][] AGGREGATE_LABEL_CHARS = {
+        "positive".toCharArray(), "negative".toCharArray(), "neutral".toCharArray(), "mixed".toCharArray()
+    };
+
+    private final JsonFactory factory = new JsonFactory();
+
+    /**
+     * Decodes a single-document response into a new SentimentResult
+     *
+     * @param json
+     * @return
+     * @throws IOException if json is not a valid response
+     */
+    public SentimentResult decode(InputStream json) throws IOException {
+        try (JsonParser parser = factory.createParser(json)) {
+            SentimentResult result = new SentimentResult();
+            decode(parser, result);
+            return result;
+        }
+    }
+
+    /**
+     * Decodes a multi-document response, with one result per document under "sentiment_analysis"
+     *
+     * @param json
+     * @return results in the same order as the documents were sent, null if the response does not include them
+     * @throws IOException if json is not a valid response
+     */
+    public List<SentimentResult> decodeBatch(InputStream json) throws IOException {
+        try (JsonParser parser = factory.createParser(json)) {
+            List<SentimentResult> results = null;
+            expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("sentiment_analysis".equals(field) && value == JsonToken.START_ARRAY) {
+                    results = new ArrayList<>();
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        SentimentResult result = new SentimentResult();
+                        decodeFields(parser, result);
+                        results.add(result);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return results;
+        }
+    }
+
+    private void decode(JsonParser parser, SentimentResult target) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+        decodeFields(parser, target);
+    }
+
+    /**
+     * Reads the fields of a result until the end of its object
+     */
+    private void decodeFields(JsonParser parser, SentimentResult target) throws IOException {
+        List<Sentiment> positive = new ArrayList<>();
+        List<Sentiment> negative = new ArrayList<>();
+        Aggregate aggregate = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("positive".equals(field) && value == JsonToken.START_ARRAY) {
+                decodeSentiments(parser, positive);
+            } else if ("negative".equals(field) && value == JsonToken.START_ARRAY) {
+                decodeSentiments(parser, negative);
+            } else if ("aggregate".equals(field) && value == JsonToken.START_OBJECT) {
+                aggregate = new Aggregate();
+                decodeAggregate(parser, aggregate);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        target.setPositive(positive);
+        target.setNegative(negative);
+        target.setAggregate(aggregate);
+    }
+
+    /**
+     * Reads an array of sentiments into list
+     */
+    private void decodeSentiments(JsonParser parser, List<Sentiment> list) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Sentiment sentiment = new Sentiment();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("sentiment".equals(field)) {
+                    sentiment.setSentiment(textOrNull(parser));
+                } else if ("topic".equals(field)) {
+                    sentiment.setTopic(textOrNull(parser));
+                } else if ("score".equals(field)) {
+                    sentiment.setScore(parser.getValueAsDouble());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            list.add(sentiment);
+        }
+    }
+
+    private void decodeAggregate(JsonParser parser, Aggregate aggregate) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("sentiment".equals(field)) {
+                aggregate.setSentiment(aggregateLabel(parser));
+            } else if ("score".equals(field)) {
+                aggregate.setScore(parser.getValueAsDouble());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private String textOrNull(JsonParser parser) throws IOException {
+        return parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+
+    /**
+     * Returns one of the shared AGGREGATE_LABELS without creating a String, or a new String
+     * if the label is unknown
+     */
+    private String aggregateLabel(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        for (int i = 0; i < AGGREGATE_LABEL_CHARS.length; i++) {
+            if (equals(AGGREGATE_LABEL_CHARS[i], text, offset, length)) {
+                return AGGREGATE_LABELS[i];
+            }
+        }
+        return parser.getText();
+    }
+
+    private boolean equals(char[] label, char[] text, int offset, int length) {
+        if (label.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (label[i] != text[offset + i]) return false;
+        }
+        return true;
+    }
+
+    private void expect(JsonToken actual, JsonToken expected, JsonParser parser) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(String.format("Expected %s but found %s", expected, actual),
+                    parser.getCurrentLocation());
+        }
+    }
+}
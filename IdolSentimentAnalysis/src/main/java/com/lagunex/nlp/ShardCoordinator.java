@@ -0,0 +1,394 @@
+package com.lagunex.nlp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Splits the input among several workers, each one an AnalysisServer with its own API key running
+ * in a local process or in a remote host, and merges their outputs in input order.
+ *
+ * Each line goes to the shard of the hash of its id, and shard i is analysed by the i-th worker.
+ * When a worker fails, e.g. its connection breaks, it stops answering for a while or it cannot
+ * analyse a line, the lines it did not answer and the rest of its shard go to the next worker alive.
+ * The output does not change: every line is answered exactly once.
+ *
+ * The lines read ahead are bounded, like in AnalysisPipeline, by READ_AHEAD_PER_WORKER lines per worker.
+ *
+ * A result may have several lines, and their fields may contain escaped separators, so results are framed
+ * explicitly: every line sent is followed by SYNC_LINE, a line without language that the worker answers with
+ * a single empty line without calling the API. The answer of a line is then everything up to that empty line,
+ * which is never part of a result, except for a result that could not be analysed, which is a single empty
+ * line itself.
+ *
+ * Lines are queued and written to a worker when the coordinator flushes, outside of the lock that the thread
+ * reading the output of the worker takes, so a full socket never stops the output from being read.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class ShardCoordinator implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ShardCoordinator.class.getName());
+    private static final char SEPARATOR = '|';
+    static final int READ_AHEAD_PER_WORKER = 1000;
+    // lines dispatched between two flushes while the input is ready
+    private static final int FLUSH_LINES = 100;
+    private static final int DEFAULT_TIMEOUT = 120_000;
+    static final String SYNC_LINE = "sync||";
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final long[] shardLines;
+    private final long[] shardReassigned;
+    private final int readAhead;
+
+    /**
+     * Connects to every worker. Workers that cannot be reached are considered failed
+     *
+     * @param addresses host and port of the AnalysisServer of each shard
+     * @throws IOException if no worker can be reached
+     */
+    public ShardCoordinator(List<InetSocketAddress> addresses) throws IOException {
+        this(addresses, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     *
+     * @param addresses host and port of the AnalysisServer of each shard
+     * @param timeout milliseconds a worker may take to answer while it has lines pending before it is failed
+     * @throws IOException if no worker can be reached
+     */
+    public ShardCoordinator(List<InetSocketAddress> addresses, int timeout) throws IOException {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("at least one worker is required");
+        }
+        for (int i = 0; i < addresses.size(); i++) {
+            workers.add(new Worker(i, addresses.get(i), timeout));
+        }
+        if (workers.stream().noneMatch(worker -> worker.alive)) {
+            throw new IOException("No worker can be reached: " + addresses);
+        }
+        this.shardLines = new long[addresses.size()];
+        this.shardReassigned = new long[addresses.size()];
+        this.readAhead = READ_AHEAD_PER_WORKER * addresses.size();
+    }
+
+    /**
+     * Reads every line from input until it returns null and passes the output lines of each one to output,
+     * in the same order the lines were read.
+     *
+     * @param input supplier of lines with the format "id|text|lang", null at the end of the input
+     * @param ready true if input can return the next line without waiting
+     * @param output action to perform with the output lines of each input line, an empty line if it
+     *               could not be analysed
+     * @throws IllegalStateException if every worker failed
+     */
+    public void process(Supplier<String> input, BooleanSupplier ready, Consumer<List<String>> output) {
+        Deque<PendingLine> pending = new ArrayDeque<>(readAhead);
+        int unflushed = 0;
+        String line = input.get();
+        while (line != null) {
+            if (pending.size() == readAhead) {
+                write(pending.removeFirst(), output);
+            }
+            PendingLine next = new PendingLine(line, shard(line));
+            pending.addLast(next);
+            synchronized (this) {
+                shardLines[next.shard]++;
+            }
+            dispatch(next);
+            if (++unflushed == FLUSH_LINES || !ready.getAsBoolean()) {
+                flush();
+                unflushed = 0;
+            }
+            line = input.get();
+        }
+        while (!pending.isEmpty()) {
+            write(pending.removeFirst(), output);
+        }
+    }
+
+    private int shard(String line) {
+        int end = line.indexOf(SEPARATOR);
+        String id = end < 0 ? line : line.substring(0, end);
+        return Math.floorMod(id.hashCode(), workers.size());
+    }
+
+    private void write(PendingLine line, Consumer<List<String>> output) {
+        if (!line.result.isDone()) {
+            flush();
+        }
+        try {
+            output.accept(line.result.join());
+        } catch (CompletionException e) {
+            throw (RuntimeException)e.getCause();
+        }
+    }
+
+    private void flush() {
+        workers.forEach(Worker::flush);
+    }
+
+    /**
+     * Sends line to the worker of its shard or, if it failed, to the next one alive
+     */
+    private synchronized void dispatch(PendingLine line) {
+        for (int i = 0; i < workers.size(); i++) {
+            Worker worker = workers.get((line.shard + i) % workers.size());
+            if (worker.send(line)) {
+                return;
+            }
+        }
+        line.result.completeExceptionally(new IllegalStateException("Every worker failed"));
+    }
+
+    /**
+     * Sends the lines that worker did not answer to the other workers, in the same order
+     */
+    private synchronized void reassign(Worker worker, List<PendingLine> lines) {
+        LOGGER.warning(String.format("Worker %s failed, reassigning %d lines", worker.address, lines.size()));
+        for (PendingLine line : lines) {
+            shardReassigned[line.shard]++;
+            dispatch(line);
+        }
+        flush();
+    }
+
+    /**
+     *
+     * @param shard
+     * @return number of input lines of shard
+     */
+    public synchronized long getLines(int shard) {
+        return shardLines[shard];
+    }
+
+    /**
+     *
+     * @param shard
+     * @return number of lines of shard that had to be sent again after their worker failed
+     */
+    public synchronized long getReassigned(int shard) {
+        return shardReassigned[shard];
+    }
+
+    /**
+     *
+     * @return number of workers that did not fail
+     */
+    public int getAlive() {
+        return (int)workers.stream().filter(worker -> worker.alive).count();
+    }
+
+    /**
+     *
+     * @return "shard0[host:port lines=n answered=n reassigned=n] shard1[host:port failed lines=n ..] .."
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Worker worker : workers) {
+            sb.append(sb.length() > 0 ? " " : "").append("shard").append(worker.shard).append('[')
+              .append(worker.address.getHostString()).append(':').append(worker.address.getPort())
+              .append(worker.alive ? "" : " failed")
+              .append(" lines=").append(shardLines[worker.shard])
+              .append(" answered=").append(worker.answered)
+              .append(" reassigned=").append(shardReassigned[worker.shard]).append(']');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Disconnects from every worker
+     */
+    @Override
+    public void close() {
+        workers.forEach(Worker::close);
+    }
+
+    private static class PendingLine {
+        private final String line;
+        private final int shard;
+        private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+
+        PendingLine(String line, int shard) {
+            this.line = line;
+            this.shard = shard;
+        }
+    }
+
+    /**
+     * Connection to one AnalysisServer. Lines are answered in the order they are sent, so the output read
+     * by the connection thread completes the oldest line sent that has not been answered yet
+     */
+    private class Worker {
+        private final int shard;
+        private final InetSocketAddress address;
+        private final Deque<PendingLine> sent = new ArrayDeque<>();
+        private final List<String> queued = new ArrayList<>(); // sent but not written yet
+        private final Object writing = new Object(); // taken before this, never while holding this
+        private Socket socket;
+        private PrintWriter out;
+        private volatile boolean alive;
+        private volatile long answered;
+
+        Worker(int shard, InetSocketAddress address, int timeout) {
+            this.shard = shard;
+            this.address = address;
+            try {
+                socket = new Socket();
+                socket.connect(address, timeout);
+                socket.setSoTimeout(timeout);
+                out = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                alive = true;
+                Thread reader = new Thread(() -> read(in), "shard-" + shard);
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException ex) {
+                LOGGER.warning(String.format("Worker %s cannot be reached: %s", address, ex.getMessage()));
+            }
+        }
+
+        /**
+         * Queues line until the next flush()
+         *
+         * @return false if the worker failed and line was not sent
+         */
+        synchronized boolean send(PendingLine line) {
+            if (alive) {
+                sent.addLast(line);
+                queued.add(line.line);
+            }
+            return alive;
+        }
+
+        /**
+         * Writes the lines queued, each one followed by SYNC_LINE. Lines queued by two threads are
+         * written in the order they were queued, since the lines are taken while writing is held
+         */
+        void flush() {
+            boolean error;
+            synchronized (writing) {
+                List<String> lines;
+                synchronized (this) {
+                    if (!alive || queued.isEmpty()) {
+                        return;
+                    }
+                    lines = new ArrayList<>(queued);
+                    queued.clear();
+                }
+                for (String line : lines) {
+                    out.println(line);
+                    out.println(SYNC_LINE);
+                }
+                out.flush();
+                error = out.checkError();
+            }
+            if (error) {
+                fail("cannot send lines");
+            }
+        }
+
+        private void read(BufferedReader in) {
+            List<String> result = new ArrayList<>();
+            try {
+                String line;
+                while ((line = readLine(in)) != null) {
+                    if (!line.isEmpty()) {
+                        if (isNull(result)) {
+                            throw new IOException("Unexpected output after a null result " + line);
+                        }
+                        result.add(line);
+                    } else if (result.isEmpty()) {
+                        result.add(line); // a null result, the answer of SYNC_LINE follows
+                    } else { // the answer of SYNC_LINE ends the result
+                        complete(result);
+                        result = new ArrayList<>();
+                    }
+                }
+                // the last result may be incomplete, it is sent again with the rest
+                if (hasPending()) {
+                    fail("connection closed");
+                }
+            } catch (IOException ex) {
+                fail(ex.getMessage());
+            }
+        }
+
+        private boolean isNull(List<String> result) {
+            return result.size() == 1 && result.get(0).isEmpty();
+        }
+
+        // a worker without lines to answer can stay quiet
+        private String readLine(BufferedReader in) throws IOException {
+            while (true) {
+                try {
+                    return in.readLine();
+                } catch (SocketTimeoutException ex) {
+                    if (hasPending()) {
+                        throw ex;
+                    }
+                }
+            }
+        }
+
+        private synchronized boolean hasPending() {
+            return !sent.isEmpty();
+        }
+
+        private void complete(List<String> result) throws IOException {
+            PendingLine line;
+            synchronized (this) {
+                line = sent.pollFirst();
+            }
+            if (line == null) {
+                throw new IOException("Output without input " + result);
+            }
+            answered++;
+            line.result.complete(result);
+        }
+
+        private void fail(String reason) {
+            List<PendingLine> unanswered;
+            synchronized (this) {
+                if (!alive) {
+                    return;
+                }
+                alive = false;
+                unanswered = new ArrayList<>(sent);
+                sent.clear();
+                queued.clear();
+            }
+            LOGGER.warning(String.format("Worker %s: %s", address, reason));
+            close();
+            reassign(this, unanswered);
+        }
+
+        void close() {
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException ex) {
+                LOGGER.warning(ex.getMessage());
+            }
+        }
+    }
+}
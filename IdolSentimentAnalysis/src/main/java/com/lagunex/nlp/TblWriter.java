@@ -0,0 +1,171 @@
+package com.lagunex.nlp;
+
+import com.lagunex.util.RecordCodec;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes the results of the analysis as the tbl files that are loaded in Vertica, in a single pass
+ * and without intermediate files:
+ *
+ * tweet.tbl      the original record of each tweet followed by its aggregate, e.g. id|text|lang|created_at|positive|0.6,
+ *                or the record alone if it could not be analysed
+ * sentiment.tbl  one line per sentiment found, id|sentiment|topic|score, with sentiment and topic encoded like
+ *                the messages of tweet.tbl
+ *
+ * Results are joined with their records by id, not by position, so a result can never be attached to
+ * another tweet. Records are kept from addRecord() until their result is written.
+ *
+ * Both files are written through large buffers straight to their file channels. This class is not thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class TblWriter implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(TblWriter.class.getName());
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final char SEPARATOR = '|';
+    public static final String TWEET_FILE = "tweet.tbl";
+    public static final String SENTIMENT_FILE = "sentiment.tbl";
+
+    private final Writer tweets;
+    private final Writer sentiments;
+    private final Map<String, Deque<String>> records = new HashMap<>();
+    private final RecordCodec codec = new RecordCodec(SEPARATOR);
+    private final StringBuilder line = new StringBuilder(256);
+    private long unmatched;
+
+    /**
+     * Creates or truncates TWEET_FILE and SENTIMENT_FILE in directory
+     *
+     * @param directory
+     * @param charset charset of the files
+     * @throws IOException
+     */
+    public TblWriter(Path directory, Charset charset) throws IOException {
+        tweets = open(directory.resolve(TWEET_FILE), charset);
+        try {
+            sentiments = open(directory.resolve(SENTIMENT_FILE), charset);
+        } catch (IOException ex) {
+            tweets.close();
+            throw ex;
+        }
+    }
+
+    private Writer open(Path file, Charset charset) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new BufferedWriter(Channels.newWriter(channel,
+                charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE),
+                BUFFER_SIZE), BUFFER_SIZE);
+    }
+
+    /**
+     * Keeps record until the result of its id is written
+     *
+     * @param record input line with the format "id|text|lang|..."
+     */
+    public void addRecord(String record) {
+        records.computeIfAbsent(getId(record), id -> new ArrayDeque<>(1)).addLast(record);
+    }
+
+    private String getId(String record) {
+        int end = record.indexOf(SEPARATOR);
+        return end < 0 ? record : record.substring(0, end);
+    }
+
+    /**
+     * Writes the record of id with the aggregate of result to TWEET_FILE and its sentiments to SENTIMENT_FILE
+     *
+     * @param id
+     * @param result null if the record could not be analysed
+     * @throws UncheckedIOException if the files cannot be written
+     */
+    public void write(String id, SentimentResult result) {
+        Deque<String> pending = records.get(id);
+        if (pending == null) {
+            unmatched++;
+            LOGGER.warning("Result without record: " + id);
+            return;
+        }
+        String record = pending.removeFirst();
+        if (pending.isEmpty()) {
+            records.remove(id);
+        }
+        try {
+            tweets.write(record);
+            if (result != null) {
+                if (result.getAggregate() != null) { // else written like a record that was not analysed
+                    tweets.write(SEPARATOR);
+                    tweets.write(result.getAggregate().toString());
+                }
+                for (Sentiment sentiment : result.getPositive()) {
+                    writeSentiment(id, sentiment);
+                }
+                for (Sentiment sentiment : result.getNegative()) {
+                    writeSentiment(id, sentiment);
+                }
+            }
+            tweets.write('\n');
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void writeSentiment(String id, Sentiment sentiment) throws IOException {
+        line.setLength(0);
+        line.append(id).append(SEPARATOR);
+        sentiment.format(codec, line).append('\n');
+        sentiments.append(line);
+    }
+
+    /**
+     * Writes the lines buffered so far to the files
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        tweets.flush();
+        sentiments.flush();
+    }
+
+    /**
+     *
+     * @return number of results whose id had no record
+     */
+    public long getUnmatched() {
+        return unmatched;
+    }
+
+    /**
+     *
+     * @return number of records whose result was not written yet
+     */
+    public int getPending() {
+        return records.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            tweets.close();
+        } finally {
+            sentiments.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.lagunex.nlp;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AdaptiveThrottleTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void throttledCallHalvesTheLimit() throws InterruptedException {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(0, 8, 1000, 10);
+        throttle.acquire();
+        throttle.release(FAST, true);
+        assertEquals(4, throttle.getLimit());
+        assertEquals(1, throttle.getThrottled());
+    }
+
+    @Test
+    public void slowCallHalvesTheLimitOncePerTargetLatency() throws InterruptedException {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(0, 8, 1000, 10);
+        for (int i = 0; i < 3; i++) {
+            throttle.acquire();
+        }
+        for (int i = 0; i < 3; i++) {
+            throttle.release(SLOW, false);
+        }
+        assertEquals(4, throttle.getLimit());
+        assertEquals(0, throttle.getInFlight());
+    }
+
+    @Test
+    public void fastCallsRaiseTheLimitUpToTheMaximum() throws InterruptedException {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(0, 8, 1000, 10);
+        throttle.acquire();
+        throttle.release(FAST, true);
+        for (int i = 0; i < 100; i++) {
+            throttle.acquire();
+            throttle.release(FAST, false);
+        }
+        assertEquals(8, throttle.getLimit());
+    }
+
+    @Test
+    public void interruptedCallGivesItsSlotBack() throws InterruptedException {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(0.1, 8, 1000, 10); // a permit every 10 seconds
+        throttle.acquire();
+        throttle.release(FAST, false);
+        boolean[] interrupted = {false};
+        Thread caller = new Thread(() -> {
+            try {
+                throttle.acquire(); // sleeps for the next permit
+            } catch (InterruptedException e) {
+                interrupted[0] = true;
+            }
+        });
+        caller.start();
+        while (throttle.getInFlight() == 0) {
+            Thread.sleep(1);
+        }
+        caller.interrupt();
+        caller.join();
+        assertTrue(interrupted[0]);
+        assertEquals(0, throttle.getInFlight());
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyWithJitter() {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(0, 8, 1000, 100);
+        for (int attempt = 0; attempt < 5; attempt++) {
+            long nominal = 100L << attempt;
+            long backoff = throttle.backoff(attempt);
+            assertTrue(backoff >= nominal / 2 && backoff < nominal * 3 / 2);
+        }
+        assertTrue(throttle.backoff(30) < 45000);
+    }
+}
@@ -0,0 +1,172 @@
+package com.lagunex.nlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AnalysisPipelineTest {
+
+    private SentimentResult slowResult(String text) {
+        try {
+            Thread.sleep(new Random().nextInt(10));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        Aggregate aggregate = new Aggregate();
+        aggregate.setSentiment(text);
+        SentimentResult result = new SentimentResult();
+        result.setAggregate(aggregate);
+        return result;
+    }
+
+    @Test
+    public void resultsAreWrittenInInputOrder() {
+        List<String> lines = IntStream.range(0, 200)
+                .mapToObj(i -> i + "|text" + i + "|en")
+                .collect(Collectors.toList());
+        Iterator<String> input = lines.iterator();
+        List<String> output = new ArrayList<>();
+
+        AnalysisPipeline pipeline = new AnalysisPipeline((text, lang) -> slowResult(text), 8);
+        pipeline.process(
+                () -> input.hasNext() ? input.next() : null,
+                (id, result) -> output.add(id + "|" + result.getAggregate().getSentiment()));
+        pipeline.shutdown();
+
+        assertEquals(lines.size(), output.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(i + "|text" + i, output.get(i));
+        }
+    }
+
+    @Test
+    public void escapedSeparatorsAndLineBreaksAreRestored() {
+        Iterator<String> input = Arrays.asList("1|Seahawks \\| Patriots\\nwhat a game|en|2015-02-02 04:59:30").iterator();
+        List<String> analysed = new ArrayList<>();
+
+        AnalysisPipeline pipeline = new AnalysisPipeline((text, lang) -> {
+            analysed.add(text + "@" + lang);
+            return slowResult(text);
+        }, 1);
+        pipeline.process(() -> input.hasNext() ? input.next() : null, (id, result) -> assertEquals("1", id));
+        pipeline.shutdown();
+
+        assertEquals(Collections.singletonList("Seahawks | Patriots\nwhat a game@" + SentimentAnalysis.Language.English),
+                analysed);
+    }
+
+    @Test
+    public void readAheadIsBounded() {
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger maxPending = new AtomicInteger();
+
+        AnalysisPipeline pipeline = new AnalysisPipeline((text, lang) -> slowResult(text), 4);
+        pipeline.process(
+                () -> {
+                    maxPending.set(Math.max(maxPending.get(), read.get() - written.get()));
+                    return read.get() < 100 ? read.incrementAndGet() + "|text|en" : null;
+                },
+                (id, result) -> written.incrementAndGet());
+        pipeline.shutdown();
+
+        assertEquals(100, written.get());
+        assertTrue(maxPending.get() <= pipeline.getReadAhead());
+    }
+
+    @Test
+    public void batchesGroupLinesByLanguageAndKeepInputOrder() {
+        String[] languages = {"en", "es", "fr"};
+        List<String> lines = IntStream.range(0, 100)
+                .mapToObj(i -> i + "|text" + i + "|" + languages[i % languages.length])
+                .collect(Collectors.toList());
+        Iterator<String> input = lines.iterator();
+        List<String> output = new ArrayList<>();
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        AnalysisPipeline pipeline = new AnalysisPipeline((texts, lang) -> {
+            batchSizes.add(texts.size());
+            return texts.stream().map(text -> slowResult(lang.getCode() + text)).collect(Collectors.toList());
+        }, 2, 10);
+        pipeline.process(
+                () -> input.hasNext() ? input.next() : null,
+                (id, result) -> output.add(id + "|" + result.getAggregate().getSentiment()));
+        pipeline.shutdown();
+
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(i + "|" + languages[i % languages.length] + "text" + i, output.get(i));
+        }
+        assertEquals(100, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 10));
+    }
+
+    @Test
+    public void unsupportedLanguageProducesNullResult() {
+        Iterator<String> input = Arrays.asList("1|texto|xx").iterator();
+        List<SentimentResult> output = new ArrayList<>();
+
+        AnalysisPipeline pipeline = new AnalysisPipeline(
+                (text, lang) -> lang == null ? null : slowResult(text), 2);
+        pipeline.process(() -> input.hasNext() ? input.next() : null, (id, result) -> output.add(result));
+        pipeline.shutdown();
+
+        assertEquals(1, output.size());
+        assertNull(output.get(0));
+    }
+
+    @Test
+    public void filteredLinesAreNotAnalysed() {
+        Iterator<String> input = Arrays.asList(
+                "1|good day|en", "2|good day|xx", "3|@lagunex http://t.co/xyz|en", "4|follow back|en", "5|bad day|es",
+                "6|no language")
+                .iterator();
+        List<String> analysed = Collections.synchronizedList(new ArrayList<>());
+        List<String> output = new ArrayList<>();
+
+        AnalysisPipeline pipeline = new AnalysisPipeline((texts, lang) -> {
+            analysed.addAll(texts);
+            return texts.stream().map(this::slowResult).collect(Collectors.toList());
+        }, 2, 2);
+        pipeline.setFilter(new OpinionFilter(Collections.singletonList(Pattern.compile("follow"))));
+        pipeline.process(
+                () -> input.hasNext() ? input.next() : null,
+                (id, result) -> output.add(id + "|" + (result == null ? null : result.getAggregate())));
+        pipeline.shutdown();
+
+        assertEquals(Arrays.asList("1|good day|0.0", "2|null", "3|neutral|0.0", "4|null", "5|bad day|0.0", "6|null"),
+                output);
+        assertEquals(2, analysed.size());
+        assertEquals(4, pipeline.getFilter().getFiltered());
+    }
+
+    @Test
+    public void idleInputWritesPendingResults() {
+        Iterator<String> input = Arrays.asList("1|good|en", "2|bad|en", "3|ugly|es").iterator();
+        List<String> output = new ArrayList<>();
+        List<Integer> writtenBeforeRead = new ArrayList<>();
+
+        // batches of 10 would keep every line waiting until the end if the input were always ready
+        AnalysisPipeline pipeline = new AnalysisPipeline(
+                (texts, lang) -> texts.stream().map(this::slowResult).collect(Collectors.toList()), 2, 10);
+        pipeline.process(
+                () -> {
+                    writtenBeforeRead.add(output.size());
+                    return input.hasNext() ? input.next() : null;
+                },
+                () -> false,
+                (id, result) -> output.add(id + "|" + result.getAggregate().getSentiment()));
+        pipeline.shutdown();
+
+        assertEquals(Arrays.asList("1|good", "2|bad", "3|ugly"), output);
+        assertEquals(Arrays.asList(0, 1, 2, 3), writtenBeforeRead);
+    }
+}
@@ -0,0 +1,89 @@
+package com.lagunex.nlp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AnalysisServerTest {
+
+    private SentimentResult result(String text) {
+        Aggregate aggregate = new Aggregate();
+        aggregate.setSentiment(text);
+        aggregate.setScore(0.5);
+        SentimentResult result = new SentimentResult();
+        result.setAggregate(aggregate);
+        result.setPositive(Collections.emptyList());
+        result.setNegative(Collections.emptyList());
+        return result;
+    }
+
+    private Socket connect(AnalysisServer server) throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    private BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+    }
+
+    @Test
+    public void clientsShareTheServer() throws Exception {
+        SentimentMetrics metrics = new SentimentMetrics();
+        try (AnalysisServer server = new AnalysisServer(0,
+                (texts, lang) -> texts.stream().map(this::result).collect(Collectors.toList()), 4, 5)) {
+            server.setMetrics(metrics);
+            CompletableFuture.runAsync(server::serve);
+
+            // one client streams a file and closes its output
+            CompletableFuture<List<String>> streamed = CompletableFuture.supplyAsync(() -> {
+                List<String> lines = new ArrayList<>();
+                try (Socket socket = connect(server)) {
+                    PrintWriter out = writer(socket);
+                    for (int i = 0; i < 100; i++) {
+                        out.println(i + "|text" + i + "|en");
+                    }
+                    socket.shutdownOutput();
+                    BufferedReader in = reader(socket);
+                    for (String line = in.readLine(); line != null; line = in.readLine()) {
+                        lines.add(line);
+                    }
+                } catch (IOException ex) {
+                    throw new AssertionError(ex);
+                }
+                return lines;
+            });
+
+            // another one waits for each result before sending the next line
+            try (Socket socket = connect(server)) {
+                PrintWriter out = writer(socket);
+                BufferedReader in = reader(socket);
+                out.println("a|ñandú|es");
+                assertEquals("a|ñandú|0.5", in.readLine());
+                out.println("b|unknown|xx");
+                assertEquals("", in.readLine());
+            }
+
+            List<String> lines = streamed.get();
+            assertEquals(100, lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                assertEquals(i + "|text" + i + "|0.5", lines.get(i));
+            }
+            assertEquals(102, metrics.getLines());
+        }
+    }
+}
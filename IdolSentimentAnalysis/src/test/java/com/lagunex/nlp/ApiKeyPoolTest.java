@@ -0,0 +1,60 @@
+package com.lagunex.nlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ApiKeyPoolTest {
+
+    private List<String> acquire(ApiKeyPool pool, int calls) throws InterruptedException {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            keys.add(pool.acquire().getValue());
+        }
+        return keys;
+    }
+
+    @Test
+    public void smoothWeightedRoundRobin() throws InterruptedException {
+        ApiKeyPool pool = ApiKeyPool.parse("a:5, b, c", 0);
+        assertEquals(3, pool.size());
+        // the calls of a are interleaved with the others instead of sent in a row
+        assertEquals(Arrays.asList("a", "a", "b", "a", "c", "a", "a"), acquire(pool, 7));
+        assertEquals(10, pool.getKeys().get(0).getCalls() + acquire(pool, 7).stream().filter("a"::equals).count());
+    }
+
+    @Test
+    public void throttledKeysCoolDown() throws InterruptedException {
+        ApiKeyPool pool = ApiKeyPool.parse("a,b", 0);
+        ApiKeyPool.Key a = pool.acquire();
+        pool.coolDown(a, 100);
+        assertEquals(Arrays.asList("b", "b", "b"), acquire(pool, 3));
+
+        pool.coolDown(pool.getKeys().get(1), 200);
+        long begin = System.nanoTime();
+        assertEquals("a", pool.acquire().getValue()); // waits for the first key ready
+        long elapsed = System.nanoTime() - begin;
+        assertTrue(elapsed > 50_000_000L && elapsed < 190_000_000L);
+        assertEquals(1, a.getThrottled());
+        assertEquals("****[weight=1 calls=2 throttled=1 failed=0] ****[weight=1 calls=3 throttled=1 failed=0]",
+                pool.toString());
+    }
+
+    @Test
+    public void dailyQuota() throws InterruptedException {
+        ApiKeyPool pool = ApiKeyPool.parse("a,b:3", 2);
+        assertEquals(4, acquire(pool, 4).size());
+        try {
+            pool.acquire();
+            fail("every key used its quota");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidWeight() {
+        ApiKeyPool.parse("a:0", 0);
+    }
+}
@@ -0,0 +1,42 @@
+package com.lagunex.nlp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CheckpointTest {
+
+    @Test
+    public void writeAndRead() throws IOException {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path file = Checkpoint.fileFor(dir.resolve("sentiment.txt"));
+        assertEquals("sentiment.txt.checkpoint", file.getFileName().toString());
+        assertNull(Checkpoint.read(file));
+
+        new Checkpoint(100, 200, 3).write(file);
+        new Checkpoint(1234567890123L, 987654321L, 42).write(file);
+        Checkpoint checkpoint = Checkpoint.read(file);
+        assertEquals(1234567890123L, checkpoint.getInputOffset());
+        assertEquals(987654321L, checkpoint.getOutputOffset());
+        assertEquals(42, checkpoint.getLines());
+        assertEquals(1, dir.toFile().list().length); // no temporary file left
+
+        Files.delete(file);
+        Files.delete(dir);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidCheckpoint() throws IOException {
+        Path file = Files.createTempFile("sentiment", ".checkpoint");
+        Files.write(file, Arrays.asList("inputOffset=10", "lines=1"), StandardCharsets.UTF_8);
+        try {
+            Checkpoint.read(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
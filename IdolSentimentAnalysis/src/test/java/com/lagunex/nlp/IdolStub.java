@@ -0,0 +1,307 @@
+package com.lagunex.nlp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal HTTP/1.1 server that imitates IdolOnDemand's analyzesentiment API.
+ *
+ * It keeps connections alive, compresses the response when the client accepts gzip and
+ * counts connections and requests, so connection reuse and latency can be measured offline.
+ * The response of every request is decided by a handler that can be replaced by each test.
+ *
+ * Run its main method to use it from the command line with -DidolOnDemand.url=http://localhost:port/
+ * Its optional arguments are the port, and n and millis to delay every n-th request by millis milliseconds.
+ */
+public class IdolStub implements AutoCloseable {
+    private final ServerSocket server;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile Function<Request, Response> handler = IdolStub::analyse;
+
+    public static void main(String[] args) throws IOException {
+        IdolStub stub = new IdolStub(args.length > 0 ? Integer.parseInt(args[0]) : 0);
+        if (args.length > 2) {
+            stub.setHandler(delayed(Integer.parseInt(args[1]), Long.parseLong(args[2])));
+        }
+        System.out.println(stub.getUrl());
+    }
+
+    public IdolStub() throws IOException {
+        this(0);
+    }
+
+    public IdolStub(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        connections.execute(this::acceptConnections);
+    }
+
+    public String getUrl() {
+        return String.format("http://localhost:%d/1/api/sync/analyzesentiment/v1", server.getLocalPort());
+    }
+
+    public void setHandler(Function<Request, Response> handler) {
+        this.handler = handler;
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                acceptedConnections.incrementAndGet();
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            Request request = Request.read(in);
+            while (request != null) {
+                requests.incrementAndGet();
+                Response response = handler.apply(request);
+                response.write(out, request.acceptsGzip());
+                if (response.closeConnection || "close".equalsIgnoreCase(request.headers.get("connection"))) {
+                    break;
+                }
+                request = Request.read(in);
+            }
+        } catch (SocketException e) {
+            // client went away
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Default handler: "good" makes a positive opinion, "bad" a negative one, anything else is neutral.
+     * 
+     * POST requests may include several texts and receive one result per text under "sentiment_analysis"
+     */
+    public static Response analyse(Request request) {
+        List<String> texts = request.getParameters("text");
+        if (texts.isEmpty()) {
+            return new Response(400, "{\"error\":4005,\"reason\":\"missing text\"}");
+        } else if ("POST".equals(request.method)) {
+            return new Response(200, texts.stream()
+                    .map(IdolStub::sentimentJson)
+                    .collect(Collectors.joining(",", "{\"sentiment_analysis\":[", "]}")));
+        }
+        return new Response(200, sentimentJson(texts.get(0)));
+    }
+
+    /**
+     * Default handler that delays every n-th request, to imitate the slow tail of the API
+     * 
+     * @param every n, 1 delays every request
+     * @param millis delay
+     * @return 
+     */
+    public static Function<Request, Response> delayed(int every, long millis) {
+        AtomicLong count = new AtomicLong();
+        return request -> {
+            if (count.incrementAndGet() % every == 0) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return analyse(request);
+        };
+    }
+
+    /**
+     * @param text
+     * @return a JSON document with the schema returned by analyzesentiment
+     */
+    public static String sentimentJson(String text) {
+        if (text.contains("good")) {
+            return "{\"positive\":[{\"sentiment\":\"good\",\"topic\":\"day\",\"score\":0.75,"
+                    + "\"original_text\":\"good day\",\"original_length\":8}],"
+                    + "\"negative\":[],\"aggregate\":{\"sentiment\":\"positive\",\"score\":0.75}}";
+        } else if (text.contains("bad")) {
+            return "{\"positive\":[],\"negative\":[{\"sentiment\":\"bad\",\"topic\":null,\"score\":-0.5}],"
+                    + "\"aggregate\":{\"sentiment\":\"negative\",\"score\":-0.5}}";
+        }
+        return "{\"positive\":[],\"negative\":[],\"aggregate\":{\"sentiment\":\"neutral\",\"score\":0}}";
+    }
+
+    /**
+     * An http request with its query string and form parameters already decoded
+     */
+    public static class Request {
+        public final String method;
+        public final String path;
+        public final Map<String, String> headers = new HashMap<>();
+        public final Map<String, List<String>> parameters = new HashMap<>();
+        public final byte[] body;
+
+        private Request(String method, String target, byte[] body) {
+            this.method = method;
+            this.body = body;
+            int query = target.indexOf('?');
+            this.path = query < 0 ? target : target.substring(0, query);
+            if (query >= 0) {
+                addParameters(target.substring(query + 1));
+            }
+        }
+
+        static Request read(InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return null;
+            }
+            String[] parts = requestLine.split(" ");
+            Map<String, String> headers = new HashMap<>();
+            for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+            byte[] body = new byte[Integer.parseInt(headers.getOrDefault("content-length", "0"))];
+            for (int read = 0; read < body.length; ) {
+                int n = in.read(body, read, body.length - read);
+                if (n < 0) throw new IOException("connection closed while reading body");
+                read += n;
+            }
+            Request request = new Request(parts[0], parts[1], body);
+            request.headers.putAll(headers);
+            if (headers.getOrDefault("content-type", "").startsWith("application/x-www-form-urlencoded")) {
+                request.addParameters(new String(body, StandardCharsets.UTF_8));
+            }
+            return request;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c = in.read();
+            if (c < 0) return null;
+            while (c >= 0 && c != '\n') {
+                if (c != '\r') line.write(c);
+                c = in.read();
+            }
+            return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+
+        private void addParameters(String encoded) {
+            for (String pair : encoded.split("&")) {
+                if (pair.isEmpty()) continue;
+                int eq = pair.indexOf('=');
+                String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+                String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+                parameters.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+            }
+        }
+
+        private static String decode(String value) {
+            try {
+                return URLDecoder.decode(value, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public String getParameter(String name) {
+            List<String> values = parameters.get(name);
+            return values == null ? null : values.get(0);
+        }
+
+        public List<String> getParameters(String name) {
+            return parameters.getOrDefault(name, new ArrayList<>());
+        }
+
+        boolean acceptsGzip() {
+            return headers.getOrDefault("accept-encoding", "").contains("gzip");
+        }
+    }
+
+    /**
+     * A JSON response with the given status
+     */
+    public static class Response {
+        private final int status;
+        private final String body;
+        private final Map<String, String> headers = new HashMap<>();
+        private boolean closeConnection;
+
+        public Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public Response withHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response closingConnection() {
+            closeConnection = true;
+            return this;
+        }
+
+        void write(OutputStream out, boolean gzip) throws IOException {
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream zip = new GZIPOutputStream(compressed)) {
+                    zip.write(content);
+                }
+                content = compressed.toByteArray();
+            }
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(status).append(status < 400 ? " OK" : " Error").append("\r\n")
+                .append("Content-Type: application/json;charset=UTF-8\r\n")
+                .append("Content-Length: ").append(content.length).append("\r\n");
+            if (gzip) head.append("Content-Encoding: gzip\r\n");
+            if (closeConnection) head.append("Connection: close\r\n");
+            headers.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+            head.append("\r\n");
+            ByteArrayOutputStream message = new ByteArrayOutputStream(head.length() + content.length);
+            message.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            message.write(content);
+            message.writeTo(out); // a single write avoids waiting for delayed acks between head and body
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.lagunex.nlp;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyTrackerTest {
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void keepsEveryLatencyByDefault() {
+        LatencyTracker tracker = new LatencyTracker();
+        record(tracker, 1000, 10 * MILLI);
+        record(tracker, 1000, MILLI);
+
+        assertEquals(2000, tracker.getCount());
+        assertTrue(tracker.getPercentile(90) >= 10 * MILLI);
+    }
+
+    @Test
+    public void windowFollowsTheLatestCalls() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        record(tracker, 1000, 10 * MILLI);
+        record(tracker, 200, MILLI);
+
+        assertEquals(1200, tracker.getCount());
+        assertTrue(tracker.getPercentile(99) < 2 * MILLI);
+        assertTrue(tracker.getMean() < 2 * MILLI);
+    }
+
+    private static void record(LatencyTracker tracker, int calls, long nanos) {
+        for (int i = 0; i < calls; i++) {
+            tracker.record(nanos);
+        }
+    }
+}
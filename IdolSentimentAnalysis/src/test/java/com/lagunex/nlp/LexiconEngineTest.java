@@ -0,0 +1,70 @@
+package com.lagunex.nlp;
+
+import com.lagunex.nlp.SentimentAnalysis.Language;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LexiconEngineTest {
+    private final LexiconEngine engine = new LexiconEngine();
+
+    @Test
+    public void positiveOpinion() {
+        SentimentResult t = engine.analyse("This is a good day", Language.English);
+        assertEquals("positive|0.6", t.getAggregate().toString());
+        assertEquals("good|day|0.6", t.getPositive().get(0).toString());
+        assertTrue(t.getNegative().isEmpty());
+    }
+
+    @Test
+    public void negativeOpinionWithIntensifier() {
+        SentimentResult t = engine.analyse("What a very bad movie", Language.English);
+        assertEquals("negative", t.getAggregate().getSentiment());
+        assertEquals("bad|movie|-0.9", t.getNegative().get(0).toString());
+    }
+
+    @Test
+    public void negationFlipsPolarity() {
+        LexiconEngine.Scored scored = engine.score("The hotel was not good at all", Language.English);
+        assertEquals("negative|-0.6", scored.getResult().getAggregate().toString());
+        assertEquals(0, scored.getConfidence(), 0.0);
+    }
+
+    @Test
+    public void mixedOpinion() {
+        LexiconEngine.Scored scored = engine.score("Great phone, terrible battery", Language.English);
+        SentimentResult t = scored.getResult();
+        assertEquals("mixed", t.getAggregate().getSentiment());
+        assertEquals("great|phone|0.8", t.getPositive().get(0).toString());
+        assertEquals("terrible|battery|-0.9", t.getNegative().get(0).toString());
+        assertEquals(0, scored.getConfidence(), 0.0);
+    }
+
+    @Test
+    public void neutralOpinionIsCertain() {
+        LexiconEngine.Scored scored = engine.score("Reading the news on the train", Language.English);
+        assertEquals("neutral|0.0", scored.getResult().getAggregate().toString());
+        assertEquals(1, scored.getConfidence(), 0.0);
+    }
+
+    @Test
+    public void contrastIsUncertain() {
+        assertEquals(0, engine.score("Good food but slow service", Language.English).getConfidence(), 0.0);
+        assertEquals(0, engine.score("Is it a good day?", Language.English).getConfidence(), 0.0);
+        assertTrue(engine.score("Good food, great people", Language.English).getConfidence() > 0.6);
+    }
+
+    @Test
+    public void spanishOpinion() {
+        SentimentResult t = engine.analyse("Qué película tan mala", Language.Spanish);
+        assertEquals("negative", t.getAggregate().getSentiment());
+        assertEquals(-0.78, t.getAggregate().getScore(), 1e-9);
+    }
+
+    @Test
+    public void languageWithoutLexicon() {
+        assertFalse(engine.supports(Language.Turkish));
+        LexiconEngine.Scored scored = engine.score("iyi bir gün", Language.Turkish);
+        assertNull(scored.getResult());
+        assertEquals(0, scored.getConfidence(), 0.0);
+    }
+}
@@ -0,0 +1,64 @@
+package com.lagunex.nlp;
+
+import com.lagunex.nlp.SentimentAnalysis.Language;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NearDuplicateIndexTest {
+    private static final String TWEET = "HP IDOL OnDemand makes sentiment analysis of tweets really easy";
+
+    private SentimentResult result() {
+        return new SentimentResult();
+    }
+
+    @Test
+    public void retweetsAndQuotesAreNearDuplicates() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100, 3);
+        SentimentResult result = result();
+        index.put(TWEET, Language.English, result);
+
+        assertSame(result, index.get("RT @lagunex: " + TWEET, Language.English));
+        assertSame(result, index.get("“@lagunex: " + TWEET + "”", Language.English));
+        assertSame(result, index.get(TWEET + " http://t.co/AbCdEf", Language.English));
+        assertSame(result, index.get(TWEET.toUpperCase() + "!!!", Language.English));
+        assertEquals(4, index.getHits());
+    }
+
+    @Test
+    public void differentTextsAreNotNearDuplicates() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100, 3);
+        index.put(TWEET, Language.English, result());
+
+        assertNull(index.get("HP IDOL OnDemand makes sentiment analysis of tweets really hard", Language.English));
+        assertNull(index.get("Vertica makes the analysis of big data tables fast", Language.English));
+        assertNull(index.get(TWEET, Language.Spanish));
+        assertEquals(3, index.getMisses());
+    }
+
+    @Test
+    public void shortTextsAreNotIndexed() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100, 3);
+        index.put("good day", Language.English, result());
+        assertEquals(0, index.getSize());
+        assertNull(index.get("good day", Language.English));
+    }
+
+    @Test
+    public void memoryIsBounded() {
+        NearDuplicateIndex index = new NearDuplicateIndex(10, 3);
+        SentimentResult first = result();
+        index.put(TWEET, Language.English, first);
+        for (int i = 0; i < 10; i++) {
+            index.put("tweet number " + i + " about something else entirely", Language.English, result());
+        }
+        assertEquals(10, index.getSize());
+        assertNull(index.get(TWEET, Language.English));
+    }
+
+    @Test
+    public void fingerprintIgnoresNoise() {
+        assertEquals(NearDuplicateIndex.fingerprint(TWEET),
+                NearDuplicateIndex.fingerprint("RT @someone: " + TWEET + " http://t.co/xyz"));
+        assertEquals(0, NearDuplicateIndex.fingerprint("RT @someone: http://t.co/xyz"));
+    }
+}
@@ -0,0 +1,52 @@
+package com.lagunex.nlp;
+
+import com.lagunex.nlp.OpinionFilter.Reason;
+import com.lagunex.nlp.SentimentAnalysis.Language;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OpinionFilterTest {
+
+    @Test
+    public void opinionsAreAnalysed() {
+        OpinionFilter filter = new OpinionFilter();
+        assertNull(filter.check("This is a good day http://t.co/xyz", Language.English));
+        assertNull(filter.check("@carlos 42", Language.Spanish));
+        assertEquals(0, filter.getFiltered());
+    }
+
+    @Test
+    public void unsupportedLanguage() {
+        OpinionFilter filter = new OpinionFilter();
+        assertEquals(Reason.UNSUPPORTED_LANGUAGE, filter.check("This is a good day", null));
+        assertNull(filter.getResult(Reason.UNSUPPORTED_LANGUAGE));
+    }
+
+    @Test
+    public void emptyAfterNormalization() {
+        OpinionFilter filter = new OpinionFilter();
+        assertEquals(Reason.EMPTY_TEXT, filter.check("RT @lagunex: http://t.co/xyz #hpidol www.hp.com !!", Language.English));
+        assertEquals(Reason.EMPTY_TEXT, filter.check("", Language.English));
+        assertEquals(2, filter.getCount(Reason.EMPTY_TEXT));
+        assertEquals("neutral|0.0", filter.getResult(Reason.EMPTY_TEXT).getAggregate().toString());
+        assertTrue(filter.getResult(Reason.EMPTY_TEXT).getPositive().isEmpty());
+    }
+
+    @Test
+    public void noisePatternsFromFile() throws IOException {
+        Path file = Files.createTempFile("noise", ".txt");
+        Files.write(file, Arrays.asList("(?i)follow ?back", "", "^\\d+$"), StandardCharsets.UTF_8);
+        OpinionFilter filter = OpinionFilter.fromFile(file);
+        Files.delete(file);
+
+        assertEquals(Reason.NOISE, filter.check("Follow back and win!", Language.English));
+        assertEquals(Reason.NOISE, filter.check("12345", Language.English));
+        assertNull(filter.check("12345 reasons to smile", Language.English));
+        assertEquals("UNSUPPORTED_LANGUAGE=0 EMPTY_TEXT=0 NOISE=2", filter.toString());
+    }
+}
@@ -0,0 +1,396 @@
+package com.lagunex.nlp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests SentimentAnalysis against a local IdolStub, so they do not need an API key nor a network connection
+ */
+public class SentimentAnalysisStubTest {
+    private static final Logger LOGGER = Logger.getLogger(SentimentAnalysisStubTest.class.getName());
+
+    private IdolStub stub;
+    private SentimentAnalysis engine;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new IdolStub();
+        engine = new SentimentAnalysis(config());
+    }
+
+    private Properties config() {
+        Properties p = new Properties();
+        p.setProperty("idolOnDemand.apiKey", "test-key");
+        p.setProperty("idolOnDemand.url", stub.getUrl());
+        p.setProperty("idolOnDemand.maxConnections", "4");
+        p.setProperty("idolOnDemand.cacheSize", "0"); // every call must reach the stub
+        p.setProperty("idolOnDemand.nearDuplicates", "0");
+        p.setProperty("idolOnDemand.retryBackoff", "10");
+        return p;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        engine.close();
+        stub.close();
+    }
+
+    @Test
+    public void analyse() {
+        SentimentResult t = engine.analyse("This is a good day");
+        assertNotNull(t);
+        assertEquals("positive", t.getAggregate().getSentiment());
+        assertEquals(0.75, t.getAggregate().getScore(), 0.0);
+        assertEquals("good|day|0.75", t.getPositive().get(0).toString());
+        assertTrue(t.getNegative().isEmpty());
+    }
+
+    @Test
+    public void connectionsAreReused() throws Exception {
+        int calls = 200;
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        List<Future<SentimentResult>> results = new ArrayList<>();
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            results.add(workers.submit(() -> engine.analyse("a bad day")));
+        }
+        for (Future<SentimentResult> result : results) {
+            assertEquals("negative", result.get().getAggregate().getSentiment());
+        }
+        long elapsed = System.nanoTime() - begin;
+        workers.shutdown();
+
+        LOGGER.info(String.format("%d calls over %d connections, %.3f ms per call",
+                calls, stub.getAcceptedConnections(), elapsed / 1e6 / calls));
+        assertEquals(calls, stub.getRequests());
+        assertTrue(stub.getAcceptedConnections() <= 4);
+    }
+
+    @Test
+    public void analyseBatch() {
+        List<String> opinions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            opinions.add(i % 2 == 0 ? "good day " + i : "bad = day & " + i);
+        }
+
+        long begin = System.nanoTime();
+        List<SentimentResult> results = engine.analyse(opinions, SentimentAnalysis.Language.English);
+        long elapsed = System.nanoTime() - begin;
+
+        LOGGER.info(String.format("%d opinions in one request, %.3f ms per opinion",
+                opinions.size(), elapsed / 1e6 / opinions.size()));
+        assertEquals(1, stub.getRequests());
+        assertEquals(opinions.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            String expected = i % 2 == 0 ? "positive" : "negative";
+            assertEquals(expected, results.get(i).getAggregate().getSentiment());
+        }
+    }
+
+    @Test
+    public void analyseBatchUsesCache() throws Exception {
+        Properties p = config();
+        p.setProperty("idolOnDemand.cacheSize", "10");
+        SentimentAnalysis cached = new SentimentAnalysis(p);
+
+        cached.analyse("good day", SentimentAnalysis.Language.English);
+        List<SentimentResult> results = cached.analyse(
+                Arrays.asList("good day", "bad day"), SentimentAnalysis.Language.English);
+        cached.close();
+
+        assertEquals(2, stub.getRequests());
+        assertEquals("positive", results.get(0).getAggregate().getSentiment());
+        assertEquals("negative", results.get(1).getAggregate().getSentiment());
+        assertEquals(1, cached.getCache().getHits());
+    }
+
+    @Test
+    public void batchWithUnknownLanguageIsNotSent() {
+        List<SentimentResult> results = engine.analyse(Arrays.asList("good day", "bad day"), null);
+        assertEquals(Arrays.asList(null, null), results);
+        assertEquals(0, stub.getRequests());
+    }
+
+    @Test
+    public void failedBatchProducesNullResults() {
+        stub.setHandler(request -> new IdolStub.Response(500, "{\"error\":5000}"));
+        List<SentimentResult> results = engine.analyse(Arrays.asList("good day", "bad day"),
+                SentimentAnalysis.Language.English);
+        assertEquals(Arrays.asList(null, null), results);
+    }
+
+    @Test
+    public void throttledCallsAreRetried() throws Exception {
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        stub.setHandler(request -> { // the first two attempts of every text are throttled
+            int attempt = attempts.computeIfAbsent(request.getParameter("text"), t -> new AtomicInteger())
+                    .incrementAndGet();
+            return attempt > 2 ?
+                IdolStub.analyse(request) :
+                new IdolStub.Response(attempt == 1 ? 429 : 503, "{\"error\":4004}");
+        });
+
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        List<Future<SentimentResult>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String text = "good day " + i;
+            results.add(workers.submit(() -> engine.analyse(text)));
+        }
+        for (Future<SentimentResult> result : results) {
+            assertNotNull(result.get());
+        }
+        workers.shutdown();
+
+        assertEquals(60, stub.getRequests());
+        assertEquals(40, engine.getThrottle().getThrottled());
+        assertEquals(0, engine.getThrottle().getInFlight());
+    }
+
+    @Test
+    public void throttledCallsGiveUpAfterMaxRetries() {
+        stub.setHandler(request -> new IdolStub.Response(429, "{\"error\":4004}").withHeader("Retry-After", "0"));
+        assertNull(engine.analyse("good day"));
+        assertEquals(6, stub.getRequests()); // the first attempt and five retries
+    }
+
+    @Test
+    public void throttledKeysCoolDownAndOthersAnswer() throws Exception {
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        stub.setHandler(request -> { // key-b is always throttled
+            String key = request.getParameter("apikey");
+            calls.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            return key.equals("key-b") ?
+                new IdolStub.Response(429, "{\"error\":4004}").withHeader("Retry-After", "60") :
+                IdolStub.analyse(request);
+        });
+        SentimentAnalysis pooled = engine("idolOnDemand.apiKey", "key-a:2,key-b,key-c");
+
+        for (int i = 0; i < 30; i++) {
+            assertNotNull(pooled.analyse("good day " + i));
+        }
+        pooled.close();
+
+        assertEquals(1, calls.get("key-b").get()); // cooling down for a minute after its first call
+        assertEquals(30, calls.get("key-a").get() + calls.get("key-c").get());
+        assertEquals(2.0, calls.get("key-a").get() / (double)calls.get("key-c").get(), 0.2);
+        assertEquals(Long.valueOf(1), pooled.getMetrics().getThrottledByKey().get("****ey-b"));
+        assertEquals(Long.valueOf(calls.get("key-a").get()), pooled.getMetrics().getCallsByKey().get("****ey-a"));
+    }
+
+    @Test
+    public void requestsPerSecondAreLimited() throws Exception {
+        Properties p = config();
+        p.setProperty("idolOnDemand.requestsPerSecond", "50");
+        SentimentAnalysis limited = new SentimentAnalysis(p);
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            limited.analyse("good day");
+        }
+        long elapsed = System.nanoTime() - begin;
+        limited.close();
+
+        assertTrue(elapsed >= 190_000_000L); // ten intervals of 20ms after the first call
+    }
+
+    @Test
+    public void serverErrorProducesNullResult() {
+        stub.setHandler(request -> new IdolStub.Response(500, "{\"error\":5000}"));
+        assertNull(engine.analyse("This is a good day"));
+    }
+
+    private SentimentAnalysis engine(String... properties) {
+        Properties p = config();
+        for (int i = 0; i < properties.length; i += 2) {
+            p.setProperty(properties[i], properties[i + 1]);
+        }
+        return new SentimentAnalysis(p);
+    }
+
+    @Test
+    public void deadlineProducesNullResult() {
+        stub.setHandler(IdolStub.delayed(1, 1000));
+        SentimentAnalysis limited = engine("idolOnDemand.deadline", "100");
+
+        long begin = System.nanoTime();
+        SentimentResult result = limited.analyse("This is a good day");
+        long elapsed = System.nanoTime() - begin;
+        limited.close();
+
+        assertNull(result);
+        assertEquals(1, limited.getDeadlinesExceeded());
+        assertTrue(elapsed < 800_000_000L);
+    }
+
+    /**
+     * Every tenth request takes 150ms. Without hedging they make the 95th percentile,
+     * with hedging at the 80th percentile a duplicate answers first
+     */
+    @Test
+    public void hedgingCutsTailLatency() {
+        stub.setHandler(IdolStub.delayed(10, 150));
+        LatencyTracker plain = measure(engine, 100);
+
+        SentimentAnalysis hedging = engine("idolOnDemand.hedgePercentile", "80");
+        measure(hedging, 20); // warm up the percentile
+        LatencyTracker hedged = measure(hedging, 100);
+        hedging.close();
+
+        LOGGER.info("Without hedging " + plain);
+        LOGGER.info("With hedging " + hedged + ", " + hedging.getHedged() + " duplicate calls");
+        assertTrue(plain.getPercentile(95) >= 150_000_000L);
+        assertTrue(hedged.getPercentile(95) < 100_000_000L);
+        assertTrue(hedging.getHedged() > 0);
+    }
+
+    private LatencyTracker measure(SentimentAnalysis client, int calls) {
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 0; i < calls; i++) {
+            long begin = System.nanoTime();
+            assertNotNull(client.analyse("a good day " + i));
+            tracker.record(System.nanoTime() - begin);
+        }
+        return tracker;
+    }
+
+    @Test
+    public void breakerOpensAndUsesFallback() throws Exception {
+        stub.setHandler(request -> new IdolStub.Response(500, "{\"error\":5000}"));
+        SentimentAnalysis guarded = engine("idolOnDemand.breakerWindow", "5", "idolOnDemand.breakerOpenTime", "200");
+        SentimentResult fallback = new SentimentResult();
+        guarded.setFallback((text, lang) -> fallback);
+
+        for (int i = 0; i < 5; i++) {
+            assertNull(guarded.analyse("This is a good day"));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guarded.getBreaker().getState());
+        for (int i = 0; i < 5; i++) {
+            assertSame(fallback, guarded.analyse("This is a good day"));
+        }
+        assertSame(fallback, guarded.analyse(Arrays.asList("good", "bad"), SentimentAnalysis.Language.English).get(1));
+        assertEquals(5, stub.getRequests());
+
+        stub.setHandler(IdolStub::analyse);
+        Thread.sleep(250);
+        assertEquals("positive", guarded.analyse("This is a good day").getAggregate().getSentiment());
+        assertEquals(CircuitBreaker.State.CLOSED, guarded.getBreaker().getState());
+        guarded.close();
+    }
+
+    @Test
+    public void hybridSendsOnlyUncertainOpinions() {
+        SentimentAnalysis hybrid = engine("idolOnDemand.engine", "hybrid");
+        assertEquals("neutral|0.0", hybrid.analyse("Reading the news on the train").getAggregate().toString());
+        assertEquals(0, stub.getRequests());
+
+        // the stub answers neutral to anything without "good" or "bad"
+        assertEquals("neutral|0.0", hybrid.analyse("Not happy, not sad").getAggregate().toString());
+        assertEquals(1, stub.getRequests());
+
+        List<SentimentResult> results = hybrid.analyse(
+                Arrays.asList("Lunch at noon", "good food but slow service", "Great people, amazing view"),
+                SentimentAnalysis.Language.English);
+        assertEquals("neutral", results.get(0).getAggregate().getSentiment());
+        assertEquals("positive|0.75", results.get(1).getAggregate().toString()); // from the stub
+        assertEquals("positive", results.get(2).getAggregate().getSentiment());
+        assertEquals(2, stub.getRequests());
+        assertEquals(3, hybrid.getLocalAnswers());
+        hybrid.close();
+    }
+
+    @Test
+    public void lexiconEngineRunsOffline() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("idolOnDemand.engine", "lexicon");
+        p.setProperty("idolOnDemand.url", "http://localhost:1/unreachable");
+        SentimentAnalysis offline = new SentimentAnalysis(p);
+        assertEquals("positive", offline.analyse("This is a good day").getAggregate().getSentiment());
+        assertNull(offline.analyse("iyi bir gün", SentimentAnalysis.Language.Turkish));
+        offline.close();
+    }
+
+    @Test
+    public void lexiconFallbackIsNotCached() {
+        stub.setHandler(request -> new IdolStub.Response(500, "{\"error\":5000}"));
+        SentimentAnalysis guarded = engine("idolOnDemand.breakerWindow", "2", "idolOnDemand.breakerOpenTime", "100",
+                "idolOnDemand.fallback", "lexicon", "idolOnDemand.cacheSize", "100");
+        guarded.analyse("a bad day");
+        guarded.analyse("a bad day");
+        assertEquals("negative|-0.6", guarded.analyse("a bad day").getAggregate().toString());
+        assertEquals(0, guarded.getCache().getSize());
+        guarded.close();
+    }
+
+    @Test
+    public void nearDuplicatesReuseResults() {
+        SentimentAnalysis reusing = engine("idolOnDemand.nearDuplicates", "100");
+        SentimentResult original = reusing.analyse("What a good day to learn about sentiment analysis");
+        assertSame(original, reusing.analyse("RT @lagunex: What a good day to learn about sentiment analysis!"));
+        assertSame(original, reusing.analyse(Arrays.asList("what a good day to learn about sentiment analysis @hp"),
+                SentimentAnalysis.Language.English).get(0));
+        assertNotSame(original, reusing.analyse("What a bad day to learn about sentiment analysis"));
+        assertEquals(2, stub.getRequests());
+        assertEquals(2, reusing.getNearDuplicates().getHits());
+        reusing.close();
+    }
+
+    @Test
+    public void metricsCountCallsErrorsAndBytes() throws Exception {
+        engine.analyse("This is a good day");
+        engine.analyse("Esto es un buen día", SentimentAnalysis.Language.Spanish);
+        engine.analyse("Unknown language", null);
+        stub.setHandler(request -> new IdolStub.Response(500, "{\"error\":5000}"));
+        engine.analyse("This is a good day");
+        stub.setHandler(request -> new IdolStub.Response(200, "not json"));
+        engine.analyse(Arrays.asList("good", "bad"), SentimentAnalysis.Language.English);
+
+        SentimentMetrics metrics = engine.getMetrics();
+        assertEquals(4, metrics.getRequests());
+        assertEquals(3, metrics.getLatency(SentimentAnalysis.Language.English).getCount());
+        assertEquals(1, metrics.getLatency(SentimentAnalysis.Language.Spanish).getCount());
+        assertEquals(1, metrics.getError(SentimentMetrics.Error.SERVER_ERROR));
+        assertEquals(1, metrics.getError(SentimentMetrics.Error.INVALID_RESPONSE));
+        assertEquals(3, metrics.getNullResults(SentimentMetrics.NullResult.API_ERROR));
+        assertEquals(1, metrics.getNullResults(SentimentMetrics.NullResult.UNSUPPORTED_LANGUAGE));
+        assertEquals(0, metrics.getInFlight());
+        assertTrue(metrics.getBytesSent() > 4 * stub.getUrl().length());
+        assertTrue(metrics.getBytesReceived() > 4 * "HTTP/1.1 200 OK".length());
+
+        // MXBean attributes must be convertible to open types
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.lagunex.nlp:type=SentimentMetrics,name=test");
+        server.registerMBean(metrics, name);
+        assertEquals(4L, server.getAttribute(name, "Requests"));
+        assertNotNull(server.getAttribute(name, "Errors"));
+        assertNotNull(server.getAttribute(name, "LatencyP99Millis"));
+        server.unregisterMBean(name);
+        LOGGER.info(metrics.getSummary());
+    }
+
+    @Test
+    public void clientErrorsDoNotOpenBreaker() {
+        stub.setHandler(request -> new IdolStub.Response(400, "{\"error\":4005}"));
+        for (int i = 0; i < 30; i++) {
+            assertNull(engine.analyse("This is a good day"));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, engine.getBreaker().getState());
+        assertEquals(30, stub.getRequests());
+    }
+}
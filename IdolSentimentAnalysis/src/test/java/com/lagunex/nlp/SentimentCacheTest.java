@@ -0,0 +1,166 @@
+package com.lagunex.nlp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SentimentCacheTest {
+    private static final SentimentAnalysis.Language EN = SentimentAnalysis.Language.English;
+
+    private Supplier<SentimentResult> loader(String sentiment, AtomicInteger calls) {
+        return () -> {
+            calls.incrementAndGet();
+            Aggregate aggregate = new Aggregate();
+            aggregate.setSentiment(sentiment);
+            aggregate.setScore(0.5);
+            SentimentResult result = new SentimentResult();
+            result.setAggregate(aggregate);
+            result.setPositive(new ArrayList<>());
+            result.setNegative(new ArrayList<>());
+            return result;
+        };
+    }
+
+    @Test
+    public void repeatedTextIsLoadedOnce() throws IOException {
+        SentimentCache cache = new SentimentCache(10, null);
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get("good day", EN, loader("positive", calls));
+        SentimentResult result = cache.get("good day", EN, loader("positive", calls));
+
+        assertEquals("positive", result.getAggregate().getSentiment());
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void languageIsPartOfTheKey() throws IOException {
+        SentimentCache cache = new SentimentCache(10, null);
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get("no", EN, loader("negative", calls));
+        cache.get("no", SentimentAnalysis.Language.Spanish, loader("negative", calls));
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedResultIsEvicted() throws IOException {
+        SentimentCache cache = new SentimentCache(2, null);
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get("a", EN, loader("neutral", calls));
+        cache.get("b", EN, loader("neutral", calls));
+        cache.get("a", EN, loader("neutral", calls)); // "b" is now the eldest
+        cache.get("c", EN, loader("neutral", calls));
+        cache.get("a", EN, loader("neutral", calls));
+
+        assertEquals(3, calls.get());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void nullResultsAreNotCached() throws IOException {
+        SentimentCache cache = new SentimentCache(10, null);
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<SentimentResult> failure = () -> {
+            calls.incrementAndGet();
+            return null;
+        };
+
+        assertNull(cache.get("a", EN, failure));
+        assertNull(cache.get("a", EN, failure));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void resultsSurviveBetweenRuns() throws IOException {
+        Path file = Files.createTempFile("sentiment", ".cache");
+        file.toFile().deleteOnExit();
+        AtomicInteger calls = new AtomicInteger();
+
+        SentimentCache firstRun = new SentimentCache(10, file);
+        firstRun.get("good day", EN, loader("positive", calls));
+        firstRun.get("bad day", EN, loader("negative", calls));
+        firstRun.close();
+
+        SentimentCache secondRun = new SentimentCache(10, file);
+        SentimentResult result = secondRun.get("bad day", EN, loader("wrong", calls));
+        secondRun.close();
+
+        assertEquals(2, calls.get());
+        assertEquals("negative", result.getAggregate().getSentiment());
+        assertEquals(0.5, result.getAggregate().getScore(), 0.0);
+        assertEquals(1, secondRun.getDiskHits());
+    }
+
+    @Test
+    public void entriesTooLongForTheIndexAreNotWrittenToDisk() throws IOException {
+        Path file = Files.createTempFile("sentiment", ".cache");
+        file.toFile().deleteOnExit();
+        AtomicInteger calls = new AtomicInteger();
+        char[] huge = new char[1 << 24];
+        Arrays.fill(huge, 'a');
+        String text = new String(huge);
+
+        SentimentCache firstRun = new SentimentCache(10, file);
+        firstRun.get(text, EN, loader("neutral", calls));
+        firstRun.get("bad day", EN, loader("negative", calls));
+        firstRun.close();
+        assertTrue(Files.size(file) < 1024);
+
+        SentimentCache secondRun = new SentimentCache(10, file);
+        SentimentResult result = secondRun.get("bad day", EN, loader("wrong", calls));
+        secondRun.get(text, EN, loader("neutral", calls));
+        secondRun.close();
+
+        assertEquals("negative", result.getAggregate().getSentiment());
+        assertEquals(3, calls.get());
+        assertEquals(1, secondRun.getDiskHits());
+    }
+
+    @Test
+    public void concurrentIdenticalRequestsShareOneCall() throws Exception {
+        SentimentCache cache = new SentimentCache(10, null);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<SentimentResult> slow = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            return loader("positive", calls).get();
+        };
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<SentimentResult>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(threads.submit(() -> cache.get("good day", EN, slow)));
+        }
+        while (cache.getCoalesced() < 7) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Future<SentimentResult> result : results) {
+            assertEquals("positive", result.get().getAggregate().getSentiment());
+        }
+        threads.shutdown();
+
+        assertEquals(1, calls.get());
+    }
+}
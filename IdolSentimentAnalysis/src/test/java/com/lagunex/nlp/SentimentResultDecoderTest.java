@@ -0,0 +1,73 @@
+package com.lagunex.nlp;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SentimentResultDecoderTest {
+    private static final String[] RESPONSES = {
+        IdolStub.sentimentJson("good day"),
+        IdolStub.sentimentJson("bad day"),
+        IdolStub.sentimentJson("neutral day"),
+        "{\"aggregate\":{\"score\":-0.12,\"sentiment\":\"mixed\"},"
+            + "\"negative\":[{\"sentiment\":\"hate\",\"topic\":\"monday\",\"score\":-0.9,\"documentIndex\":0},"
+            + "{\"sentiment\":\"sad\",\"topic\":null,\"score\":-1}],"
+            + "\"positive\":[{\"original_text\":\"love | fridays\",\"sentiment\":\"love\",\"topic\":\"fridays\","
+            + "\"score\":0.7765432198765432,\"normalized_text\":{\"nested\":[1,2,3]}}],"
+            + "\"extra\":[\"ignored\"]}",
+        "{\"positive\":[],\"negative\":[],\"aggregate\":{\"sentiment\":\"positivo\",\"score\":1E-5}}"
+    };
+
+    private final SentimentResultDecoder decoder = new SentimentResultDecoder();
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // same format as Main.printResult
+    private String print(String id, SentimentResult result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s%c%s%n", id, '|', result.getAggregate()));
+        result.getPositive().forEach(s -> sb.append(String.format("%s%c%s%n", id, '|', s)));
+        result.getNegative().forEach(s -> sb.append(String.format("%s%c%s%n", id, '|', s)));
+        return sb.toString();
+    }
+
+    @Test
+    public void decodeMatchesDatabind() throws IOException {
+        for (String json : RESPONSES) {
+            SentimentResult expected = mapper.readValue(json, SentimentResult.class);
+            SentimentResult actual = decoder.decode(stream(json));
+            assertEquals(print("1", expected), print("1", actual));
+        }
+    }
+
+    @Test
+    public void aggregateLabelsAreShared() throws IOException {
+        SentimentResult a = decoder.decode(stream(IdolStub.sentimentJson("good")));
+        SentimentResult b = decoder.decode(stream(IdolStub.sentimentJson("good")));
+        assertSame(a.getAggregate().getSentiment(), b.getAggregate().getSentiment());
+    }
+
+    @Test
+    public void decodeBatch() throws IOException {
+        String json = "{\"sentiment_analysis\":[" + RESPONSES[0] + "," + RESPONSES[3] + "]}";
+        List<SentimentResult> results = decoder.decodeBatch(stream(json));
+        assertEquals(2, results.size());
+        assertEquals(print("1", mapper.readValue(RESPONSES[0], SentimentResult.class)), print("1", results.get(0)));
+        assertEquals(print("1", mapper.readValue(RESPONSES[3], SentimentResult.class)), print("1", results.get(1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidResponse() throws IOException {
+        decoder.decode(stream("[1,2,3]"));
+    }
+}
@@ -0,0 +1,136 @@
+package com.lagunex.nlp;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ShardCoordinatorTest {
+    private final List<AnalysisServer> servers = new ArrayList<>();
+
+    // texts with an even number get a positive sentiment, so their results have two lines, and a topic with
+    // an escaped separator. Texts with a number multiple of 7 get no aggregate, printed as "id|null"
+    private SentimentResult result(String text) {
+        Aggregate aggregate = new Aggregate();
+        aggregate.setSentiment(text);
+        aggregate.setScore(0.5);
+        SentimentResult result = new SentimentResult();
+        result.setAggregate(Integer.parseInt(text.substring(4)) % 7 == 0 ? null : aggregate);
+        result.setNegative(Collections.emptyList());
+        if (Integer.parseInt(text.substring(4)) % 2 == 0) {
+            Sentiment sentiment = new Sentiment();
+            sentiment.setSentiment("good");
+            sentiment.setTopic(text + " | more");
+            sentiment.setScore(0.5);
+            result.setPositive(Collections.singletonList(sentiment));
+        } else {
+            result.setPositive(Collections.emptyList());
+        }
+        return result;
+    }
+
+    private InetSocketAddress start(BiFunction<List<String>, SentimentAnalysis.Language, List<SentimentResult>> analyser)
+            throws IOException {
+        AnalysisServer server = new AnalysisServer(0, analyser, 2, 3);
+        servers.add(server);
+        CompletableFuture.runAsync(server::serve);
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    private InetSocketAddress start() throws IOException {
+        return start((texts, lang) -> texts.stream().map(this::result).collect(Collectors.toList()));
+    }
+
+    @After
+    public void stopServers() {
+        servers.forEach(AnalysisServer::close);
+    }
+
+    private List<String> lines(int n) {
+        return IntStream.range(0, n)
+                .mapToObj(i -> i + "|text" + i + "|" + (i % 10 == 9 ? "xx" : "en"))
+                .collect(Collectors.toList());
+    }
+
+    // the output of the lines analysed by a single process
+    private List<String> expected(List<String> lines) {
+        StringWriter output = new StringWriter();
+        PrintWriter out = new PrintWriter(output);
+        for (String line : lines) {
+            String[] tokens = line.split("\\|");
+            Main.printResult(out, tokens[0], tokens[2].equals("xx") ? null : result(tokens[1]));
+        }
+        out.flush();
+        List<String> written = new ArrayList<>(Arrays.asList(output.toString().split(System.lineSeparator(), -1)));
+        written.remove(written.size() - 1); // after the last line separator
+        return written;
+    }
+
+    private List<String> process(ShardCoordinator coordinator, List<String> lines) {
+        Iterator<String> input = lines.iterator();
+        List<String> output = new ArrayList<>();
+        coordinator.process(() -> input.hasNext() ? input.next() : null, () -> true, output::addAll);
+        return output;
+    }
+
+    @Test
+    public void outputIsMergedInInputOrder() throws IOException {
+        List<String> lines = lines(500);
+        try (ShardCoordinator coordinator = new ShardCoordinator(Arrays.asList(start(), start(), start()))) {
+            assertEquals(expected(lines), process(coordinator, lines));
+            assertEquals(3, coordinator.getAlive());
+            assertEquals(500, coordinator.getLines(0) + coordinator.getLines(1) + coordinator.getLines(2));
+            assertTrue(coordinator.getLines(0) > 0 && coordinator.getLines(1) > 0 && coordinator.getLines(2) > 0);
+        }
+    }
+
+    @Test
+    public void workOfFailedWorkersIsReassigned() throws IOException {
+        AtomicInteger analysed = new AtomicInteger();
+        InetSocketAddress failing = start((texts, lang) -> {
+            if (analysed.addAndGet(texts.size()) > 30) {
+                throw new IllegalStateException("worker down");
+            }
+            return texts.stream().map(this::result).collect(Collectors.toList());
+        });
+        int unreachable;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            unreachable = socket.getLocalPort();
+        }
+
+        List<String> lines = lines(500);
+        try (ShardCoordinator coordinator = new ShardCoordinator(Arrays.asList(
+                start(), failing, new InetSocketAddress(InetAddress.getLoopbackAddress(), unreachable)), 5000)) {
+            assertEquals(expected(lines), process(coordinator, lines));
+            assertEquals(1, coordinator.getAlive());
+            assertTrue(coordinator.getReassigned(1) > 0);
+            assertTrue(coordinator.getLines(2) > 0);
+            assertEquals(0, coordinator.getReassigned(2)); // never sent to its worker, it was down from the start
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsWhenEveryWorkerFails() throws IOException {
+        InetSocketAddress failing = start((texts, lang) -> {
+            throw new IllegalStateException("worker down");
+        });
+        try (ShardCoordinator coordinator = new ShardCoordinator(Collections.singletonList(failing), 5000)) {
+            process(coordinator, lines(10));
+        }
+    }
+}
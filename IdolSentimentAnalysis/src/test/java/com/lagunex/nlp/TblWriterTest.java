@@ -0,0 +1,109 @@
+package com.lagunex.nlp;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TblWriterTest {
+
+    private SentimentResult result(String aggregate, double score, String... positive) {
+        Aggregate agg = new Aggregate();
+        agg.setSentiment(aggregate);
+        agg.setScore(score);
+        SentimentResult result = new SentimentResult();
+        result.setAggregate(agg);
+        result.setPositive(Collections.emptyList());
+        result.setNegative(Collections.emptyList());
+        if (positive.length > 0) {
+            Sentiment sentiment = new Sentiment();
+            sentiment.setSentiment(positive[0]);
+            sentiment.setTopic(positive[1]);
+            sentiment.setScore(score);
+            result.setPositive(Collections.singletonList(sentiment));
+        }
+        return result;
+    }
+
+    @Test
+    public void resultsAreJoinedWithTheirRecordsById() throws IOException {
+        Path dir = Files.createTempDirectory("tbl");
+        try (TblWriter writer = new TblWriter(dir, StandardCharsets.UTF_8)) {
+            writer.addRecord("1|Best moment \\| ever|en|2015-02-02T04:59:30");
+            writer.addRecord("2|Spam|en|2015-02-02T05:00:00");
+            writer.addRecord("3|Neutral|en|2015-02-02T05:01:00");
+            writer.addRecord("3|Neutral again|en|2015-02-02T05:02:00");
+
+            writer.write("2", null);
+            writer.write("1", result("positive", 0.8, "Best", "moment"));
+            writer.write("3", result("neutral", 0.0));
+            writer.write("4", result("neutral", 0.0));
+            assertEquals(1, writer.getUnmatched());
+            assertEquals(1, writer.getPending());
+            writer.write("3", result("negative", -0.5));
+            assertEquals(0, writer.getPending());
+        }
+
+        assertEquals(Arrays.asList(
+                "2|Spam|en|2015-02-02T05:00:00",
+                "1|Best moment \\| ever|en|2015-02-02T04:59:30|positive|0.8",
+                "3|Neutral|en|2015-02-02T05:01:00|neutral|0.0",
+                "3|Neutral again|en|2015-02-02T05:02:00|negative|-0.5"),
+                Files.readAllLines(dir.resolve(TblWriter.TWEET_FILE), StandardCharsets.UTF_8));
+        assertEquals(Collections.singletonList("1|Best|moment|0.8"),
+                Files.readAllLines(dir.resolve(TblWriter.SENTIMENT_FILE), StandardCharsets.UTF_8));
+
+        Files.delete(dir.resolve(TblWriter.TWEET_FILE));
+        Files.delete(dir.resolve(TblWriter.SENTIMENT_FILE));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void resultWithoutAggregateKeepsTheRecord() throws IOException {
+        Path dir = Files.createTempDirectory("tbl");
+        try (TblWriter writer = new TblWriter(dir, StandardCharsets.UTF_8)) {
+            writer.addRecord("1|Best moment|en|2015-02-02T04:59:30");
+            SentimentResult result = result("positive", 0.8, "Best", "moment");
+            result.setAggregate(null);
+            writer.write("1", result);
+        }
+
+        assertEquals(Collections.singletonList("1|Best moment|en|2015-02-02T04:59:30"),
+                Files.readAllLines(dir.resolve(TblWriter.TWEET_FILE), StandardCharsets.UTF_8));
+        assertEquals(Collections.singletonList("1|Best|moment|0.8"),
+                Files.readAllLines(dir.resolve(TblWriter.SENTIMENT_FILE), StandardCharsets.UTF_8));
+
+        Files.delete(dir.resolve(TblWriter.TWEET_FILE));
+        Files.delete(dir.resolve(TblWriter.SENTIMENT_FILE));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void sentimentsKeepOneLineAndFourColumns() throws IOException {
+        Path dir = Files.createTempDirectory("tbl");
+        try (TblWriter writer = new TblWriter(dir, StandardCharsets.UTF_8)) {
+            writer.addRecord("1|Best \\| moment\\never|en|2015-02-02T04:59:30");
+            writer.write("1", result("positive", 0.8, "Best | moment\never", "moment\n"));
+        }
+
+        assertEquals(Collections.singletonList("1|Best \\| moment\\never|moment\\n|0.8"),
+                Files.readAllLines(dir.resolve(TblWriter.SENTIMENT_FILE), StandardCharsets.UTF_8));
+
+        StringWriter printed = new StringWriter();
+        try (PrintWriter out = new PrintWriter(printed)) {
+            Main.printResult(out, "1", result("positive", 0.8, "Best | moment\never", "moment\n"));
+        }
+        assertEquals(Arrays.asList("1|positive|0.8", "1|Best \\| moment\\never|moment\\n|0.8"),
+                Arrays.asList(printed.toString().split(System.lineSeparator())));
+
+        Files.delete(dir.resolve(TblWriter.TWEET_FILE));
+        Files.delete(dir.resolve(TblWriter.SENTIMENT_FILE));
+        Files.delete(dir);
+    }
+}
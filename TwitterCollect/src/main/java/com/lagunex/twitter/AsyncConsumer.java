@@ -0,0 +1,94 @@
+package com.lagunex.twitter;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Consumer that hands its items to another consumer running in its own thread through a bounded queue,
+ * so the caller, e.g. the pagination loop of TwitterClient, does not wait while the items are formatted
+ * and written. accept() only blocks when the queue is full.
+ *
+ * Items are consumed in the order they are accepted. A failure of the downstream consumer is rethrown
+ * once, by the next accept() or by close(), which waits until every item is consumed.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class AsyncConsumer<T> implements Consumer<T>, Closeable {
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+    private volatile RuntimeException failure;
+    private boolean reported;
+
+    /**
+     *
+     * @param downstream consumer called in the thread of this instance
+     * @param capacity maximum number of items waiting to be consumed
+     */
+    public AsyncConsumer(Consumer<T> downstream, int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+        thread = new Thread(() -> consume(downstream), "async-consumer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void consume(Consumer<T> downstream) {
+        try {
+            for (Object item = queue.take(); item != END; item = queue.take()) {
+                if (failure == null) { // after a failure, items are dropped until the producer notices it
+                    try {
+                        downstream.accept((T) item);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void accept(T item) {
+        if (reported) {
+            throw new IllegalStateException("The consumer failed", failure);
+        }
+        checkFailure();
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null && !reported) {
+            reported = true;
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits until every item accepted is consumed
+     *
+     * @throws RuntimeException the failure of the downstream consumer, if any
+     */
+    @Override
+    public void close() {
+        if (thread.isAlive()) {
+            try {
+                queue.put(END);
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        checkFailure();
+    }
+}
@@ -0,0 +1,248 @@
+package com.lagunex.twitter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+
+/**
+ * Collects the new tweets of several queries until it is stopped, polling each query with searchSince
+ * from the highest id collected so far.
+ *
+ * The interval of each query adapts to its rate of tweets, so that a poll finds about one page of them:
+ * it shrinks down to minInterval for busy queries and doubles, up to maxInterval, after polls that find
+ * little. After every round of polls the output is flushed and a CollectorCheckpoint is written to the
+ * directory of the output, so a collector started on the same directory continues where the last one
+ * stopped, or died, without losing or repeating tweets. The tweets of a poll are kept in memory until the
+ * poll succeeds, so a poll that fails halfway writes nothing and the next one finds them all again.
+ *
+ * A poll retrieves at most maxPollResults tweets. The search API returns the newest tweets first, so when a
+ * query has more new tweets than that, e.g. after an outage, the ids between its sinceId and the oldest tweet
+ * found are a gap that the next rounds fill, one poll at a time, before sinceId moves past the newest tweet.
+ * The gap is part of the checkpoint, and memory stays bounded however long the collector was stopped.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class Collector {
+    private static final Logger LOGGER = Logger.getLogger(Collector.class.getName());
+    public static final String CHECKPOINT = "collector.checkpoint";
+    // tweets a poll should find, one page of the search API
+    static final int TARGET_TWEETS = 100;
+    public static final int DEFAULT_MAX_POLL_RESULTS = 1000;
+
+    private final TwitterClient client;
+    private final PartitionedOutput files;
+    private final Path checkpointFile;
+    private final CollectorCheckpoint checkpoint;
+    private final List<Poll> polls = new ArrayList<>();
+    private Consumer<Tweet> output;
+    private int firstResults = 100;
+    private int maxPollResults = DEFAULT_MAX_POLL_RESULTS;
+    private volatile boolean stopped;
+
+    /**
+     * Reads the checkpoint of dir and recovers the file that was being written
+     *
+     * @param client
+     * @param queries
+     * @param dir directory of files and of the checkpoint
+     * @param files output to dir
+     * @param minInterval milliseconds
+     * @param maxInterval milliseconds
+     * @throws IOException
+     */
+    public Collector(TwitterClient client, List<String> queries, Path dir, PartitionedOutput files,
+            long minInterval, long maxInterval) throws IOException {
+        this.client = client;
+        this.files = files;
+        this.output = files;
+        checkpointFile = dir.resolve(CHECKPOINT);
+        checkpoint = CollectorCheckpoint.read(checkpointFile);
+        files.recover(checkpoint.getPart(), checkpoint.getPartSize());
+        for (String query : queries) {
+            Poll poll = new Poll(query, checkpoint.getSinceId(query), minInterval, maxInterval);
+            poll.maxId = checkpoint.getMaxId(query);
+            poll.newestId = poll.maxId > 0 ? checkpoint.getNewestId(query) : poll.sinceId;
+            polls.add(poll);
+        }
+    }
+
+    /**
+     * Sets the id after which the queries without checkpoint are collected
+     *
+     * @param sinceId
+     */
+    public void setSinceId(long sinceId) {
+        polls.stream().filter(poll -> poll.sinceId == 0).forEach(poll -> poll.sinceId = poll.newestId = sinceId);
+    }
+
+    /**
+     *
+     * @param maxPollResults maximum number of tweets of a poll of a query with sinceId
+     */
+    public void setMaxPollResults(int maxPollResults) {
+        this.maxPollResults = maxPollResults;
+    }
+
+    /**
+     *
+     * @param firstResults maximum number of tweets of the first poll of a query without sinceId
+     */
+    public void setFirstResults(int firstResults) {
+        this.firstResults = firstResults;
+    }
+
+    /**
+     *
+     * @param filter wraps the output, e.g. TweetIdFilter.filter
+     */
+    public void setFilter(UnaryOperator<Consumer<Tweet>> filter) {
+        output = filter.apply(files);
+    }
+
+    /**
+     * Polls the queries when they are due until stop() is called, then finishes the output
+     *
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        while (!stopped) {
+            round();
+            long next = polls.stream().mapToLong(poll -> poll.nextAt).min().orElse(Long.MAX_VALUE);
+            synchronized (this) {
+                long delay = next - System.currentTimeMillis();
+                if (delay > 0 && !stopped) {
+                    try {
+                        wait(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        stopped = true;
+                    }
+                }
+            }
+        }
+        files.close();
+    }
+
+    /**
+     * Makes run() return after the poll in progress
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    // polls the queries that are due and checkpoints what they found
+    void round() throws IOException {
+        for (Poll poll : polls) {
+            if (!stopped && poll.nextAt <= System.currentTimeMillis()) {
+                poll(poll);
+            }
+        }
+        files.flush();
+        checkpoint.setPart(files.getPart(), files.getSize());
+        for (Poll poll : polls) {
+            checkpoint.setSinceId(poll.query, poll.sinceId);
+            checkpoint.setGap(poll.query, poll.maxId, poll.newestId);
+        }
+        checkpoint.write(checkpointFile);
+        files.rollIfDue();
+    }
+
+    private void poll(Poll poll) {
+        long start = System.currentTimeMillis();
+        List<Tweet> found = new ArrayList<>();
+        boolean first = poll.sinceId == 0;
+        try {
+            client.setMaxResults(first ? firstResults : maxPollResults);
+            if (poll.maxId > 0) {
+                client.searchBetween(poll.query, poll.sinceId, poll.maxId, found::add); // fills the gap
+            } else if (!first) {
+                client.searchSince(poll.query, poll.sinceId, found::add);
+            } else {
+                client.search(poll.query, found::add);
+            }
+        } catch (RuntimeException e) {
+            // nothing was written, the next poll searches the same tweets again
+            poll.nextAt = start + poll.interval;
+            LOGGER.warning(String.format("%s: poll failed, retrying in %d s: %s", poll.query, poll.interval / 1000, e));
+            return;
+        }
+        for (Tweet tweet : found) {
+            output.accept(tweet);
+        }
+        poll.collected(found, first || found.size() < maxPollResults, start);
+        if (poll.maxId > 0) {
+            LOGGER.info(String.format("%s: %d tweets, catching up from id %d", poll.query, found.size(), poll.maxId));
+        } else {
+            LOGGER.info(String.format("%s: %d tweets, next poll in %d s", poll.query, found.size(), poll.interval / 1000));
+        }
+    }
+
+    /**
+     * A query, the highest id collected and when it is polled next
+     */
+    static class Poll {
+        final String query;
+        final long minInterval, maxInterval;
+        long sinceId;
+        long maxId; // the tweets in (sinceId, maxId] are still to be collected, 0 if there are none
+        long newestId; // highest id collected
+        int caughtUp; // tweets found by the polls that filled the gap
+        long interval;
+        long nextAt;
+        long lastPollAt;
+        double rate = -1; // tweets per millisecond, unknown until the second poll
+
+        Poll(String query, long sinceId, long minInterval, long maxInterval) {
+            this.query = query;
+            this.sinceId = sinceId;
+            this.newestId = sinceId;
+            this.minInterval = minInterval;
+            this.maxInterval = maxInterval;
+            interval = minInterval;
+        }
+
+        /**
+         * Moves past the tweets found, newest first, and schedules the next poll
+         *
+         * @param found
+         * @param complete true if no tweet is left below the oldest one found
+         * @param now
+         */
+        void collected(List<Tweet> found, boolean complete, long now) {
+            long oldestId = Long.MAX_VALUE;
+            for (Tweet tweet : found) {
+                newestId = Math.max(newestId, tweet.getId());
+                oldestId = Math.min(oldestId, tweet.getId());
+            }
+            if (complete) {
+                sinceId = newestId;
+                maxId = 0;
+                adapt(found.size() + caughtUp, now);
+                caughtUp = 0;
+            } else {
+                maxId = oldestId - 1;
+                caughtUp += found.size();
+                nextAt = now; // the gap is filled in the next rounds
+            }
+        }
+
+        // schedules the next poll from the tweets found since the previous one
+        void adapt(int found, long now) {
+            if (lastPollAt > 0 && now > lastPollAt) {
+                double observed = found / (double) (now - lastPollAt);
+                rate = rate < 0 ? observed : (rate + observed) / 2;
+            }
+            lastPollAt = now;
+            if (rate >= 0) {
+                long target = rate > 0 ? (long) (TARGET_TWEETS / rate) : Long.MAX_VALUE;
+                interval = Math.max(minInterval, Math.min(target, Math.min(maxInterval, interval * 2)));
+            }
+            nextAt = now + interval;
+        }
+    }
+}
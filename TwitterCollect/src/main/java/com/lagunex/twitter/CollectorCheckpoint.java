@@ -0,0 +1,151 @@
+package com.lagunex.twitter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * State of a Collector that was completely written: the highest tweet id collected for each query,
+ * the ids of each query that are still being caught up with, and the output file that was being written
+ * with its size at that moment.
+ *
+ * The checkpoint is a properties file that is replaced atomically, so a collector that dies while
+ * writing it leaves the previous checkpoint intact.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class CollectorCheckpoint {
+    private static final String SINCE_ID = "sinceId.";
+    private static final String MAX_ID = "maxId.";
+    private static final String NEWEST_ID = "newestId.";
+    private static final String PART = "part";
+    private static final String PART_SIZE = "partSize";
+
+    private final Properties properties = new Properties();
+
+    /**
+     *
+     * @param file
+     * @return the checkpoint saved in file or an empty one if file does not exist
+     * @throws IOException if file cannot be read or is not a valid checkpoint
+     */
+    public static CollectorCheckpoint read(Path file) throws IOException {
+        CollectorCheckpoint checkpoint = new CollectorCheckpoint();
+        try (InputStream in = Files.newInputStream(file)) {
+            checkpoint.properties.load(in);
+        } catch (NoSuchFileException ex) {
+            return checkpoint;
+        }
+        try {
+            for (String key : checkpoint.properties.stringPropertyNames()) {
+                if (key.startsWith(SINCE_ID) || key.startsWith(MAX_ID) || key.startsWith(NEWEST_ID)) {
+                    Long.parseLong(checkpoint.properties.getProperty(key));
+                }
+            }
+            checkpoint.getPartSize();
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid checkpoint " + file + ": " + ex.getMessage(), ex);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Saves the checkpoint in file. The content is synced to disk in a temporary file
+     * that then replaces file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     *
+     * @param query
+     * @return highest id collected for query, or 0 if it was never collected
+     */
+    public long getSinceId(String query) {
+        return Long.parseLong(properties.getProperty(SINCE_ID + query, "0"));
+    }
+
+    public void setSinceId(String query, long sinceId) {
+        properties.setProperty(SINCE_ID + query, Long.toString(sinceId));
+    }
+
+    /**
+     *
+     * @param query
+     * @return the tweets of query in (getSinceId(), getMaxId()] are still to be collected, 0 if there are none
+     */
+    public long getMaxId(String query) {
+        return Long.parseLong(properties.getProperty(MAX_ID + query, "0"));
+    }
+
+    /**
+     *
+     * @param query
+     * @return highest id collected for query above getMaxId(), or 0 if there are no tweets to be collected
+     */
+    public long getNewestId(String query) {
+        return Long.parseLong(properties.getProperty(NEWEST_ID + query, "0"));
+    }
+
+    /**
+     * Records the tweets of query that are still to be collected
+     *
+     * @param query
+     * @param maxId see getMaxId(), 0 if there are none
+     * @param newestId see getNewestId()
+     */
+    public void setGap(String query, long maxId, long newestId) {
+        if (maxId == 0) {
+            properties.remove(MAX_ID + query);
+            properties.remove(NEWEST_ID + query);
+        } else {
+            properties.setProperty(MAX_ID + query, Long.toString(maxId));
+            properties.setProperty(NEWEST_ID + query, Long.toString(newestId));
+        }
+    }
+
+    /**
+     *
+     * @return name of the output file being written, or null
+     */
+    public String getPart() {
+        return properties.getProperty(PART);
+    }
+
+    /**
+     *
+     * @return bytes of getPart() that were written
+     */
+    public long getPartSize() {
+        return Long.parseLong(properties.getProperty(PART_SIZE, "0"));
+    }
+
+    public void setPart(String part, long partSize) {
+        if (part == null) {
+            properties.remove(PART);
+            properties.remove(PART_SIZE);
+        } else {
+            properties.setProperty(PART, part);
+            properties.setProperty(PART_SIZE, Long.toString(partSize));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+}
@@ -1,9 +1,25 @@
 package com.lagunex.twitter;
 
+import com.lagunex.util.BinaryRecordWriter;
+import com.lagunex.util.RecordCodec;
 import com.lagunex.util.StringUtils;
+import com.lagunex.util.TweetRecord;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 // external dependencies to process command line arguments
 import org.apache.commons.cli.BasicParser;
@@ -17,18 +33,55 @@ import org.apache.commons.cli.ParseException;
  * CLI Application to search for tweets.
  * Run with -h or --help for details
  * 
+ * Several queries can be given at once. They are searched concurrently by -c threads that share the
+ * rate limit of the application (see TwitterClient), and their tweets are merged into the same output.
+ * 
+ * With -f the tweets created from that date (and until -t or now) are backfilled instead: the window is split
+ * into -p ranges of tweet ids that are searched in parallel, and the tweets are written newest first.
+ * 
+ * With -d the tweets already written, in this run or in the previous ones that used the same file,
+ * are skipped (see TweetIdFilter).
+ * 
+ * With -D the application runs until it is stopped, collecting the new tweets of the queries into the files
+ * of a directory (see Collector and PartitionedOutput).
+ * 
+ * With -S the tweets of the queries are received from Twitter's streaming API as they are posted, until the
+ * application is stopped, and with -R they are replayed from a file instead (see PushSource).
+ * 
  * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
  */
 public class Main {
+    private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
+
     private final String DEFAULT_QUERY = "$HPQ";
     private final int DEFAULT_NUMBER = 100;
+    private final int DEFAULT_CONCURRENCY = 4;
+    private final int DEFAULT_SLICES = 16;
+    private final int WRITER_QUEUE_SIZE = 1000;
+    private final int DEFAULT_ROTATE_MB = 64;
+    private final int DEFAULT_INTERVAL = 60;
+    private final long MAX_INTERVAL = 15 * 60 * 1000; // a rate limit window
+    private final long SHUTDOWN_TIMEOUT = 60 * 1000;
+    private final double DEFAULT_REPLAY_RATE = 1000;
 
-    private final String query;
+    private final List<String> queries;
+    private final int concurrency;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+    private final int slices;
     private final int number;
     private final PrintWriter output;
+    private final BinaryRecordWriter binary;
+    private final Path dedupFile;
+    private final TweetIdFilter dedup;
+    private final Collector collector;
+    private final PushSource source;
     private final TwitterClient client;
     private final long sinceId;
     private final long maxId;
+    private final RecordCodec codec = new RecordCodec();
+    private final StringBuilder line = new StringBuilder(256);
+    private final TweetRecord record = new TweetRecord();
     
     /**
      * Entry poing of the application
@@ -37,7 +90,13 @@ public class Main {
      */
     public static void main(String[] args) {
         Main main = new Main(args);
-        main.queryTwitter();
+        if (main.collector != null) {
+            main.collect();
+        } else if (main.source != null) {
+            main.stream();
+        } else {
+            main.queryTwitter();
+        }
         main.closeResources();
     }
 
@@ -47,11 +106,23 @@ public class Main {
         maxId = cli.hasOption('u') ? Long.parseLong(cli.getOptionValue('u')) : 0L;
 
         number = cli.hasOption('n') ? Integer.parseInt(cli.getOptionValue('n')) : DEFAULT_NUMBER;
-        query = (cli.getArgs().length == 1) ? cli.getArgs()[cli.getArgs().length-1] : DEFAULT_QUERY;
-        output = getPrintWriter(cli);
+        queries = (cli.getArgs().length > 0) ? Arrays.asList(cli.getArgs()) : Collections.singletonList(DEFAULT_QUERY);
+        concurrency = cli.hasOption('c') ? Integer.parseInt(cli.getOptionValue('c')) : DEFAULT_CONCURRENCY;
+        from = cli.hasOption('f') ? LocalDateTime.parse(cli.getOptionValue('f'), StringUtils.DATE_TIME_FORMATTER) : null;
+        to = cli.hasOption('t') ? LocalDateTime.parse(cli.getOptionValue('t'), StringUtils.DATE_TIME_FORMATTER) :
+                LocalDateTime.now(ZoneOffset.UTC);
+        slices = cli.hasOption('p') ? Integer.parseInt(cli.getOptionValue('p')) : DEFAULT_SLICES;
+        dedupFile = cli.hasOption('d') ? Paths.get(cli.getOptionValue('d')) : null;
+        dedup = dedupFile != null ? getTweetIdFilter(cli) : null;
+        binary = cli.hasOption('B') && !cli.hasOption('D') ? getBinaryWriter(cli) : null;
+        output = binary == null && !cli.hasOption('D') ? getPrintWriter(cli) : null;
 
-        client = TwitterClient.getInstance();
-        client.setMaxResults(number);
+        source = cli.hasOption('S') || cli.hasOption('R') ? getPushSource(cli) : null;
+        client = source == null ? TwitterClient.getInstance() : null;
+        if (client != null) {
+            client.setMaxResults(number);
+        }
+        collector = cli.hasOption('D') ? getCollector(cli) : null;
     }
 
     private CommandLine parseOptions(Options cliOptions, String[] args) {
@@ -59,13 +130,48 @@ public class Main {
         CommandLine cli = null;
         try {
             cli = parser.parse(cliOptions, args);
-            if (cli.hasOption("h") || cli.getArgs().length > 1) {
+            if (cli.hasOption("h")) {
                 printHelpAndExit(cliOptions,0);
             } else if (cli.hasOption('s') && cli.hasOption('u')) {
                 System.err.println("Cannot specified both --since and --until");
                 printHelpAndExit(cliOptions, -1);
+            } else if (cli.hasOption('c') && Integer.parseInt(cli.getOptionValue('c')) < 1) {
+                System.err.println("--concurrency must be at least 1");
+                printHelpAndExit(cliOptions, -1);
+            } else if (cli.hasOption('f') && (cli.hasOption('s') || cli.hasOption('u'))) {
+                System.err.println("--from cannot be used with --since or --until");
+                printHelpAndExit(cliOptions, -1);
+            } else if ((cli.hasOption('t') || cli.hasOption('p')) && !cli.hasOption('f')) {
+                System.err.println("--to and --slices require --from");
+                printHelpAndExit(cliOptions, -1);
+            } else if (cli.hasOption('m') && (!cli.hasOption('d') || Integer.parseInt(cli.getOptionValue('m')) < 2)) {
+                System.err.println("--max-ids requires --dedup and must be at least 2");
+                printHelpAndExit(cliOptions, -1);
+            } else if (cli.hasOption('D') && (cli.hasOption('o') || cli.hasOption('u') || cli.hasOption('f'))) {
+                System.err.println("--daemon cannot be used with --output, --until or --from");
+                printHelpAndExit(cliOptions, -1);
+            } else if ((cli.hasOption('r') || cli.hasOption('i')) && !cli.hasOption('D')) {
+                System.err.println("--rotate and --interval require --daemon");
+                printHelpAndExit(cliOptions, -1);
+            } else if ((cli.hasOption('r') && Integer.parseInt(cli.getOptionValue('r')) < 1) ||
+                    (cli.hasOption('i') && Integer.parseInt(cli.getOptionValue('i')) < 1)) {
+                System.err.println("--rotate and --interval must be at least 1");
+                printHelpAndExit(cliOptions, -1);
+            } else if ((cli.hasOption('S') || cli.hasOption('R')) && (cli.hasOption('S') == cli.hasOption('R') ||
+                    cli.hasOption('s') || cli.hasOption('u') || cli.hasOption('f') || cli.hasOption('D'))) {
+                System.err.println("Use either --stream or --replay, without --since, --until, --from or --daemon");
+                printHelpAndExit(cliOptions, -1);
+            } else if (cli.hasOption('e') && (!cli.hasOption('R') || Double.parseDouble(cli.getOptionValue('e')) <= 0)) {
+                System.err.println("--rate requires --replay and must be positive");
+                printHelpAndExit(cliOptions, -1);
+            } else if (cli.hasOption('p') && Integer.parseInt(cli.getOptionValue('p')) < 1) {
+                System.err.println("--slices must be at least 1");
+                printHelpAndExit(cliOptions, -1);
             }
-        } catch (ParseException ex) {
+            for (char date : new char[]{'f', 't'}) {
+                if (cli.hasOption(date)) LocalDateTime.parse(cli.getOptionValue(date), StringUtils.DATE_TIME_FORMATTER);
+            }
+        } catch (ParseException | NumberFormatException | DateTimeParseException ex) {
             System.err.println(ex.getMessage());
             printHelpAndExit(cliOptions,-1);
         }
@@ -77,7 +183,7 @@ public class Main {
         PrintWriter err = new PrintWriter(System.err);
         formatter.printHelp(err,
                 HelpFormatter.DEFAULT_WIDTH,
-                "java com.lagunex.twitter.Main [options] query","",
+                "java com.lagunex.twitter.Main [options] query...","",
                 options,
                 HelpFormatter.DEFAULT_LEFT_PAD,HelpFormatter.DEFAULT_DESC_PAD,
                 ""
@@ -90,9 +196,22 @@ public class Main {
     private Options getCliOptions() {
         Options options = new Options();
         options.addOption("o", "output", true, "Output file (default stdout)");
-        options.addOption("n", "numberOfTweets", true, "Maximum number of Tweets to retrieve");
+        options.addOption("n", "numberOfTweets", true, "Maximum number of Tweets to retrieve per query");
 		options.addOption("s", "since", true, "Search results since given tweet");
         options.addOption("u", "until", true, "Search results until given tweet");
+        options.addOption("c", "concurrency", true, "Number of queries or slices searched in parallel (default 4)");
+        options.addOption("f", "from", true, "Backfills the tweets created since 'yyyy-MM-dd HH:mm:ss' UTC, ignoring -n");
+        options.addOption("t", "to", true, "Backfills the tweets created before 'yyyy-MM-dd HH:mm:ss' UTC (default now)");
+        options.addOption("p", "slices", true, "Number of id ranges the backfill is split into (default 16)");
+        options.addOption("d", "dedup", true, "File with the ids of the tweets written so far, which are skipped");
+        options.addOption("m", "max-ids", true, "Maximum number of ids kept by --dedup, the oldest are forgotten (default 10000000)");
+        options.addOption("B", "binary", false, "Write binary tweet records instead of text lines");
+        options.addOption("D", "daemon", true, "Collects new tweets into hourly files of this directory until stopped");
+        options.addOption("r", "rotate", true, "Size in MB after which --daemon starts a new file (default 64)");
+        options.addOption("i", "interval", true, "Minimum seconds between polls of a query with --daemon (default 60)");
+        options.addOption("S", "stream", false, "Receives the tweets of the queries as they are posted until stopped");
+        options.addOption("R", "replay", true, "Replays the tweets of a tbl file as if they were streamed");
+        options.addOption("e", "rate", true, "Tweets per second replayed by --replay (default 1000)");
 
         options.addOption("h", "help", false, "Prints this message");
         return options;
@@ -118,29 +237,177 @@ public class Main {
         return pw;
     }
 
+    /**
+     * Returns a BinaryRecordWriter on stdout (default) or a filename if specified
+     * with -o option
+     * @param cli
+     * @return
+     */
+    private BinaryRecordWriter getBinaryWriter(CommandLine cli) {
+        try {
+            return new BinaryRecordWriter(cli.hasOption('o') ?
+                    new FileOutputStream(cli.getOptionValue('o')) : System.out);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns the filter with the ids saved in the file specified with -d option
+     * @param cli
+     * @return
+     */
+    private TweetIdFilter getTweetIdFilter(CommandLine cli) {
+        int maxIds = cli.hasOption('m') ? Integer.parseInt(cli.getOptionValue('m')) : TweetIdFilter.DEFAULT_MAX_IDS;
+        try {
+            return TweetIdFilter.load(dedupFile, maxIds);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns the collector of the directory specified with -D option
+     * @param cli
+     * @return
+     */
+    private Collector getCollector(CommandLine cli) {
+        Path dir = Paths.get(cli.getOptionValue('D'));
+        long rotateBytes = (cli.hasOption('r') ? Long.parseLong(cli.getOptionValue('r')) : DEFAULT_ROTATE_MB) << 20;
+        long interval = (cli.hasOption('i') ? Long.parseLong(cli.getOptionValue('i')) : DEFAULT_INTERVAL) * 1000;
+        try {
+            Files.createDirectories(dir);
+            Collector daemon = new Collector(client, queries, dir,
+                    new PartitionedOutput(dir, rotateBytes, cli.hasOption('B'), Clock.systemUTC()),
+                    interval, Math.max(interval, MAX_INTERVAL));
+            daemon.setSinceId(sinceId);
+            daemon.setFirstResults(number);
+            if (dedup != null) {
+                daemon.setFilter(dedup::filter);
+            }
+            return daemon;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns the stream of the queries, or the replay of the file specified with -R option
+     * @param cli
+     * @return
+     */
+    private PushSource getPushSource(CommandLine cli) {
+        if (cli.hasOption('R')) {
+            double rate = cli.hasOption('e') ? Double.parseDouble(cli.getOptionValue('e')) : DEFAULT_REPLAY_RATE;
+            return new ReplaySource(Paths.get(cli.getOptionValue('R')), rate, PushSource.DEFAULT_CAPACITY);
+        }
+        return new StreamSource(queries, PushSource.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Collects the new tweets of the queries until the process is stopped, e.g. with Ctrl+C. The files
+     * and the checkpoint are completed before the process ends
+     */
+    private void collect() {
+        stopOnShutdown(collector::stop);
+        try {
+            collector.run();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes the tweets pushed by the source until it finishes or the process is stopped
+     */
+    private void stream() {
+        stopOnShutdown(source::close);
+        source.run(getTweetWriter());
+    }
+
+    // lets this thread finish its work, for a while, when the process is stopped
+    private void stopOnShutdown(Runnable stop) {
+        Thread working = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stop.run();
+            try {
+                working.join(SHUTDOWN_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    /**
+     * Searches the queries and writes their tweets. Tweets are formatted and written by another thread,
+     * so the next pages are requested meanwhile
+     */
     private void queryTwitter() {
-        Consumer<Tweet> printTweetToOutput = tweet -> {
-            String singleLineMessage = StringUtils.collapseLines(tweet.getMessage());
-            output.println(
-                String.join(StringUtils.SEPARATOR, 
-                    String.valueOf(tweet.getId()),
-                    StringUtils.escape(singleLineMessage),
-                    tweet.getLanguage(),
-                    StringUtils.formatDateTime(tweet.getCreatedAt())
-                )
-            );
+        try (AsyncConsumer<Tweet> printTweetToOutput = new AsyncConsumer<>(getTweetWriter(), WRITER_QUEUE_SIZE)) {
+            search(printTweetToOutput);
+        }
+    }
+
+    // writes tweets to the output, skipping the ones already written with -d
+    private Consumer<Tweet> getTweetWriter() {
+        Consumer<Tweet> writeTweet = binary != null ? this::writeBinary : tweet -> {
+            line.setLength(0);
+            line.append(tweet.getId()).append(StringUtils.SEPARATOR);
+            codec.encode(tweet.getMessage(), line).append(StringUtils.SEPARATOR)
+                .append(tweet.getLanguage()).append(StringUtils.SEPARATOR)
+                .append(StringUtils.formatDateTime(tweet.getCreatedAt()));
+            output.println(line);
         };
         
-		if (sinceId > 0) {
-			client.searchSince(query, sinceId, printTweetToOutput);
+        return dedup != null ? dedup.filter(writeTweet) : writeTweet;
+    }
+
+    private void search(Consumer<Tweet> printTweetToOutput) {
+        if (from != null) {
+            queries.forEach(query -> client.backfill(query, from, to, slices, concurrency, printTweetToOutput));
+        } else if (queries.size() > 1) {
+            client.search(queries, sinceId, maxId, concurrency, printTweetToOutput);
+        } else if (sinceId > 0) {
+			client.searchSince(queries.get(0), sinceId, printTweetToOutput);
 		} else if (maxId > 0) {
-			client.searchUntil(query, maxId, printTweetToOutput);
+			client.searchUntil(queries.get(0), maxId, printTweetToOutput);
 		} else {
-			client.search(query, printTweetToOutput);
+			client.search(queries.get(0), printTweetToOutput);
 		}
     }
 
+    private void writeBinary(Tweet tweet) {
+        record.setId(tweet.getId())
+              .setMessage(tweet.getMessage())
+              .setLanguage(tweet.getLanguage())
+              .setCreatedAt(tweet.getCreatedAt());
+        try {
+            binary.write(record);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
     private void closeResources() {
+        if (dedup != null) {
+            try {
+                dedup.save(dedupFile);
+                LOGGER.info("Tweet ids " + dedup);
+            } catch (IOException ex) {
+                LOGGER.severe("Cannot save the tweet ids: " + ex.getMessage());
+            }
+        }
+        if (binary != null) {
+            try {
+                binary.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return;
+        }
+        if (output == null) {
+            return;
+        }
         output.flush();
         output.close();
     }
@@ -0,0 +1,212 @@
+package com.lagunex.twitter;
+
+import com.lagunex.util.BinaryRecordWriter;
+import com.lagunex.util.RecordCodec;
+import com.lagunex.util.TweetRecord;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Writes tweets to the files of a directory, one or more files per hour: tweet-yyyyMMddHH-NNN.tbl, or .bin
+ * with binary records.
+ *
+ * A file is written with the suffix .part and renamed when it is finished, so other applications can load
+ * the finished files while tweets are still collected. Files are only finished by rollIfDue(), when their
+ * hour is over or they reached maxBytes, and by close(), so the caller decides when a file may end.
+ *
+ * This class is not thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class PartitionedOutput implements Consumer<Tweet>, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(PartitionedOutput.class.getName());
+    static final String PREFIX = "tweet-";
+    static final String PART = ".part";
+    private static final DateTimeFormatter HOUR = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+    private final Path dir;
+    private final long maxBytes;
+    private final boolean binary;
+    private final Clock clock;
+    private final RecordCodec codec = new RecordCodec();
+    private final StringBuilder line = new StringBuilder(256);
+    private final TweetRecord record = new TweetRecord();
+
+    private Path file; // the .part file being written, or null
+    private LocalDateTime hour;
+    private FileOutputStream fileOut;
+    private OutputStream text;
+    private BinaryRecordWriter records;
+    private long size;
+
+    /**
+     *
+     * @param dir directory of the files
+     * @param maxBytes size after which a file is finished
+     * @param binary write binary records instead of text lines
+     * @param clock clock that decides the hour of each file, in UTC
+     */
+    public PartitionedOutput(Path dir, long maxBytes, boolean binary, Clock clock) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.binary = binary;
+        this.clock = clock;
+    }
+
+    /**
+     * Finishes the file left by a previous run at the size it had in its last checkpoint, and deletes
+     * the other unfinished files, which only have tweets written after that checkpoint
+     *
+     * @param part name of the file of the checkpoint, or null
+     * @param partSize its size in the checkpoint
+     * @throws IOException
+     */
+    public void recover(String part, long partSize) throws IOException {
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(dir, PREFIX + "*" + PART)) {
+            for (Path unfinished : parts) {
+                if (unfinished.getFileName().toString().equals(part)) {
+                    try (FileChannel channel = FileChannel.open(unfinished, StandardOpenOption.WRITE)) {
+                        channel.truncate(partSize);
+                    }
+                    publish(unfinished);
+                } else {
+                    LOGGER.warning("Deleting " + unfinished + ", its tweets were not checkpointed");
+                    Files.delete(unfinished);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void accept(Tweet tweet) {
+        record.setId(tweet.getId())
+              .setMessage(tweet.getMessage())
+              .setLanguage(tweet.getLanguage())
+              .setCreatedAt(tweet.getCreatedAt());
+        try {
+            if (file == null) {
+                open();
+            }
+            if (binary) {
+                records.write(record);
+                size = records.getSize();
+            } else {
+                line.setLength(0);
+                byte[] bytes = record.format(codec, line).append('\n').toString().getBytes(StandardCharsets.UTF_8);
+                text.write(bytes);
+                size += bytes.length;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void open() throws IOException {
+        hour = LocalDateTime.now(clock).truncatedTo(ChronoUnit.HOURS);
+        String extension = binary ? ".bin" : ".tbl";
+        for (int sequence = 0; file == null; sequence++) {
+            String name = String.format("%s%s-%03d%s", PREFIX, HOUR.format(hour), sequence, extension);
+            if (!Files.exists(dir.resolve(name)) && !Files.exists(dir.resolve(name + PART))) {
+                file = dir.resolve(name + PART);
+            }
+        }
+        fileOut = new FileOutputStream(file.toFile());
+        if (binary) {
+            records = new BinaryRecordWriter(fileOut);
+        } else {
+            text = new BufferedOutputStream(fileOut, 64 * 1024);
+        }
+        size = 0;
+    }
+
+    /**
+     * Writes the tweets accepted so far to disk
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (file != null) {
+            if (binary) {
+                records.flush();
+            } else {
+                text.flush();
+            }
+            fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Finishes the current file if its hour is over or it reached maxBytes. The next tweet starts a new one
+     *
+     * @throws IOException
+     */
+    public void rollIfDue() throws IOException {
+        if (file != null && (size >= maxBytes ||
+                LocalDateTime.now(clock).truncatedTo(ChronoUnit.HOURS).isAfter(hour))) {
+            finish();
+        }
+    }
+
+    private void finish() throws IOException {
+        flush();
+        if (binary) {
+            records.close();
+        } else {
+            text.close();
+        }
+        publish(file);
+        file = null;
+    }
+
+    private static void publish(Path part) throws IOException {
+        String name = part.getFileName().toString();
+        Path finished = part.resolveSibling(name.substring(0, name.length() - PART.length()));
+        Files.move(part, finished, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Finished " + finished);
+    }
+
+    /**
+     *
+     * @return name of the file being written, or null
+     */
+    public String getPart() {
+        return file == null ? null : file.getFileName().toString();
+    }
+
+    /**
+     *
+     * @return bytes written to getPart()
+     */
+    public long getSize() {
+        return file == null ? 0 : size;
+    }
+
+    /**
+     * Finishes the current file
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            finish();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.lagunex.twitter;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Source of tweets that arrive on their own, e.g. from Twitter's streaming API, instead of being
+ * requested page by page like TwitterClient does.
+ *
+ * Subclasses push tweets from their own thread into a bounded buffer, and run() passes them to a
+ * consumer in the calling thread. push() never blocks, so a slow consumer cannot stall the source:
+ * when the buffer is full the tweet is dropped and counted, and memory stays bounded.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public abstract class PushSource implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(PushSource.class.getName());
+    public static final int DEFAULT_CAPACITY = 10_000;
+    // how often run() checks the source while no tweet arrives
+    private static final long IDLE_MILLIS = 100;
+
+    private final BlockingQueue<Tweet> buffer;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean finished;
+    private volatile RuntimeException failure;
+
+    /**
+     *
+     * @param capacity maximum number of tweets waiting for the consumer
+     */
+    protected PushSource(int capacity) {
+        buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Starts pushing tweets
+     */
+    protected abstract void start();
+
+    /**
+     * Stops pushing tweets and releases the resources of the source
+     */
+    protected abstract void stop();
+
+    /**
+     * Called by run() at least every 100 ms, in its thread, e.g. to reconnect
+     */
+    protected void supervise() {
+    }
+
+    /**
+     * Hands tweet over to the consumer, or drops it if the buffer is full
+     *
+     * @param tweet
+     */
+    protected void push(Tweet tweet) {
+        received.incrementAndGet();
+        if (!buffer.offer(tweet) && dropped.incrementAndGet() % 1000 == 1) {
+            LOGGER.warning(String.format("The consumer is too slow, %d tweets dropped so far", dropped.get()));
+        }
+    }
+
+    /**
+     * Makes run() return once the tweets pushed so far are consumed
+     */
+    protected void finish() {
+        finished = true;
+    }
+
+    /**
+     * Makes run() throw failure
+     *
+     * @param failure
+     */
+    protected void fail(RuntimeException failure) {
+        this.failure = failure;
+        finished = true;
+    }
+
+    /**
+     * Passes the tweets of the source to consumer, in this thread, until the source finishes or close() is called
+     *
+     * @param consumer action to perform with each tweet received
+     * @throws RuntimeException the failure of the source, if any
+     */
+    public void run(Consumer<Tweet> consumer) {
+        start();
+        try {
+            while (!finished || !buffer.isEmpty()) {
+                if (failure != null) {
+                    throw failure;
+                }
+                Tweet tweet = buffer.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+                if (tweet != null) {
+                    consumer.accept(tweet);
+                }
+                if (!finished) {
+                    supervise();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            stop();
+            LOGGER.info("Push source " + this);
+        }
+    }
+
+    /**
+     * Makes run() return after the tweets already buffered
+     */
+    @Override
+    public void close() {
+        finish();
+    }
+
+    /**
+     *
+     * @return number of tweets pushed, including the dropped ones
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     *
+     * @return number of tweets dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("received=%d dropped=%d", received.get(), dropped.get());
+    }
+}
@@ -0,0 +1,101 @@
+package com.lagunex.twitter;
+
+import twitter4j.RateLimitStatus;
+
+/**
+ * Calls left to Twitter's search API in the current rate limit window, shared by every search of the process.
+ *
+ * Each call must acquire() a slot before it is sent and release() it with the RateLimitStatus of its response.
+ * The budget is taken from the statuses received, minus the calls still in flight, and acquire() blocks
+ * when it is exhausted until the window resets. Responses can arrive out of order, so within a window the
+ * lowest estimate is kept. Until the first status of a window arrives, only the calls it allows are sent.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class RateLimitBudget {
+    private boolean known;
+    private int limit;
+    private int remaining;
+    private long resetAt; // milliseconds since the epoch
+    private boolean renewing; // the window reset and its first status has not arrived yet
+    private int inFlight;
+    private long calls;
+    private long waits;
+
+    /**
+     * Waits until a call can be sent without exceeding the rate limit and reserves it
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        boolean waited = false;
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (!known) {
+                if (inFlight == 0) break;
+                wait();
+            } else if (remaining > 0) {
+                remaining--;
+                break;
+            } else if (renewing) {
+                wait();
+            } else if (now >= resetAt) {
+                remaining = limit - 1; // a new window, its first status will correct it
+                renewing = true;
+                break;
+            } else {
+                waited = true;
+                wait(resetAt - now);
+            }
+        }
+        if (waited) waits++;
+        inFlight++;
+        calls++;
+    }
+
+    /**
+     * Returns the slot of a call
+     *
+     * @param status rate limit of the response, or null if the call failed without one
+     */
+    public synchronized void release(RateLimitStatus status) {
+        inFlight--;
+        if (status != null) {
+            long statusResetAt = status.getResetTimeInSeconds() * 1000L;
+            int estimate = status.getRemaining() - inFlight;
+            if (!known || statusResetAt > resetAt) {
+                known = true;
+                renewing = false;
+                limit = status.getLimit();
+                remaining = estimate;
+                resetAt = statusResetAt;
+            } else if (statusResetAt == resetAt) {
+                remaining = Math.min(remaining, estimate);
+            }
+        } else if (renewing && inFlight == 0) {
+            renewing = false; // the calls of the new window failed, the next one renews it again
+        }
+        notifyAll();
+    }
+
+    /**
+     *
+     * @return calls left in the current window, or -1 if no status was received yet
+     */
+    public synchronized int getRemaining() {
+        return known ? Math.max(remaining, 0) : -1;
+    }
+
+    /**
+     *
+     * @return number of calls that had to wait for the window to reset
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("calls=%d waits=%d remaining=%d/%d", calls, waits, getRemaining(), limit);
+    }
+}
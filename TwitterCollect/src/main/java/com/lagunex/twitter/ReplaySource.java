@@ -0,0 +1,92 @@
+package com.lagunex.twitter;
+
+import com.lagunex.util.RecordCodec;
+import com.lagunex.util.TweetRecord;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Pushes the tweets of a tweet.tbl file at a fixed rate, as if they came from the streaming API, so the
+ * push path can be tried and load tested without connecting to Twitter.
+ *
+ * Tweets are pushed by their own thread, in the order of the file, and the source finishes at the end of the
+ * file. Lines that are not valid tweets are skipped.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class ReplaySource extends PushSource {
+    private static final Logger LOGGER = Logger.getLogger(ReplaySource.class.getName());
+
+    private final Path file;
+    private final double rate;
+    private final Thread thread;
+    private long skipped;
+
+    /**
+     *
+     * @param file tweets with the format id|message|lang|created_at
+     * @param rate tweets per second
+     * @param capacity maximum number of tweets waiting for the consumer
+     */
+    public ReplaySource(Path file, double rate, int capacity) {
+        super(capacity);
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.file = file;
+        this.rate = rate;
+        thread = new Thread(this::replay, "replay-source");
+        thread.setDaemon(true);
+    }
+
+    @Override
+    protected void start() {
+        thread.start();
+    }
+
+    private void replay() {
+        RecordCodec codec = new RecordCodec();
+        TweetRecord record = new TweetRecord();
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long next = System.nanoTime();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line = in.readLine(); line != null && !thread.isInterrupted(); line = in.readLine()) {
+                codec.split(line);
+                try {
+                    record.parse(codec);
+                } catch (IllegalArgumentException ex) {
+                    skipped++;
+                    continue;
+                }
+                // waits for the time of this tweet, instead of sleeping a period after each one, so the rate holds
+                for (long wait = next - System.nanoTime(); wait > 0 && !thread.isInterrupted();
+                        wait = next - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                next += period;
+                push(new Tweet(record.getId(), record.getMessage(), record.getLanguage(),
+                        record.getCreatedAtDateTime()));
+            }
+            finish();
+        } catch (IOException ex) {
+            fail(new UncheckedIOException(ex));
+        } catch (RuntimeException ex) {
+            fail(ex);
+        }
+        if (skipped > 0) {
+            LOGGER.warning(String.format("%d invalid lines skipped in %s", skipped, file));
+        }
+    }
+
+    @Override
+    protected void stop() {
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,139 @@
+package com.lagunex.twitter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+// External dependencies that interacts with Twitter's Streaming API
+import twitter4j.FilterQuery;
+import twitter4j.StallWarning;
+import twitter4j.Status;
+import twitter4j.StatusDeletionNotice;
+import twitter4j.StatusListener;
+import twitter4j.TwitterException;
+import twitter4j.TwitterStream;
+import twitter4j.TwitterStreamFactory;
+
+/**
+ * Receives the tweets that match some keywords from Twitter's streaming API as soon as they are posted,
+ * without spending the rate limit of the search API on empty pages.
+ *
+ * This class assumes that twitter4j is configured with the access token of a user, since the streaming API
+ * does not accept application-only authentication. For further info see: http://twitter4j.org/en/configuration.html
+ *
+ * When the connection fails, it is closed and opened again after a backoff that doubles from 1 second up
+ * to 5 minutes, or starts at 1 minute if Twitter rejected the connection for being rate limited (HTTP 420).
+ * The backoff goes back to 1 second once a tweet arrives.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class StreamSource extends PushSource {
+    private static final Logger LOGGER = Logger.getLogger(StreamSource.class.getName());
+    static final long MIN_BACKOFF = 1000;
+    static final long MAX_BACKOFF = 5 * 60 * 1000;
+    static final long RATE_LIMITED_BACKOFF = 60 * 1000;
+    private static final int ENHANCE_YOUR_CALM = 420;
+
+    private final TwitterStream stream;
+    private final String[] track;
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private long backoff = 0;
+    private long reconnectAt = -1; // no reconnection pending
+    private long lastReceived; // tweets received when the backoff was last checked
+    private int connections;
+
+    /**
+     * Uses the TwitterStream configured with system properties
+     *
+     * @param track keywords of the tweets to receive, like the queries of TwitterClient
+     * @param capacity maximum number of tweets waiting for the consumer
+     */
+    public StreamSource(List<String> track, int capacity) {
+        this(new TwitterStreamFactory().getInstance(), track, capacity);
+    }
+
+    // receives the tweets from stream instead, e.g. a local stand-in
+    StreamSource(TwitterStream stream, List<String> track, int capacity) {
+        super(capacity);
+        this.stream = stream;
+        this.track = track.toArray(new String[track.size()]);
+        stream.addListener(new StatusListener() {
+            @Override
+            public void onStatus(Status status) {
+                push(new Tweet(status));
+            }
+
+            @Override
+            public void onException(Exception ex) {
+                failure.compareAndSet(null, ex);
+            }
+
+            @Override
+            public void onStallWarning(StallWarning warning) {
+                LOGGER.warning("Falling behind the stream: " + warning.getMessage());
+            }
+
+            @Override
+            public void onTrackLimitationNotice(int numberOfLimitedStatuses) {
+                LOGGER.warning(numberOfLimitedStatuses + " tweets were not delivered by the track limit");
+            }
+
+            @Override
+            public void onDeletionNotice(StatusDeletionNotice notice) {
+            }
+
+            @Override
+            public void onScrubGeo(long userId, long upToStatusId) {
+            }
+        });
+    }
+
+    @Override
+    protected void start() {
+        connect();
+    }
+
+    private void connect() {
+        connections++;
+        reconnectAt = -1;
+        stream.filter(new FilterQuery().track(track));
+    }
+
+    @Override
+    protected void supervise() {
+        if (getReceived() > lastReceived) { // the connection works
+            lastReceived = getReceived();
+            backoff = 0;
+        }
+        Exception ex = failure.getAndSet(null);
+        if (ex != null && reconnectAt < 0) {
+            stream.cleanUp(); // closes the connection and the retries of twitter4j, the backoff is ours
+            boolean rateLimited = ex instanceof TwitterException &&
+                    ((TwitterException) ex).getStatusCode() == ENHANCE_YOUR_CALM;
+            backoff = Math.min(Math.max(backoff * 2, rateLimited ? RATE_LIMITED_BACKOFF : MIN_BACKOFF), MAX_BACKOFF);
+            reconnectAt = System.currentTimeMillis() + backoff;
+            LOGGER.warning(String.format("Stream failed, reconnecting in %d ms: %s", backoff, ex));
+        }
+        if (reconnectAt >= 0 && System.currentTimeMillis() >= reconnectAt) {
+            connect();
+        }
+    }
+
+    @Override
+    protected void stop() {
+        stream.shutdown();
+    }
+
+    /**
+     *
+     * @return number of times the stream was opened
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " connections=" + connections;
+    }
+}
@@ -19,10 +19,22 @@ public class Tweet {
     private final String language;
 
     public Tweet(Status s) {
-	    id = s.getId();
-        message = s.getText();
-        language = s.getLang();
-        createdAt = LocalDateTime.ofInstant(s.getCreatedAt().toInstant(),ZoneOffset.UTC);
+        this(s.getId(), s.getText(), s.getLang(), LocalDateTime.ofInstant(s.getCreatedAt().toInstant(),ZoneOffset.UTC));
+    }
+
+    /**
+     * A tweet that does not come from twitter4j, e.g. one read from a tbl file
+     * 
+     * @param id
+     * @param message
+     * @param language
+     * @param createdAt UTC
+     */
+    public Tweet(long id, String message, String language, LocalDateTime createdAt) {
+        this.id = id;
+        this.message = message;
+        this.language = language;
+        this.createdAt = createdAt;
     }
     
     public long getId() {
@@ -0,0 +1,172 @@
+package com.lagunex.twitter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import com.lagunex.util.LongHashSet;
+
+/**
+ * Drops the tweets whose id was already seen, e.g. in overlapping queries or in a previous run,
+ * before they become primary key violations in Vertica.
+ *
+ * Ids are kept in a LongHashSet of at most maxIds values. When it is full, the oldest half of the ids
+ * (the lowest ones) is forgotten and tweets older than the ids kept are let through, since they can no
+ * longer be checked. The ids can be saved to a file and loaded by the next run.
+ *
+ * This class is not thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class TweetIdFilter {
+    private static final Logger LOGGER = Logger.getLogger(TweetIdFilter.class.getName());
+    public static final int DEFAULT_MAX_IDS = 10_000_000;
+
+    private final int maxIds;
+    private final LongHashSet ids;
+    private long floor; // ids lower than this one were forgotten
+    private long duplicates, unchecked;
+
+    /**
+     *
+     * @param maxIds maximum number of ids kept in memory, 11 to 21 bytes each
+     */
+    public TweetIdFilter(int maxIds) {
+        this(maxIds, new LongHashSet(), 0);
+    }
+
+    private TweetIdFilter(int maxIds, LongHashSet ids, long floor) {
+        if (maxIds < 2) {
+            throw new IllegalArgumentException("maxIds must be at least 2");
+        }
+        this.maxIds = maxIds;
+        this.ids = ids;
+        this.floor = floor;
+    }
+
+    /**
+     * Loads the ids saved in file, or returns an empty filter if it does not exist
+     *
+     * @param file
+     * @param maxIds
+     * @return
+     * @throws IOException
+     */
+    public static TweetIdFilter load(Path file, int maxIds) throws IOException {
+        if (!Files.exists(file)) {
+            return new TweetIdFilter(maxIds);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            long floor = in.readLong();
+            int size = in.readInt();
+            LongHashSet ids = new LongHashSet(Math.min(size, maxIds));
+            for (int i = 0; i < size; i++) {
+                ids.add(in.readLong());
+            }
+            TweetIdFilter filter = new TweetIdFilter(maxIds, ids, floor);
+            filter.evictIfFull();
+            LOGGER.info(String.format("Loaded %d tweet ids from %s", ids.size(), file));
+            return filter;
+        }
+    }
+
+    /**
+     * Writes the ids to file, replacing it atomically
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeLong(floor);
+            out.writeInt(ids.size());
+            IOException[] failure = {null};
+            ids.forEach(id -> {
+                try {
+                    if (failure[0] == null) out.writeLong(id);
+                } catch (IOException ex) {
+                    failure[0] = ex;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remembers id
+     *
+     * @param id
+     * @return false if id was already seen
+     */
+    public boolean isNew(long id) {
+        if (id < floor) {
+            unchecked++;
+            return true;
+        }
+        if (!ids.add(id)) {
+            duplicates++;
+            return false;
+        }
+        evictIfFull();
+        return true;
+    }
+
+    private void evictIfFull() {
+        if (ids.size() > maxIds) {
+            long[] sorted = ids.toArray();
+            Arrays.sort(sorted);
+            floor = sorted[sorted.length - maxIds / 2];
+            long threshold = floor;
+            ids.removeIf(id -> id < threshold);
+        }
+    }
+
+    /**
+     *
+     * @param downstream
+     * @return a consumer that passes to downstream only the tweets whose id is new
+     */
+    public Consumer<Tweet> filter(Consumer<Tweet> downstream) {
+        return tweet -> {
+            if (isNew(tweet.getId())) {
+                downstream.accept(tweet);
+            }
+        };
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     *
+     * @return number of tweets let through because they were older than the ids kept
+     */
+    public long getUnchecked() {
+        return unchecked;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ids=%d duplicates=%d unchecked=%d memory=%dMB",
+                ids.size(), duplicates, unchecked, ids.getMemory() >> 20);
+    }
+}
@@ -1,5 +1,18 @@
 package com.lagunex.twitter;
 
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
@@ -8,8 +21,10 @@ import twitter4j.Twitter;
 import twitter4j.TwitterFactory;
 import twitter4j.Query;
 import twitter4j.QueryResult;
+import twitter4j.RateLimitStatus;
 import twitter4j.Status;
 import twitter4j.TwitterException;
+import twitter4j.api.SearchResource;
 
 /**
  * Singleton Service that encapsulates twitter4j.Twitter interface and provides
@@ -25,13 +40,27 @@ import twitter4j.TwitterException;
  * This properties can be passed at runtime or with a twitter4j.properties files accessible from the 
  * CLASSPATH. For further info see: http://twitter4j.org/en/configuration.html
  * 
+ * Every call is sent against the same RateLimitBudget, taken from the RateLimitStatus of the responses,
+ * so several queries can be searched concurrently without exceeding the rate limit of the application.
+ * 
  * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
  */
 public class TwitterClient {
     private static final Logger LOGGER = Logger.getLogger(TwitterClient.class.getName());
+    // milliseconds since the epoch of the first tweet id, ids are (milliseconds - TWEPOCH) << 22 | worker | sequence
+    private static final long TWEPOCH = 1288834974657L;
+    // pages a backfill slice keeps found ahead of the consumer
+    static final int SLICE_PAGES = 4;
     
     private int maxResults = 100;
-    final private Twitter twitter4j;
+    final private SearchResource twitter4j;
+    final private RateLimitBudget budget = new RateLimitBudget();
+    // requests the next page of a search while the current one is consumed
+    final private ExecutorService prefetcher = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "twitter-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private static TwitterClient instance;
     public static TwitterClient getInstance() {
@@ -43,13 +72,19 @@ public class TwitterClient {
     
     private TwitterClient() {
         try {
-            twitter4j = TwitterFactory.getSingleton(); // singleton configure with system properties
-            twitter4j.getOAuth2Token(); // this line is mandatory for twitter4j to connect with Twitter
+            Twitter twitter = TwitterFactory.getSingleton(); // singleton configure with system properties
+            twitter.getOAuth2Token(); // this line is mandatory for twitter4j to connect with Twitter
+            twitter4j = twitter;
         } catch (TwitterException e) {
             throw new RuntimeException(e);
         }
     }
 
+    // searches with search instead of Twitter, e.g. a local stand-in
+    TwitterClient(SearchResource search) {
+        twitter4j = search;
+    }
+
     /**
      * Search Twitter for tweets that satisfy the given query and pass them
      * to consumer to execute the desired action.
@@ -98,41 +133,284 @@ public class TwitterClient {
 		search(q, consumer);
     }
     
+    /**
+     * Search Twitter for tweets that satisfy the given query and pass them
+     * to consumer to execute the desired action.
+     * 
+     * The tweets retrieved will have an id higher than sinceId and lower or equal than maxId
+     * The number of tweet to retrieve would always be lower or equal than this.getMaxResults()
+     * 
+     * @param query
+     * @param sinceId
+     * @param maxId
+     * @param consumer action to perform with each tweet found  
+     */
+    public void searchBetween(String query, long sinceId, long maxId, Consumer<Tweet> consumer) {
+        Query q = new Query(query);
+        q.setSinceId(sinceId);
+        q.setMaxId(maxId);
+        search(q, consumer);
+    }
+    
+    /**
+     * Search Twitter for the tweets of several queries at the same time and pass them
+     * to consumer to execute the desired action.
+     * 
+     * Pages of different queries are requested by concurrency threads, taking turns, while the pages of a query
+     * are requested in order. The consumer is never called by two threads at the same time and receives all
+     * the tweets of a page together. Up to this.getMaxResults() tweets are retrieved per query.
+     * 
+     * @param queries
+     * @param sinceId if greater than 0, only tweets with a higher id are retrieved
+     * @param maxId if greater than 0, only tweets with a lower or equal id are retrieved
+     * @param concurrency number of requests sent in parallel
+     * @param consumer action to perform with each tweet found
+     */
+    public void search(List<String> queries, long sinceId, long maxId, int concurrency, Consumer<Tweet> consumer) {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch done = new CountDownLatch(queries.size());
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        try {
+            for (String query : queries) {
+                Query q = new Query(query);
+                if (sinceId > 0) q.setSinceId(sinceId);
+                if (maxId > 0) q.setMaxId(maxId);
+                executor.execute(() -> searchPage(executor, q, 0, consumer, done, failure));
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        LOGGER.info("Rate limit " + budget);
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    // requests one page of q and queues the next one behind the pages of the other queries
+    private void searchPage(ExecutorService executor, Query q, int tweetsFound, Consumer<Tweet> consumer,
+            CountDownLatch done, AtomicReference<RuntimeException> failure) {
+        Query next = null;
+        try {
+            if (failure.get() == null) {
+                QueryResult qr = search(q);
+                synchronized (consumer) {
+                    tweetsFound += consumeResult(qr, consumer, this.getMaxResults() - tweetsFound);
+                }
+                next = tweetsFound < this.getMaxResults() ? qr.nextQuery() : null;
+                LOGGER.info(String.format("%s: %d/%d tweets processed hasNext? %b",
+                        q.getQuery(), tweetsFound, this.getMaxResults(), next != null));
+            }
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        if (next == null) {
+            done.countDown();
+        } else {
+            int found = tweetsFound;
+            Query page = next;
+            executor.execute(() -> searchPage(executor, page, found, consumer, done, failure));
+        }
+    }
+
+    /**
+     * Returns the lowest tweet id that Twitter could assign at dateTime, since ids encode their creation time
+     * 
+     * @param dateTime UTC
+     * @return 
+     */
+    public static long firstIdAt(LocalDateTime dateTime) {
+        long millis = dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+        return Math.max(millis - TWEPOCH, 0) << 22;
+    }
+
+    /**
+     * Retrieves every tweet of the query created from start (inclusive) to end (exclusive), splitting the window
+     * into slices of consecutive ids that are searched in parallel by concurrency threads, newest first.
+     * 
+     * Tweets are passed to consumer in the calling thread in decreasing id order, like search() does, and the same
+     * id is never passed twice, even if the pages of two slices overlap. The slice being consumed is streamed
+     * while the following ones keep at most a few pages in memory until their turn, and their threads wait.
+     * this.getMaxResults() does not apply.
+     * 
+     * @param query
+     * @param start UTC
+     * @param end UTC
+     * @param slices number of id ranges the window is split into
+     * @param concurrency number of slices searched in parallel
+     * @param consumer action to perform with each tweet found
+     */
+    public void backfill(String query, LocalDateTime start, LocalDateTime end, int slices, int concurrency,
+            Consumer<Tweet> consumer) {
+        long first = firstIdAt(start), last = firstIdAt(end) - 1;
+        if (last < first) {
+            return;
+        }
+        List<Slice> ranges = new ArrayList<>();
+        long size = Math.max((last - first) / slices + 1, 1);
+        for (long maxId = last; maxId >= first; maxId -= size) { // newest first
+            ranges.add(new Slice(Math.max(maxId - size, Math.max(first - 1, 0)), maxId)); // ids are positive
+            if (maxId - size < first) break;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            for (Slice slice : ranges) {
+                executor.execute(() -> searchSlice(query, slice));
+            }
+            long lastId = Long.MAX_VALUE;
+            int found = 0;
+            for (Slice slice : ranges) {
+                for (List<Tweet> page = slice.take(); !page.isEmpty(); page = slice.take()) {
+                    for (Tweet tweet : page) {
+                        if (tweet.getId() < lastId) { // pages of a slice and slices never go back up
+                            lastId = tweet.getId();
+                            consumer.accept(tweet);
+                            found++;
+                        }
+                    }
+                }
+                LOGGER.info(String.format("%s (%d, %d]: %d tweets processed", query, slice.sinceId, slice.maxId, found));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        LOGGER.info("Rate limit " + budget);
+    }
+
+    // pages through the ids of slice and hands the tweets inside it over, then an empty page
+    private void searchSlice(String query, Slice slice) {
+        try {
+            Query q = new Query(query);
+            q.setSinceId(slice.sinceId);
+            q.setMaxId(slice.maxId);
+            while (q != null && !Thread.currentThread().isInterrupted()) {
+                QueryResult qr = search(q);
+                List<Tweet> page = new ArrayList<>(qr.getTweets().size());
+                for (Status s : qr.getTweets()) {
+                    if (s.getId() > slice.sinceId && s.getId() <= slice.maxId) {
+                        page.add(new Tweet(s));
+                    }
+                }
+                if (!page.isEmpty()) {
+                    slice.pages.put(page); // waits while the slice is too far ahead of the consumer
+                }
+                q = qr.nextQuery();
+            }
+        } catch (RuntimeException e) {
+            slice.failure = e;
+        } catch (InterruptedException e) {
+            return; // the backfill is over, nobody takes the pages anymore
+        }
+        try {
+            slice.pages.put(Collections.emptyList());
+        } catch (InterruptedException e) {
+            // the backfill is over
+        }
+    }
+
+    /**
+     * The tweets with ids in (sinceId, maxId] and the pages found so far
+     */
+    private static class Slice {
+        final long sinceId, maxId;
+        final BlockingQueue<List<Tweet>> pages = new LinkedBlockingQueue<>(SLICE_PAGES);
+        volatile RuntimeException failure;
+
+        Slice(long sinceId, long maxId) {
+            this.sinceId = sinceId;
+            this.maxId = maxId;
+        }
+
+        // next page, empty at the end of the slice
+        List<Tweet> take() throws InterruptedException {
+            List<Tweet> page = pages.take();
+            if (page.isEmpty() && failure != null) {
+                throw failure;
+            }
+            return page;
+        }
+    }
+
     /**
      * Performs the search until this.getMaxResults() tweets are received or
      * Twitter doesn't return more results
      * 
+     * The next page is requested as soon as a page arrives, so it is on its way while consumer
+     * processes the current one
+     * 
      * @param q
      * @param consumer action to perform with each tweet received
      */
     private void search(Query q, Consumer<Tweet> consumer) {
 	    int tweetsFound = 0;
-        while (q != null && tweetsFound < this.getMaxResults()) {
-            QueryResult qr = search(q);
+        CompletableFuture<QueryResult> page = prefetch(q);
+        while (page != null) {
+            QueryResult qr = join(page);
 
             int maximumTweetsToRetrieve = this.getMaxResults()-tweetsFound; 
-            tweetsFound += consumeResult(qr,consumer,maximumTweetsToRetrieve);
-            
             q = qr.nextQuery();
+            page = q != null && qr.getTweets().size() < maximumTweetsToRetrieve ? prefetch(q) : null;
+            try {
+                tweetsFound += consumeResult(qr,consumer,maximumTweetsToRetrieve);
+            } catch (RuntimeException e) {
+                if (page != null) page.cancel(true);
+                throw e;
+            }
+            
 			LOGGER.info(String.format("%d/%d tweets processed hasNext? %b", 
-				tweetsFound, this.getMaxResults(), q != null));
+				tweetsFound, this.getMaxResults(), page != null));
         } 
     }
 
+    private CompletableFuture<QueryResult> prefetch(Query q) {
+        return CompletableFuture.supplyAsync(() -> search(q), prefetcher);
+    }
+
+    // waits for a page and rethrows the exception of its request, if any
+    private QueryResult join(CompletableFuture<QueryResult> page) {
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
     /**
-     * Encapsulates the twitter4j call for clarity 
+     * Encapsulates the twitter4j call for clarity. Waits for the rate limit budget before each call,
+     * and retries the calls rejected because the rate limit was exceeded
      * @param q
      * @return results from the search 
      */
     private QueryResult search(Query q) {
         q.setCount(100); // get a maximum of 100 tweets per call (limited by Twitter's REST API)
-        QueryResult qr = null;
-        try {
-            qr = twitter4j.search(q);
-        } catch (TwitterException e) {
-            throw new RuntimeException(e);
+        while (true) {
+            RateLimitStatus status = null;
+            try {
+                budget.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            try {
+                QueryResult qr = twitter4j.search(q);
+                status = qr.getRateLimitStatus();
+                return qr;
+            } catch (TwitterException e) {
+                status = e.getRateLimitStatus();
+                if (!e.exceededRateLimitation() || status == null) {
+                    throw new RuntimeException(e);
+                }
+                LOGGER.warning(String.format("Rate limit exceeded, retrying in %d seconds", status.getSecondsUntilReset()));
+            } finally {
+                budget.release(status);
+            }
         }
-        return qr;
     }
 
     /**
@@ -151,6 +429,14 @@ public class TwitterClient {
         return tweetsAdded;
     }
 
+    /**
+     * 
+     * @return the rate limit budget shared by every search
+     */
+    public RateLimitBudget getBudget() {
+        return budget;
+    }
+
     public int getMaxResults() {
         return this.maxResults;
     }
@@ -0,0 +1,118 @@
+package com.lagunex.twitter;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import twitter4j.Query;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BackfillTest {
+    private static final LocalDateTime START = LocalDateTime.of(2015, 2, 1, 23, 0);
+    private static final LocalDateTime END = START.plusHours(8);
+
+    private long millis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    // one tweet every 37 seconds from an hour before START to an hour after END
+    private ReplaySearch replay() {
+        ReplaySearch search = new ReplaySearch(1000, 60_000, 1);
+        for (long t = millis(START.minusHours(1)); t < millis(END.plusHours(1)); t += 37_000) {
+            search.add(ReplaySearch.idAt(t, t % 7), "#SB49 at " + t);
+        }
+        return search;
+    }
+
+    private List<Long> expected(ReplaySearch search) throws Exception {
+        Query all = new Query("#SB49");
+        all.setCount(10_000);
+        return search.search(all).getTweets().stream()
+                .map(s -> s.getId())
+                .filter(id -> id >= TwitterClient.firstIdAt(START) && id < TwitterClient.firstIdAt(END))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void firstIdAtMatchesSnowflake() {
+        // 562113053282426880 was created at 2015-02-02T04:59:30Z
+        long id = 562113053282426880L;
+        assertTrue(TwitterClient.firstIdAt(LocalDateTime.of(2015, 2, 2, 4, 59, 30)) <= id);
+        assertTrue(TwitterClient.firstIdAt(LocalDateTime.of(2015, 2, 2, 4, 59, 31)) > id);
+    }
+
+    @Test
+    public void backfillsEveryTweetInIdOrder() throws Exception {
+        ReplaySearch search = replay();
+        TwitterClient client = new TwitterClient(search);
+        List<Long> ids = new ArrayList<>();
+        client.backfill("#SB49", START, END, 7, 3, tweet -> ids.add(tweet.getId()));
+
+        assertEquals(778, ids.size());
+        assertEquals(expected(search), ids); // newest first, like search()
+        assertTrue(search.getMaxInFlight() > 1);
+    }
+
+    @Test
+    public void skipsTweetsRepeatedAtBoundaries() throws Exception {
+        ReplaySearch search = replay();
+        // every page also returns the last tweet of the previous page and the first one above the slice
+        TwitterClient client = new TwitterClient(q -> {
+            if (q.getMaxId() > 0) q.setMaxId(q.getMaxId() + 1);
+            return search.search(q);
+        });
+        List<Long> ids = new ArrayList<>();
+        client.backfill("#SB49", START, END, 5, 2, tweet -> ids.add(tweet.getId()));
+
+        assertEquals(expected(search), ids);
+    }
+
+    @Test
+    public void slicesWaitForTheConsumer() {
+        // one tweet every 3 seconds, dozens of pages per slice
+        ReplaySearch search = new ReplaySearch(1000, 60_000, 0);
+        for (long t = millis(START); t < millis(END); t += 3_000) {
+            search.add(ReplaySearch.idAt(t, 0), "#SB49 at " + t);
+        }
+        TwitterClient client = new TwitterClient(search);
+        int[] callsWhileBlocked = {-1};
+        int[] found = {0};
+        client.backfill("#SB49", START, END, 2, 2, tweet -> {
+            if (found[0]++ == 0) {
+                sleep(300);
+                callsWhileBlocked[0] = search.getCalls();
+            }
+        });
+
+        // the page taken, the queued ones and the one waiting to be queued, per slice
+        assertTrue("calls " + callsWhileBlocked[0], callsWhileBlocked[0] <= 2 * (TwitterClient.SLICE_PAGES + 2));
+        assertEquals(8 * 60 * 20, found[0]);
+    }
+
+    @Test
+    public void startsNoLowerThanTheFirstId() {
+        List<Long> sinceIds = new ArrayList<>();
+        ReplaySearch search = replay();
+        TwitterClient client = new TwitterClient(q -> {
+            synchronized (sinceIds) {
+                sinceIds.add(q.getSinceId());
+            }
+            return search.search(q);
+        });
+        List<Long> ids = new ArrayList<>();
+        client.backfill("#SB49", LocalDateTime.of(2000, 1, 1, 0, 0), END, 3, 3, tweet -> ids.add(tweet.getId()));
+
+        assertEquals(0L, (long) sinceIds.stream().min(Long::compare).get());
+        assertTrue(ids.get(ids.size() - 1) < TwitterClient.firstIdAt(START)); // the oldest tweets are found too
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.lagunex.twitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import twitter4j.TwitterException;
+import static org.junit.Assert.*;
+
+public class CollectorTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("collector");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : files("*")) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private List<Path> files(String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private List<String> lines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Path file : files("*.tbl")) {
+            lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static Tweet tweet(long id) {
+        return new Tweet(ReplaySearch.status(id, "#a tweet " + id));
+    }
+
+    /**
+     * A clock that only moves when it is told to
+     */
+    private static class ManualClock extends Clock {
+        Instant now = Instant.parse("2015-02-04T13:59:00Z");
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    @Test
+    public void collectsOnlyTheNewTweetsAcrossRestarts() throws IOException {
+        ReplaySearch search = new ReplaySearch(1000, 60_000, 0);
+        for (int i = 1; i <= 150; i++) {
+            search.add(i, "#a tweet " + i);
+        }
+        TwitterClient client = new TwitterClient(search);
+
+        Collector collector = new Collector(client, Collections.singletonList("#a"), dir,
+                new PartitionedOutput(dir, 1 << 20, false, Clock.systemUTC()), 0, 0);
+        collector.setFirstResults(120);
+        collector.round();
+        assertEquals(1, files("*.part").size()); // readers do not see it yet
+        for (int i = 151; i <= 200; i++) {
+            search.add(i, "#a tweet " + i);
+        }
+        collector.round();
+        // dies without closing its file, the new collector finishes it
+
+        for (int i = 201; i <= 230; i++) {
+            search.add(i, "#a tweet " + i);
+        }
+        collector = new Collector(client, Collections.singletonList("#a"), dir,
+                new PartitionedOutput(dir, 1 << 20, false, Clock.systemUTC()), 0, 0);
+        collector.round();
+        collector.stop();
+        collector.run();
+
+        List<String> lines = lines();
+        assertEquals(0, files("*.part").size());
+        assertEquals(2, files("*.tbl").size());
+        assertEquals(120 + 50 + 30, lines.size());
+        assertTrue(lines.get(0).startsWith("150|#a tweet 150|en|"));
+        assertTrue(lines.get(lines.size() - 1).startsWith("201|"));
+        assertEquals(230, CollectorCheckpoint.read(dir.resolve(Collector.CHECKPOINT)).getSinceId("#a"));
+    }
+
+    @Test
+    public void failedPollWritesNothing() throws IOException {
+        ReplaySearch search = new ReplaySearch(1000, 60_000, 0);
+        for (int i = 1; i <= 250; i++) {
+            search.add(i, "#a tweet " + i);
+        }
+        int[] calls = {0};
+        TwitterClient client = new TwitterClient(q -> {
+            if (++calls[0] == 2) { // the second page of the first poll
+                throw new TwitterException("connection reset");
+            }
+            return search.search(q);
+        });
+
+        Collector collector = new Collector(client, Collections.singletonList("#a"), dir,
+                new PartitionedOutput(dir, 1 << 20, false, Clock.systemUTC()), 0, 0);
+        collector.setSinceId(50);
+        collector.round();
+        assertEquals(0, lines().size() + files("*.part").size());
+        collector.round();
+        collector.stop();
+        collector.run();
+
+        assertEquals(200, lines().size());
+        assertEquals(250, CollectorCheckpoint.read(dir.resolve(Collector.CHECKPOINT)).getSinceId("#a"));
+    }
+
+    @Test
+    public void catchesUpAFewPagesAtATime() throws IOException {
+        ReplaySearch search = new ReplaySearch(1000, 60_000, 0);
+        for (int i = 1; i <= 250; i++) {
+            search.add(i, "#a tweet " + i);
+        }
+        TwitterClient client = new TwitterClient(search);
+        Collector collector = new Collector(client, Collections.singletonList("#a"), dir,
+                new PartitionedOutput(dir, 1 << 20, false, Clock.systemUTC()), 0, 0);
+        collector.setSinceId(50);
+        collector.setMaxPollResults(120);
+        collector.round();
+        CollectorCheckpoint checkpoint = CollectorCheckpoint.read(dir.resolve(Collector.CHECKPOINT));
+        assertEquals(50, checkpoint.getSinceId("#a"));
+        assertEquals(130, checkpoint.getMaxId("#a"));
+        assertEquals(250, checkpoint.getNewestId("#a"));
+        for (int i = 251; i <= 260; i++) {
+            search.add(i, "#a tweet " + i);
+        }
+
+        // restarts in the middle of the gap
+        collector = new Collector(client, Collections.singletonList("#a"), dir,
+                new PartitionedOutput(dir, 1 << 20, false, Clock.systemUTC()), 0, 0);
+        collector.setMaxPollResults(120);
+        collector.round(); // the rest of the gap
+        collector.round(); // the tweets posted meanwhile
+        collector.stop();
+        collector.run();
+
+        List<String> lines = lines();
+        assertEquals(210, lines.size());
+        assertEquals(210, lines.stream().map(line -> line.substring(0, line.indexOf('|'))).distinct().count());
+        checkpoint = CollectorCheckpoint.read(dir.resolve(Collector.CHECKPOINT));
+        assertEquals(260, checkpoint.getSinceId("#a"));
+        assertEquals(0, checkpoint.getMaxId("#a"));
+    }
+
+    @Test
+    public void discardsWhatWasWrittenAfterTheCheckpoint() throws IOException {
+        PartitionedOutput output = new PartitionedOutput(dir, 1 << 20, false, Clock.systemUTC());
+        output.accept(tweet(1));
+        output.accept(tweet(2));
+        output.flush();
+        String part = output.getPart();
+        long size = output.getSize();
+        output.accept(tweet(3));
+        output.flush(); // written but never checkpointed
+
+        new PartitionedOutput(dir, 1 << 20, false, Clock.systemUTC()).recover(part, size);
+        assertEquals(0, files("*.part").size());
+        assertEquals(2, lines().size());
+    }
+
+    @Test
+    public void rollsFilesByHourAndSize() throws IOException {
+        ManualClock clock = new ManualClock();
+        PartitionedOutput output = new PartitionedOutput(dir, 100, false, clock);
+        output.accept(tweet(1));
+        output.rollIfDue();
+        assertEquals("tweet-2015020413-000.tbl.part", output.getPart());
+
+        clock.now = clock.now.plusSeconds(60);
+        output.rollIfDue();
+        assertNull(output.getPart());
+        output.accept(tweet(2));
+        output.accept(tweet(3));
+        output.accept(tweet(4));
+        output.accept(tweet(5));
+        output.rollIfDue(); // more than 100 bytes
+        output.accept(tweet(6));
+        output.close();
+
+        List<Path> files = files("*");
+        assertEquals(3, files.size());
+        assertEquals("tweet-2015020413-000.tbl", files.get(0).getFileName().toString());
+        assertEquals("tweet-2015020414-000.tbl", files.get(1).getFileName().toString());
+        assertEquals("tweet-2015020414-001.tbl", files.get(2).getFileName().toString());
+        assertEquals(6, lines().size());
+    }
+
+    @Test
+    public void adaptsTheIntervalToTheRateOfTweets() {
+        Collector.Poll poll = new Collector.Poll("#a", 0, 1_000, 60_000);
+        poll.adapt(100, 1_000_000);
+        assertEquals(1_000, poll.interval); // rate unknown
+        poll.adapt(10, 1_001_000);
+        assertEquals(2_000, poll.interval); // quiet, doubles
+        poll.adapt(0, 1_003_000);
+        poll.adapt(0, 1_007_000);
+        poll.adapt(0, 1_015_000);
+        poll.adapt(0, 1_031_000);
+        poll.adapt(0, 1_063_000);
+        assertEquals(60_000, poll.interval);
+        poll.adapt(100_000, 1_123_000);
+        assertEquals(1_000, poll.interval); // busy
+        assertEquals(1_124_000, poll.nextAt);
+    }
+}
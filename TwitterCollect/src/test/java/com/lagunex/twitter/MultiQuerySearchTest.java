@@ -0,0 +1,64 @@
+package com.lagunex.twitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MultiQuerySearchTest {
+
+    private ReplaySearch replay(int limit, long windowMillis, long latencyMillis) {
+        ReplaySearch search = new ReplaySearch(limit, windowMillis, latencyMillis);
+        for (int i = 1; i <= 250; i++) {
+            search.add(i, "#a tweet " + i);
+            search.add(1000 + i, "#b tweet " + i);
+            search.add(2000 + i, "#c tweet " + i);
+        }
+        return search;
+    }
+
+    @Test
+    public void mergesEveryQuery() {
+        ReplaySearch search = replay(100, 60_000, 20);
+        TwitterClient client = new TwitterClient(search);
+        client.setMaxResults(1000);
+        List<Tweet> tweets = new ArrayList<>();
+        client.search(Arrays.asList("#a", "#b", "#c"), 0, 0, 3, tweets::add);
+
+        assertEquals(750, tweets.size());
+        Set<Long> ids = new HashSet<>();
+        tweets.forEach(t -> ids.add(t.getId()));
+        assertEquals(750, ids.size());
+        assertEquals(9, search.getCalls()); // 3 pages per query, the last one not full
+        assertTrue(search.getMaxInFlight() > 1);
+        assertEquals(0, search.getViolations());
+    }
+
+    @Test
+    public void honoursSinceIdAndMaxResults() {
+        TwitterClient client = new TwitterClient(replay(100, 60_000, 0));
+        client.setMaxResults(120);
+        List<Tweet> tweets = new ArrayList<>();
+        client.search(Arrays.asList("#a", "#b"), 1100, 0, 2, tweets::add);
+
+        assertEquals(120, tweets.size()); // none of #a, 150 of #b
+        tweets.forEach(t -> assertTrue(t.getId() > 1100));
+    }
+
+    @Test
+    public void waitsForTheRateLimitWindow() {
+        ReplaySearch search = replay(2, 1_000, 0);
+        TwitterClient client = new TwitterClient(search);
+        client.setMaxResults(1000);
+        long start = System.currentTimeMillis();
+        client.search(Arrays.asList("#a", "#b"), 0, 0, 4, tweet -> {});
+
+        assertEquals(6, search.getCalls());
+        assertEquals(0, search.getViolations());
+        assertTrue(System.currentTimeMillis() - start >= 2_000); // 3 windows of 2 calls
+        assertTrue(client.getBudget().getWaits() > 0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.lagunex.twitter;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import twitter4j.StatusListener;
+import twitter4j.TwitterStream;
+import static org.junit.Assert.*;
+
+public class PushSourceTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("tweet", ".tbl");
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            lines.add(i + "|#a tweet \\| " + i + "|en|2015-02-04 13:03:09");
+            if (i == 500) lines.add("not a tweet");
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    public void replaysAFileAtTheGivenRate() {
+        List<Tweet> tweets = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        try (ReplaySource source = new ReplaySource(file, 5000, 1000)) {
+            source.run(tweets::add);
+            assertEquals(0, source.getDropped());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("took " + elapsed, elapsed >= 190); // 1000 tweets at 5000 per second
+        assertEquals(1000, tweets.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i + 1, tweets.get(i).getId());
+        }
+        assertEquals("#a tweet | 1", tweets.get(0).getMessage());
+        assertEquals("2015-02-04T13:03:09", tweets.get(0).getCreatedAt().toString());
+    }
+
+    @Test
+    public void dropsWhatASlowConsumerCannotTake() {
+        List<Tweet> tweets = new ArrayList<>();
+        ReplaySource source = new ReplaySource(file, 100_000, 10);
+        source.run(tweet -> {
+            tweets.add(tweet);
+            sleep(1);
+        });
+
+        assertEquals(1000, source.getReceived());
+        assertTrue(source.getDropped() > 0);
+        assertEquals(1000, tweets.size() + source.getDropped());
+    }
+
+    @Test
+    public void reconnectsWithBackoff() {
+        List<Long> connectedAt = Collections.synchronizedList(new ArrayList<>());
+        List<Tweet> tweets = new ArrayList<>();
+        StreamSource[] source = new StreamSource[1];
+        TwitterStream stream = stream((connection, listener) -> {
+            connectedAt.add(System.currentTimeMillis());
+            if (connection == 1) {
+                listener.onStatus(ReplaySearch.status(1, "#a tweet 1"));
+                listener.onException(new IOException("connection reset"));
+            } else if (connection == 2) {
+                listener.onException(new IOException("connection refused"));
+            } else {
+                listener.onStatus(ReplaySearch.status(2, "#a tweet 2"));
+                source[0].close();
+            }
+        });
+        source[0] = new StreamSource(stream, Collections.singletonList("#a"), 100);
+        source[0].run(tweets::add);
+
+        assertEquals(3, source[0].getConnections());
+        assertEquals(2, tweets.size());
+        long first = connectedAt.get(1) - connectedAt.get(0), second = connectedAt.get(2) - connectedAt.get(1);
+        assertTrue("first backoff " + first, first >= StreamSource.MIN_BACKOFF);
+        assertTrue("second backoff " + second, second >= 2 * StreamSource.MIN_BACKOFF);
+    }
+
+    // a TwitterStream whose connections call connect with their number, starting at 1
+    private static TwitterStream stream(BiConsumer<Integer, StatusListener> connect) {
+        List<StatusListener> listeners = new ArrayList<>();
+        int[] connections = {0};
+        return (TwitterStream) Proxy.newProxyInstance(TwitterStream.class.getClassLoader(),
+                new Class<?>[]{TwitterStream.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "addListener":
+                            listeners.add((StatusListener) args[0]);
+                            break;
+                        case "filter":
+                            int connection = ++connections[0];
+                            new Thread(() -> connect.accept(connection, listeners.get(0))).start();
+                            break;
+                        default:
+                            break;
+                    }
+                    return null;
+                });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.lagunex.twitter;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import twitter4j.Query;
+import twitter4j.QueryResult;
+import twitter4j.RateLimitStatus;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.api.SearchResource;
+
+/**
+ * Local stand-in for Twitter's search API that replays a fixed set of tweets.
+ *
+ * A tweet matches a query when its text contains it. Pages are returned newest first and honour
+ * sinceId, maxId and count like the real API. Every response carries a RateLimitStatus of a window
+ * of limit calls, and calls sent when the window is exhausted are counted as violations.
+ */
+class ReplaySearch implements SearchResource {
+    // first millisecond of Twitter's snowflake ids
+    static final long TWEPOCH = 1288834974657L;
+
+    private final List<Status> tweets = new ArrayList<>();
+    private final int limit;
+    private final long windowMillis;
+    private final long latencyMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private long windowEnd;
+    private int used;
+    private int calls, violations, maxInFlight;
+
+    /**
+     *
+     * @param limit calls allowed per window
+     * @param windowMillis length of the window
+     * @param latencyMillis time each call takes
+     */
+    ReplaySearch(int limit, long windowMillis, long latencyMillis) {
+        this.limit = limit;
+        this.windowMillis = windowMillis;
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Adds a tweet created at the time encoded in its snowflake id
+     */
+    ReplaySearch add(long id, String text) {
+        tweets.add(status(id, text));
+        return this;
+    }
+
+    static long idAt(long millis, long sequence) {
+        return ((millis - TWEPOCH) << 22) | sequence;
+    }
+
+    static Status status(long id, String text) {
+        Date createdAt = new Date((id >> 22) + TWEPOCH);
+        return (Status) Proxy.newProxyInstance(Status.class.getClassLoader(), new Class<?>[]{Status.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId": return id;
+                        case "getText": return text;
+                        case "getLang": return "en";
+                        case "getCreatedAt": return createdAt;
+                        case "toString": return id + "|" + text;
+                        case "hashCode": return Long.hashCode(id);
+                        case "equals": return proxy == args[0];
+                        default: return null;
+                    }
+                });
+    }
+
+    @Override
+    public QueryResult search(Query query) throws TwitterException {
+        int current = inFlight.incrementAndGet();
+        RateLimitStatus status;
+        synchronized (this) {
+            maxInFlight = Math.max(maxInFlight, current);
+            calls++;
+            long now = System.currentTimeMillis();
+            if (now >= windowEnd) {
+                windowEnd = now + windowMillis;
+                used = 0;
+            }
+            if (used >= limit) {
+                violations++;
+            }
+            used++;
+            status = rateLimit(limit, Math.max(limit - used, 0), windowEnd);
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        int count = query.getCount() > 0 ? query.getCount() : 15;
+        List<Status> page = tweets.stream()
+                .filter(s -> s.getText().contains(query.getQuery()))
+                .filter(s -> query.getSinceId() <= 0 || s.getId() > query.getSinceId())
+                .filter(s -> query.getMaxId() < 0 || s.getId() <= query.getMaxId())
+                .sorted((a, b) -> Long.compare(b.getId(), a.getId()))
+                .limit(count)
+                .collect(Collectors.toList());
+        Query next = null;
+        if (page.size() == count) {
+            next = new Query(query.getQuery());
+            next.setSinceId(query.getSinceId());
+            next.setMaxId(page.get(page.size() - 1).getId() - 1);
+        }
+        return result(Collections.unmodifiableList(page), next, status);
+    }
+
+    static RateLimitStatus rateLimit(int limit, int remaining, long resetAt) {
+        return (RateLimitStatus) Proxy.newProxyInstance(RateLimitStatus.class.getClassLoader(),
+                new Class<?>[]{RateLimitStatus.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getLimit": return limit;
+                        case "getRemaining": return remaining;
+                        case "getResetTimeInSeconds": return (int) ((resetAt + 999) / 1000);
+                        case "getSecondsUntilReset": return (int) ((resetAt - System.currentTimeMillis()) / 1000);
+                        default: return null;
+                    }
+                });
+    }
+
+    private static QueryResult result(List<Status> page, Query next, RateLimitStatus status) {
+        return (QueryResult) Proxy.newProxyInstance(QueryResult.class.getClassLoader(),
+                new Class<?>[]{QueryResult.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTweets": return page;
+                        case "nextQuery": return next;
+                        case "hasNext": return next != null;
+                        case "getCount": return page.size();
+                        case "getRateLimitStatus": return status;
+                        default: return null;
+                    }
+                });
+    }
+
+    synchronized int getCalls() {
+        return calls;
+    }
+
+    synchronized int getViolations() {
+        return violations;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+}
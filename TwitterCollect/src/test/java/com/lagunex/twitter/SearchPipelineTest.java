@@ -0,0 +1,90 @@
+package com.lagunex.twitter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SearchPipelineTest {
+
+    private ReplaySearch replay(long latencyMillis) {
+        ReplaySearch search = new ReplaySearch(1000, 60_000, latencyMillis);
+        for (int i = 1; i <= 1000; i++) {
+            search.add(i, "#a tweet " + i);
+        }
+        return search;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void prefetchesWhileConsuming() {
+        ReplaySearch search = replay(20);
+        TwitterClient client = new TwitterClient(search);
+        client.setMaxResults(1000);
+        List<Long> ids = new ArrayList<>();
+        Set<Integer> overlapped = new HashSet<>(); // pages consumed while the next one was requested
+        client.search("#a", tweet -> {
+            ids.add(tweet.getId());
+            if (search.getInFlight() > 0) overlapped.add((ids.size() - 1) / 100);
+            sleep(1);
+        });
+
+        assertEquals(1000, ids.size());
+        assertEquals(1000L, (long) ids.get(0));
+        assertEquals(1L, (long) ids.get(999));
+        assertEquals(10, search.getCalls()); // no page after the last one
+        assertEquals(9, overlapped.size());
+        assertFalse(overlapped.contains(9));
+    }
+
+    @Test
+    public void stopsPrefetchingAtMaxResults() {
+        ReplaySearch search = replay(0);
+        TwitterClient client = new TwitterClient(search);
+        client.setMaxResults(250);
+        List<Tweet> tweets = new ArrayList<>();
+        client.search("#a", tweets::add);
+
+        assertEquals(250, tweets.size());
+        assertEquals(3, search.getCalls());
+    }
+
+    @Test
+    public void consumesInOrderInAnotherThread() {
+        List<Integer> consumed = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        try (AsyncConsumer<Integer> consumer = new AsyncConsumer<>(i -> {
+            consumed.add(i);
+            threads.add(Thread.currentThread());
+        }, 4)) {
+            for (int i = 0; i < 100; i++) {
+                consumer.accept(i);
+            }
+        }
+        assertEquals(100, consumed.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) consumed.get(i));
+            assertNotSame(Thread.currentThread(), threads.get(i));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rethrowsFailures() {
+        try (AsyncConsumer<Integer> consumer = new AsyncConsumer<>(i -> {
+            throw new IllegalStateException("cannot write " + i);
+        }, 2)) {
+            for (int i = 0; i < 100; i++) {
+                consumer.accept(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.lagunex.twitter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TweetIdFilterTest {
+
+    @Test
+    public void dropsRepeatedTweets() {
+        TweetIdFilter filter = new TweetIdFilter(1000);
+        List<Tweet> written = new ArrayList<>();
+        ReplaySearch search = new ReplaySearch(100, 60_000, 0);
+        for (int i = 1; i <= 300; i++) {
+            search.add(i, (i <= 200 ? "#a " : "") + (i > 100 ? "#b " : "") + i);
+        }
+        TwitterClient client = new TwitterClient(search);
+        client.setMaxResults(1000);
+        client.search(Arrays.asList("#a", "#b"), 0, 0, 2, filter.filter(written::add));
+
+        assertEquals(300, written.size());
+        assertEquals(100, filter.getDuplicates());
+    }
+
+    @Test
+    public void forgetsTheOldestIdsWhenFull() {
+        TweetIdFilter filter = new TweetIdFilter(100);
+        for (long id = 1; id <= 101; id++) {
+            assertTrue(filter.isNew(id));
+        }
+        assertEquals(50, filter.size()); // 52..101
+        assertFalse(filter.isNew(101));
+        assertTrue(filter.isNew(10)); // forgotten, cannot be checked
+        assertEquals(1, filter.getUnchecked());
+    }
+
+    @Test
+    public void savesAndLoads() throws Exception {
+        Path file = Files.createTempFile("ids", ".bin");
+        Files.delete(file);
+        TweetIdFilter filter = TweetIdFilter.load(file, 1000);
+        for (long id = 562113053282426880L; id < 562113053282426880L + 500; id++) {
+            filter.isNew(id);
+        }
+        filter.isNew(0);
+        filter.save(file);
+
+        TweetIdFilter loaded = TweetIdFilter.load(file, 1000);
+        assertEquals(501, loaded.size());
+        assertFalse(loaded.isNew(0));
+        assertFalse(loaded.isNew(562113053282426880L + 499));
+        assertTrue(loaded.isNew(562113053282426880L + 500));
+
+        TweetIdFilter smaller = TweetIdFilter.load(file, 100);
+        assertEquals(50, smaller.size());
+        Files.delete(file);
+    }
+}
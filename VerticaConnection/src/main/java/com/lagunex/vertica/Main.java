@@ -1,14 +1,24 @@
 package com.lagunex.vertica;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.lagunex.util.BinaryRecordReader;
+import com.lagunex.util.BinaryRecordWriter;
+import com.lagunex.util.ChunkedLineReader;
+import com.lagunex.util.SentimentRecord;
+import com.lagunex.util.TweetRecord;
+
 // external dependencies used to parse the command line arguments
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -27,6 +37,13 @@ import org.apache.commons.cli.ParseException;
  * 
  * "null" columns will be added as NULL and any other "|" character that is not a split must be escaped.
  * 
+ * The input is read as UTF-8 in chunks of lines decoded ahead by other threads (see ChunkedLineReader), and each
+ * line is inserted by one of -c threads, so rows are not inserted in input order when -c is greater than 1.
+ * Files ending in .gz are decompressed.
+ * 
+ * With -B the input is binary records (see BinaryRecordWriter), e.g. the output of IdolSentimentAnalysis -B,
+ * and only the records of tableName are inserted, so the same file can be loaded into both tables.
+ * 
  * The output will indicate the number of rows inserted
  * 
  * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
@@ -36,7 +53,9 @@ public class Main {
 
     private enum Table {tweet, sentiment};
     private final Table table;
-    private final BufferedReader input;
+    private final int concurrency;
+    private final ChunkedLineReader input;
+    private final BinaryRecordReader binaryInput;
 
     /**
      * Entry poing of the application
@@ -52,14 +71,18 @@ public class Main {
         Options opt = getCliOptions();
         CommandLine cli = parseOptions(opt,args);
 
-        input = getBufferReader(cli);
+        concurrency = getConcurrency(cli);
+        binaryInput = concurrency < 1 || !cli.hasOption('B') ? null : getBinaryReader(cli);
+        input = concurrency < 1 || cli.hasOption('B') ? null : getLineReader(cli);
         table = getTableName(cli.getArgs()[0]);
-        if (input == null || table == null) printHelpAndExit(opt, -1);
+        if ((input == null && binaryInput == null) || table == null) printHelpAndExit(opt, -1);
     }
 
     private Options getCliOptions() {
         Options options = new Options();
-        options.addOption("i", "input", true, "Input file with records (default stdin)");
+        options.addOption("i", "input", true, "Input file with records, gzip-compressed if it ends in .gz (default stdin)");
+        options.addOption("c", "concurrency", true, "Number of threads that insert records in parallel (default 1)");
+        options.addOption("B", "binary", false, "Input is binary records instead of lines of text");
         options.addOption("h", "help", false, "Prints this message");
         return options;
     }
@@ -96,24 +119,59 @@ public class Main {
     }
 
     /**
-     * Returns a BufferedReader from stdin (default) or a filename if specified
+     * Returns a reader from stdin (default) or a filename if specified
+     * with -i option
+     * @param cli
+     * @return 
+     */
+    private ChunkedLineReader getLineReader(CommandLine cli) {
+        ChunkedLineReader reader = null;
+        if (cli.hasOption('i')) {
+            try {
+                reader = new ChunkedLineReader(Paths.get(cli.getOptionValue('i')), StandardCharsets.UTF_8, 0,
+                        concurrency, ChunkedLineReader.DEFAULT_CHUNK_SIZE);
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+                LOGGER.severe(ex.getMessage());
+            }
+        } else {
+           reader = new ChunkedLineReader(System.in, StandardCharsets.UTF_8, concurrency,
+                   ChunkedLineReader.DEFAULT_CHUNK_SIZE);
+        }
+        return reader;
+    }
+
+    /**
+     * Returns a binary reader from stdin (default) or a filename if specified
      * with -i option
      * @param cli
      * @return 
      */
-    private BufferedReader getBufferReader(CommandLine cli) {
-        BufferedReader br = null;
+    private BinaryRecordReader getBinaryReader(CommandLine cli) {
+        BinaryRecordReader reader = null;
         if (cli.hasOption('i')) {
             try {
-                br = new BufferedReader(new FileReader(cli.getOptionValue('i')));
-            } catch (FileNotFoundException ex) {
+                reader = new BinaryRecordReader(new FileInputStream(cli.getOptionValue('i')), 0);
+            } catch (IOException ex) {
                 System.err.println(ex.getMessage());
                 LOGGER.severe(ex.getMessage());
             }
         } else {
-           br = new BufferedReader(new InputStreamReader(System.in));
+            reader = new BinaryRecordReader(System.in, 0);
+        }
+        return reader;
+    }
+
+    // returns the value of -c or -1 if it is not a valid integer
+    private int getConcurrency(CommandLine cli) {
+        int value = -1;
+        try {
+            value = cli.hasOption('c') ? Integer.parseInt(cli.getOptionValue('c')) : 1;
+        } catch (NumberFormatException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.severe(ex.getMessage());
         }
-        return br;
+        return value;
     }
 
     // forces tableName to be a valid Table or null
@@ -127,30 +185,94 @@ public class Main {
         return table;
     }
 
+    /**
+     * Inserts the lines of the input with concurrency threads, one line at a time,
+     * keeping at most two lines per thread waiting
+     */
     private void insertRecords() {
+        if (binaryInput != null) {
+            insertBinaryRecords();
+            return;
+        }
         Vertica vertica = Vertica.getInstance();
-        String line = getNextLine();
-        int total = 0;
-        while(line != null) {
-            if (table.equals(Table.tweet)) {
-                total += vertica.insertTweetRecord(line);
-            } else {
-                total += vertica.insertSentimentRecord(line);
+        LongAdder total = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        Semaphore inFlight = new Semaphore(concurrency * 2);
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                String record = line;
+                submit(executor, inFlight, () -> total.add(table.equals(Table.tweet) ?
+                        vertica.insertTweetRecord(record) : vertica.insertSentimentRecord(record)));
             }
-            line = getNextLine();
-            System.err.print(".");
+        } catch(IOException e) {
+            LOGGER.severe(e.getMessage());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            awaitTermination(executor);
+            try { input.close(); } catch (IOException e) { LOGGER.warning(e.getMessage()); }
         }
-        System.out.println(total);
+        System.out.println(total.sum());
     }
 
-    // Encapsulates the reading process to handle Exception
-    private String getNextLine() {
-        String line = null;
+    /**
+     * Inserts the records of table in the binary input with concurrency threads,
+     * keeping at most two records per thread in memory
+     */
+    private void insertBinaryRecords() {
+        Vertica vertica = Vertica.getInstance();
+        LongAdder total = new LongAdder();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        Semaphore inFlight = new Semaphore(concurrency * 2);
+        int type = table.equals(Table.tweet) ? BinaryRecordWriter.TWEET : BinaryRecordWriter.SENTIMENT;
         try {
-            line = input.readLine();
+            int read;
+            while ((read = binaryInput.read()) >= 0) {
+                if (read != type) {
+                    continue;
+                }
+                Runnable insert;
+                if (read == BinaryRecordWriter.TWEET) {
+                    TweetRecord tweet = new TweetRecord(binaryInput.getTweet());
+                    insert = () -> total.add(vertica.insertTweet(tweet));
+                } else {
+                    SentimentRecord sentiment = new SentimentRecord(binaryInput.getSentiment());
+                    insert = () -> total.add(vertica.insertSentiment(sentiment));
+                }
+                submit(executor, inFlight, insert);
+            }
         } catch(IOException e) {
             LOGGER.severe(e.getMessage());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            awaitTermination(executor);
+            try { binaryInput.close(); } catch (IOException e) { LOGGER.warning(e.getMessage()); }
+        }
+        System.out.println(total.sum());
+    }
+
+    // runs insert in executor once fewer than the permits of inFlight are waiting or running
+    private static void submit(ExecutorService executor, Semaphore inFlight, Runnable insert)
+            throws InterruptedException {
+        inFlight.acquire();
+        executor.execute(() -> {
+            try {
+                insert.run();
+                System.err.print(".");
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return line;
     }
 }
@@ -1,6 +1,9 @@
 package com.lagunex.vertica;
 
+import com.lagunex.util.RecordCodec;
+import com.lagunex.util.SentimentRecord;
 import com.lagunex.util.StringUtils;
+import com.lagunex.util.TweetRecord;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
@@ -53,6 +56,8 @@ public class Vertica {
     }
 
     private final JdbcTemplate jdbcTemplate;
+    // records may be inserted by several threads
+    private final ThreadLocal<RecordCodec> codec = ThreadLocal.withInitial(RecordCodec::new);
 
     private Vertica() {
         checkSystemProperties();
@@ -99,7 +104,8 @@ public class Vertica {
         String query = "insert into tweet values (?,?,?,?,?,?)";
 
         // we should split by separator only when it is not escaped
-        Object[] args = tblRecord.split(String.format("(?<!\\\\)\\%s", separator));
+        RecordCodec record = getCodec(separator);
+        Object[] args = split(record, tblRecord);
         
         if (args.length != 6 && args.length != 4) { // invalid format
             LOGGER.log(Level.WARNING, "Invalid line: {0}", tblRecord);
@@ -107,8 +113,7 @@ public class Vertica {
         }
       
         // Restore the original message with unescaped characters and line breaks
-        String unescapedMessage = StringUtils.unescape(args[1].toString(), separator);
-        args[1] = StringUtils.uncollapseLines(unescapedMessage);
+        args[1] = record.decode(1).toString();
         if (args.length == 4) { // does not include aggregate data
             query = "insert into tweet (id, message, lang, created_at) values (?,?,?,?)";
         }
@@ -116,6 +121,18 @@ public class Vertica {
         return insertRecord(query, args);
     }
 
+    private RecordCodec getCodec(String separator) {
+        return separator.equals(StringUtils.SEPARATOR) ? codec.get() : new RecordCodec(separator.charAt(0));
+    }
+
+    private Object[] split(RecordCodec record, String tblRecord) {
+        Object[] fields = new Object[record.split(tblRecord)];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = record.getField(i);
+        }
+        return fields;
+    }
+
     /**
      * Insert a record following the insert query and returns the numbers of rows inserted
      * 
@@ -153,9 +170,11 @@ public class Vertica {
         String query = "insert into sentiment (tweet_id, sentiment, topic, score) values (?,?,?,?)";
 
         // we should split by separator only when it is not escaped
-        Object[] args = tblRecord.split(String.format("(?<!\\\\)\\%s", separator));
-        args[1] = nullValue.equals(args[1]) ? null : args[1];
-        args[2] = nullValue.equals(args[2]) ? null : args[2];
+        RecordCodec record = getCodec(separator);
+        Object[] args = split(record, tblRecord);
+        // sentiment and topic are fragments of the message, encoded like it
+        args[1] = nullValue.equals(args[1]) ? null : record.decode(1).toString();
+        args[2] = nullValue.equals(args[2]) ? null : record.decode(2).toString();
         
         return insertRecord(query, args);
     }
@@ -172,6 +191,34 @@ public class Vertica {
         return insertSentimentRecord(tblRecord, StringUtils.SEPARATOR, String.valueOf(nullValue));
     }
     
+    /**
+     * Insert a tweet read from a binary file, with or without aggregate
+     *
+     * @param tweet
+     * @return number of rows inserted
+     */
+    public int insertTweet(TweetRecord tweet) {
+        Timestamp createdAt = Timestamp.valueOf(tweet.getCreatedAtDateTime());
+        if (tweet.getAggregate() == null) {
+            return insertRecord("insert into tweet (id, message, lang, created_at) values (?,?,?,?)",
+                    tweet.getId(), tweet.getMessage(), tweet.getLanguage(), createdAt);
+        }
+        return insertRecord("insert into tweet values (?,?,?,?,?,?)",
+                tweet.getId(), tweet.getMessage(), tweet.getLanguage(), createdAt,
+                tweet.getAggregate(), tweet.getScore());
+    }
+
+    /**
+     * Insert a sentiment read from a binary file, null sentiment or topic are added as NULL
+     *
+     * @param sentiment
+     * @return number of rows inserted
+     */
+    public int insertSentiment(SentimentRecord sentiment) {
+        return insertRecord("insert into sentiment (tweet_id, sentiment, topic, score) values (?,?,?,?)",
+                sentiment.getTweetId(), sentiment.getSentiment(), sentiment.getTopic(), sentiment.getScore());
+    }
+
     /**
      * Return the aggregate sentiment (negative, neutral or positive) of tweets sent during the date range 
      * @param start inclusive
@@ -0,0 +1,65 @@
+package com.lagunex.util;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares RecordCodec with the StringUtils methods and the regular expressions it replaces,
+ * on a tweet with line breaks and escaped separators.
+ *
+ * Run with gradle :common:jmh
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordCodecBenchmark {
+    private static final String SPLIT_REGEX = "(?<!\\\\)\\|";
+
+    private final String message = "Best moment of #SB49 | when you have a Seahawks fan...\n"
+            + "and a Patriots fan in the same house | pic.twitter.com/abc \\";
+    private final String record = "562113053282426880|" + StringUtils.escape(StringUtils.collapseLines(message))
+            + "|en|2015-02-02 04:59:30|positive|0.6";
+    private final RecordCodec codec = new RecordCodec();
+    private final StringBuilder line = new StringBuilder(256);
+
+    @Benchmark
+    public String encodeStringUtils() {
+        return StringUtils.escape(StringUtils.collapseLines(message));
+    }
+
+    @Benchmark
+    public StringBuilder encodeCodec() {
+        line.setLength(0);
+        return codec.encode(message, line);
+    }
+
+    @Benchmark
+    public void decodeStringUtils(Blackhole blackhole) {
+        String[] fields = record.split(SPLIT_REGEX);
+        blackhole.consume(fields[0]);
+        blackhole.consume(StringUtils.uncollapseLines(StringUtils.unescape(fields[1])));
+        blackhole.consume(fields[5]);
+    }
+
+    @Benchmark
+    public void decodeCodec(Blackhole blackhole) {
+        codec.split(record);
+        blackhole.consume(codec.parseLong(0));
+        blackhole.consume(codec.decode(1));
+        blackhole.consume(codec.getStart(5));
+    }
+}
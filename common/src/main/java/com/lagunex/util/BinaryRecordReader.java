@@ -0,0 +1,204 @@
+package com.lagunex.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the frames written by BinaryRecordWriter and knows the byte offset where the next one starts,
+ * so a file can be reopened later at that position.
+ *
+ * The records returned are reused by the next frames; copy them to keep them.
+ *
+ * This class is not thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class BinaryRecordReader implements Closeable {
+    private final InputStream in;
+    private final TweetRecord tweet = new TweetRecord();
+    private final SentimentRecord sentiment = new SentimentRecord();
+    private byte[] payload = new byte[512];
+    private int position, length;
+    private long offset;
+
+    /**
+     *
+     * @param in stream positioned at startOffset
+     * @param startOffset offset of the first byte of in, e.g. the position a file was opened at
+     */
+    public BinaryRecordReader(InputStream in, long startOffset) {
+        this.in = new BufferedInputStream(in, 64 * 1024);
+        this.offset = startOffset;
+    }
+
+    /**
+     * Reads the next frame of a known type
+     *
+     * @return BinaryRecordWriter.TWEET, BinaryRecordWriter.SENTIMENT or -1 at the end of the stream
+     * @throws IOException if the stream ends in the middle of a frame or a frame is not valid
+     */
+    public int read() throws IOException {
+        while (true) {
+            int first = in.read();
+            if (first < 0) {
+                return -1;
+            }
+            long frameLength = first & 0x7F;
+            int bytes = 1;
+            for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+                first = in.read();
+                if (first < 0) {
+                    throw new EOFException("Incomplete frame at offset " + offset);
+                }
+                frameLength |= (long)(first & 0x7F) << shift;
+                bytes++;
+            }
+            if (frameLength == 0 || frameLength > Integer.MAX_VALUE - 8) {
+                throw new IOException("Invalid frame length " + frameLength + " at offset " + offset);
+            }
+            length = (int)frameLength;
+            if (payload.length < length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            for (int read = 0; read < length; ) {
+                int n = in.read(payload, read, length - read);
+                if (n < 0) {
+                    throw new EOFException("Incomplete frame at offset " + offset);
+                }
+                read += n;
+            }
+            long frameOffset = offset;
+            offset += bytes + length;
+            position = 0;
+            try {
+                int type = readByte();
+                if (type == BinaryRecordWriter.TWEET) {
+                    readTweet();
+                    return type;
+                } else if (type == BinaryRecordWriter.SENTIMENT) {
+                    readSentiment();
+                    return type;
+                }
+            } catch (ArrayIndexOutOfBoundsException ex) {
+                throw new IOException("Invalid frame at offset " + frameOffset, ex);
+            }
+        }
+    }
+
+    private void readTweet() throws IOException {
+        tweet.setId(readVarLong());
+        long zigzag = readVarLong();
+        tweet.setCreatedAt((zigzag >>> 1) ^ -(zigzag & 1));
+        tweet.setLanguage(readCode(BinaryRecordWriter.LANGUAGES));
+        tweet.setMessage(readString());
+        String aggregate = readCode(BinaryRecordWriter.AGGREGATES);
+        tweet.setAggregate(aggregate, aggregate == null ? 0 : readDouble());
+        checkEnd();
+    }
+
+    private void readSentiment() throws IOException {
+        sentiment.setTweetId(readVarLong())
+                 .setSentiment(readString())
+                 .setTopic(readString())
+                 .setScore(readDouble());
+        checkEnd();
+    }
+
+    private void checkEnd() throws IOException {
+        if (position != length) {
+            throw new IOException("Invalid frame before offset " + offset);
+        }
+    }
+
+    private int readByte() {
+        if (position >= length) {
+            throw new ArrayIndexOutOfBoundsException(position);
+        }
+        return payload[position++] & 0xFF;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ArrayIndexOutOfBoundsException("varint too long");
+    }
+
+    private double readDouble() {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | readByte();
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private String readString() {
+        long bytes = readVarLong() - 1;
+        if (bytes < 0) {
+            return null;
+        }
+        if (bytes > length - position) {
+            throw new ArrayIndexOutOfBoundsException(position);
+        }
+        String value = new String(payload, position, (int)bytes, StandardCharsets.UTF_8);
+        position += bytes;
+        return value;
+    }
+
+    private String readCode(String[] codes) {
+        int code = readByte();
+        if (code == 0) {
+            return null;
+        } else if (code == BinaryRecordWriter.OTHER) {
+            return readString();
+        } else if (code > codes.length) {
+            throw new ArrayIndexOutOfBoundsException("unknown code " + code);
+        }
+        return codes[code - 1];
+    }
+
+    /**
+     * @return the tweet of the last TWEET frame read
+     */
+    public TweetRecord getTweet() {
+        return tweet;
+    }
+
+    /**
+     * @return the sentiment of the last SENTIMENT frame read
+     */
+    public SentimentRecord getSentiment() {
+        return sentiment;
+    }
+
+    /**
+     *
+     * @return offset of the first byte after the last frame read, where the next frame starts
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     *
+     * @return true if the next frame has started to arrive
+     * @throws IOException
+     */
+    public boolean ready() throws IOException {
+        return in.available() > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,211 @@
+package com.lagunex.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes tweet and sentiment records in a compact binary format, so the stages of the pipeline do not
+ * format and parse text at every hop. The stream is a sequence of frames:
+ *
+ * frame     := length payload           length of the payload as a varint
+ * payload   := TWEET tweet | SENTIMENT sentiment
+ * tweet     := id createdAt language message aggregate [score]
+ * sentiment := tweetId string string score      sentiment and topic
+ *
+ * Ids and lengths are unsigned varints (7 bits per byte, least significant first), createdAt is a zigzag varint
+ * of seconds since the epoch in UTC and scores are raw big endian doubles. Strings are a varint of their length
+ * in bytes plus one, 0 for null, followed by their UTF-8 bytes. Languages and aggregates are the index of their
+ * code in LANGUAGES or AGGREGATES plus one, 0 for null, or OTHER followed by the string. Score is only present
+ * when the tweet has an aggregate.
+ *
+ * Readers skip frames of unknown types, so new types can be added. Codes can only be appended to the tables.
+ *
+ * This class is not thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class BinaryRecordWriter implements Closeable, Flushable {
+    public static final int TWEET = 1;
+    public static final int SENTIMENT = 2;
+    static final int OTHER = 0xFF;
+    static final String[] LANGUAGES = {
+        "en", "es", "fr", "de", "it", "pt", "nl", "ru", "ja", "ko", "zh", "ar", "tr", "in", "th", "tl",
+        "pl", "sv", "fi", "da", "no", "hi", "fa", "el", "und"
+    };
+    static final String[] AGGREGATES = {"positive", "negative", "neutral"};
+
+    private final OutputStream out;
+    private byte[] payload = new byte[512];
+    private int length;
+    private long size;
+
+    /**
+     *
+     * @param out stream to write to, buffered by the writer
+     */
+    public BinaryRecordWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    /**
+     * Writes a tweet frame
+     *
+     * @param tweet
+     * @throws IOException
+     */
+    public void write(TweetRecord tweet) throws IOException {
+        length = 0;
+        writeByte(TWEET);
+        writeVarLong(tweet.getId());
+        writeVarLong((tweet.getCreatedAt() << 1) ^ (tweet.getCreatedAt() >> 63));
+        writeCode(tweet.getLanguage(), LANGUAGES);
+        writeString(tweet.getMessage());
+        writeCode(tweet.getAggregate(), AGGREGATES);
+        if (tweet.getAggregate() != null) {
+            writeDouble(tweet.getScore());
+        }
+        writeFrame();
+    }
+
+    /**
+     * Writes a sentiment frame
+     *
+     * @param sentiment
+     * @throws IOException
+     */
+    public void write(SentimentRecord sentiment) throws IOException {
+        length = 0;
+        writeByte(SENTIMENT);
+        writeVarLong(sentiment.getTweetId());
+        writeString(sentiment.getSentiment());
+        writeString(sentiment.getTopic());
+        writeDouble(sentiment.getScore());
+        writeFrame();
+    }
+
+    private void writeFrame() throws IOException {
+        long value = length;
+        do {
+            int b = (int)(value & 0x7F);
+            value >>>= 7;
+            out.write(value == 0 ? b : b | 0x80);
+            size++;
+        } while (value != 0);
+        out.write(payload, 0, length);
+        size += length;
+    }
+
+    private void ensure(int bytes) {
+        if (length + bytes > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(payload.length * 2, length + bytes));
+        }
+    }
+
+    private void writeByte(int b) {
+        ensure(1);
+        payload[length++] = (byte)b;
+    }
+
+    private void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            payload[length++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        payload[length++] = (byte)value;
+    }
+
+    private void writeDouble(double value) {
+        ensure(8);
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            payload[length++] = (byte)(bits >>> shift);
+        }
+    }
+
+    private void writeCode(String value, String[] codes) {
+        if (value == null) {
+            writeByte(0);
+            return;
+        }
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i].equals(value)) {
+                writeByte(i + 1);
+                return;
+            }
+        }
+        writeByte(OTHER);
+        writeString(value);
+    }
+
+    // encodes UTF-8 straight into the payload, unpaired surrogates become '?' like in String.getBytes
+    private void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        writeVarLong(bytes + 1L);
+        ensure(bytes);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                payload[length++] = (byte)c;
+            } else if (c < 0x800) {
+                payload[length++] = (byte)(0xC0 | (c >> 6));
+                payload[length++] = (byte)(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                payload[length++] = (byte)(0xF0 | (codePoint >> 18));
+                payload[length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                payload[length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                payload[length++] = (byte)(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                payload[length++] = '?';
+            } else {
+                payload[length++] = (byte)(0xE0 | (c >> 12));
+                payload[length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                payload[length++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     *
+     * @return number of bytes written so far, including the ones still buffered
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
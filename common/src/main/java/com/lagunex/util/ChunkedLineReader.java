@@ -0,0 +1,498 @@
+package com.lagunex.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads large inputs in chunks of whole lines that are decoded in parallel.
+ *
+ * Files are memory-mapped one chunk at a time, so they are not read through the buffers of a stream and the workers
+ * fault the pages in by themselves. Each worker copies a mapped chunk once into a buffer of its own to scan it.
+ * Files whose name ends in .gz and other streams are decompressed and read sequentially, but their lines are still
+ * decoded by the workers. Each chunk ends after the last \n that fits in it, or grows until one is found.
+ *
+ * forEach() hands the lines to the workers in any order, for consumers that can run in parallel. readLine() returns
+ * them in input order together with their offsets, like OffsetLineReader, while the next chunks are decoded ahead.
+ * A reader is used in only one of both ways. Offsets of gzip files are offsets in the decompressed data.
+ *
+ * Lines end with \n or \r\n and the terminator is not returned. The charset must encode '\n' and '\r' as single
+ * bytes, like UTF-8, which is the default.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class ChunkedLineReader implements LineReader {
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+    private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE - 8;
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final CompletableFuture<Lines> END = CompletableFuture.completedFuture(null);
+
+    private final Chunker chunker;
+    private final Charset charset;
+    private final int threads;
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+    private ExecutorService decoders;
+    // ordered mode
+    private Thread producer;
+    private BlockingQueue<CompletableFuture<Lines>> decoded;
+    private Lines current;
+    private int next;
+    private long offset;
+    private boolean finished;
+
+    /**
+     * Reads file as UTF-8 from its beginning, with one worker per processor
+     *
+     * @param file
+     * @throws IOException
+     */
+    public ChunkedLineReader(Path file) throws IOException {
+        this(file, StandardCharsets.UTF_8, 0);
+    }
+
+    /**
+     * Reads file with one worker per processor
+     *
+     * @param file
+     * @param charset
+     * @param startOffset offset of the first byte to read, e.g. the offset of a checkpoint
+     * @throws IOException
+     */
+    public ChunkedLineReader(Path file, Charset charset, long startOffset) throws IOException {
+        this(file, charset, startOffset, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     *
+     * @param file file to map, or to decompress if its name ends in .gz
+     * @param charset
+     * @param startOffset offset of the first byte to read, e.g. the offset of a checkpoint
+     * @param threads number of workers that decode chunks
+     * @param chunkSize bytes per chunk unless a line is longer
+     * @throws IOException
+     */
+    public ChunkedLineReader(Path file, Charset charset, long startOffset, int threads, int chunkSize)
+            throws IOException {
+        this(file.getFileName().toString().endsWith(GZIP_SUFFIX) ?
+                new StreamChunker(new GZIPInputStream(Files.newInputStream(file), 64 * 1024), startOffset, chunkSize) :
+                new MappedChunker(FileChannel.open(file, StandardOpenOption.READ), startOffset, chunkSize),
+                charset, startOffset, threads);
+    }
+
+    /**
+     *
+     * @param in stream to read sequentially, e.g. stdin
+     * @param charset
+     * @param threads number of workers that decode chunks
+     * @param chunkSize bytes per chunk unless a line is longer
+     */
+    public ChunkedLineReader(InputStream in, Charset charset, int threads, int chunkSize) {
+        this(new StreamChunker(in, 0, chunkSize), charset, 0, threads);
+    }
+
+    private ChunkedLineReader(Chunker chunker, Charset charset, long startOffset, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be greater than zero");
+        }
+        this.chunker = chunker;
+        this.charset = charset;
+        this.offset = startOffset;
+        this.threads = threads;
+    }
+
+    private void start() {
+        if (decoders != null) {
+            throw new IllegalStateException("The reader was already used");
+        }
+        decoders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "chunk-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Calls action with every line from the workers, in no particular order, and waits until all of them
+     * are consumed. action must be thread safe. Each chunk goes to a single worker, so an input of fewer
+     * chunks than workers is not consumed by all of them; use readLine() to spread single lines instead
+     *
+     * @param action
+     * @return number of lines read
+     * @throws IOException
+     */
+    public long forEach(Consumer<String> action) throws IOException {
+        start();
+        Semaphore inFlight = new Semaphore(threads * 2);
+        LongAdder lines = new LongAdder();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            Chunk chunk;
+            while (failure.get() == null && (chunk = chunker.next()) != null) {
+                inFlight.acquire();
+                Chunk toDecode = chunk;
+                decoders.execute(() -> {
+                    try {
+                        decode(toDecode, (line, end) -> {
+                            action.accept(line);
+                            lines.increment();
+                        });
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            decoders.shutdown();
+            decoders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading");
+        } finally {
+            decoders.shutdownNow();
+        }
+        Throwable t = failure.get();
+        if (t instanceof UncheckedIOException) {
+            throw ((UncheckedIOException)t).getCause();
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException)t;
+        } else if (t instanceof Error) {
+            throw (Error)t;
+        }
+        return lines.sum();
+    }
+
+    // reads chunks in a thread of its own while the previous ones are decoded and consumed
+    private void startOrdered() {
+        start();
+        decoded = new ArrayBlockingQueue<>(threads * 2);
+        producer = new Thread(() -> {
+            try {
+                Chunk chunk;
+                while ((chunk = chunker.next()) != null) {
+                    Chunk toDecode = chunk;
+                    decoded.put(CompletableFuture.supplyAsync(() -> decode(toDecode), decoders));
+                }
+                decoded.put(END);
+            } catch (IOException ex) {
+                CompletableFuture<Lines> failed = new CompletableFuture<>();
+                failed.completeExceptionally(ex);
+                try {
+                    decoded.put(failed);
+                } catch (InterruptedException closed) {
+                    // nobody reads anymore
+                }
+            } catch (InterruptedException ex) {
+                // closed
+            }
+        }, "chunk-reader");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (producer == null) {
+            startOrdered();
+        }
+        while (current == null || next == current.size) {
+            if (finished) {
+                return null;
+            }
+            current = take();
+            next = 0;
+            if (current == null) {
+                finished = true;
+                return null;
+            }
+        }
+        offset = current.offset + current.ends[next];
+        return current.lines[next++];
+    }
+
+    private Lines take() throws IOException {
+        try {
+            return decoded.take().join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading");
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException)ex.getCause();
+            } else if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException)ex.getCause()).getCause();
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     *
+     * @return true if the next line is already decoded
+     */
+    @Override
+    public boolean ready() {
+        if (producer == null) {
+            startOrdered();
+        }
+        if (finished) {
+            return false;
+        }
+        if (current != null && next < current.size) {
+            return true;
+        }
+        CompletableFuture<Lines> head = decoded.peek();
+        return head != null && head.isDone() && head != END;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (producer != null) {
+            producer.interrupt();
+        }
+        if (decoders != null) {
+            decoders.shutdownNow();
+        }
+        chunker.close();
+    }
+
+    private Lines decode(Chunk chunk) {
+        Lines lines = new Lines(chunk.offset);
+        decode(chunk, lines::add);
+        return lines;
+    }
+
+    private void decode(Chunk chunk, LineConsumer consumer) {
+        ByteBuffer bytes = chunk.bytes;
+        int length = bytes.remaining();
+        byte[] array;
+        int base;
+        if (bytes.hasArray()) {
+            array = bytes.array();
+            base = bytes.arrayOffset() + bytes.position();
+        } else {
+            array = buffers.get();
+            if (array == null || array.length < length) {
+                array = new byte[Math.max(length, DEFAULT_CHUNK_SIZE)];
+                buffers.set(array);
+            }
+            bytes.duplicate().get(array, 0, length);
+            base = 0;
+        }
+        int start = base;
+        int limit = base + length;
+        for (int i = base; i < limit; i++) {
+            if (array[i] == '\n') {
+                consumer.accept(line(array, start, i), i + 1 - base);
+                start = i + 1;
+            }
+        }
+        if (start < limit) {
+            consumer.accept(line(array, start, limit), length);
+        }
+    }
+
+    private String line(byte[] array, int start, int end) {
+        if (end > start && array[end - 1] == '\r') {
+            end--;
+        }
+        return new String(array, start, end - start, charset);
+    }
+
+    private interface LineConsumer {
+        void accept(String line, int end);
+    }
+
+    // bytes of whole lines and the offset of their first byte
+    private static class Chunk {
+        private final ByteBuffer bytes;
+        private final long offset;
+
+        Chunk(ByteBuffer bytes, long offset) {
+            this.bytes = bytes;
+            this.offset = offset;
+        }
+    }
+
+    // decoded lines of a chunk and the offsets, relative to the chunk, where each one ends
+    private static class Lines {
+        private final long offset;
+        private String[] lines = new String[1024];
+        private int[] ends = new int[1024];
+        private int size;
+
+        Lines(long offset) {
+            this.offset = offset;
+        }
+
+        void add(String line, int end) {
+            if (size == lines.length) {
+                lines = Arrays.copyOf(lines, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            lines[size] = line;
+            ends[size++] = end;
+        }
+    }
+
+    private interface Chunker extends Closeable {
+        /**
+         * @return the next chunk or null at the end of the input
+         */
+        Chunk next() throws IOException;
+    }
+
+    private static int afterLastNewline(ByteBuffer bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static class MappedChunker implements Chunker {
+        private final FileChannel channel;
+        private final long size;
+        private final int chunkSize;
+        private long position;
+
+        MappedChunker(FileChannel channel, long startOffset, int chunkSize) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.chunkSize = chunkSize;
+            this.position = startOffset;
+        }
+
+        @Override
+        public Chunk next() throws IOException {
+            if (position >= size) {
+                return null;
+            }
+            long length = Math.min(chunkSize, size - position);
+            while (true) {
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = position + length == size ? (int)length : afterLastNewline(bytes, (int)length);
+                if (end > 0) {
+                    bytes.limit(end);
+                    Chunk chunk = new Chunk(bytes, position);
+                    position += end;
+                    return chunk;
+                }
+                if (length == MAX_CHUNK_SIZE) {
+                    throw new IOException("Line longer than " + MAX_CHUNK_SIZE + " bytes at offset " + position);
+                }
+                length = Math.min(Math.min(length * 2, MAX_CHUNK_SIZE), size - position);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class StreamChunker implements Chunker {
+        private final InputStream in;
+        private final int chunkSize;
+        private final long startOffset;
+        private byte[] carry = new byte[0];
+        private int carryLength;
+        private long position;
+        private boolean skipped, eof;
+
+        StreamChunker(InputStream in, long startOffset, int chunkSize) {
+            this.in = in;
+            this.chunkSize = chunkSize;
+            this.startOffset = startOffset;
+            this.position = startOffset;
+        }
+
+        private void skip() throws IOException {
+            long remaining = startOffset;
+            while (remaining > 0) {
+                long n = in.skip(remaining);
+                if (n <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("Input is shorter than offset " + startOffset);
+                    }
+                    n = 1;
+                }
+                remaining -= n;
+            }
+            skipped = true;
+        }
+
+        @Override
+        public Chunk next() throws IOException {
+            if (!skipped) {
+                skip();
+            }
+            byte[] buffer = new byte[Math.max(chunkSize, carryLength)];
+            System.arraycopy(carry, 0, buffer, 0, carryLength);
+            int filled = carryLength;
+            int end = -1;
+            while (end < 0 && !eof) {
+                if (filled == buffer.length) {
+                    if (buffer.length == MAX_CHUNK_SIZE) {
+                        throw new IOException("Line longer than " + MAX_CHUNK_SIZE + " bytes at offset " + position);
+                    }
+                    buffer = Arrays.copyOf(buffer, (int)Math.min(buffer.length * 2L, MAX_CHUNK_SIZE));
+                }
+                int read = in.read(buffer, filled, buffer.length - filled);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    filled += read;
+                    if (filled == buffer.length) {
+                        end = afterLastNewline(ByteBuffer.wrap(buffer), filled);
+                    }
+                }
+            }
+            if (end < 0) { // the end of the input
+                end = filled;
+            }
+            if (end == 0) {
+                return null;
+            }
+            carryLength = filled - end;
+            carry = Arrays.copyOfRange(buffer, end, filled);
+            Chunk chunk = new Chunk(ByteBuffer.wrap(buffer, 0, end), position);
+            position += end;
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
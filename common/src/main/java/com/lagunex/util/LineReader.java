@@ -0,0 +1,33 @@
+package com.lagunex.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of lines that knows the byte offset where the next line starts
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public interface LineReader extends Closeable {
+
+    /**
+     *
+     * @return the next line without its terminator, or null at the end of the input
+     * @throws IOException
+     */
+    String readLine() throws IOException;
+
+    /**
+     *
+     * @return offset of the first byte after the last line returned, where the next line starts
+     */
+    long getOffset();
+
+    /**
+     *
+     * @return true if the next line can be returned without waiting, false if reading it may wait
+     *         or if the input is over
+     * @throws IOException
+     */
+    boolean ready() throws IOException;
+}
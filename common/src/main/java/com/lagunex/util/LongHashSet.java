@@ -0,0 +1,181 @@
+package com.lagunex.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Set of primitive longs with open addressing and linear probing, e.g. for tweet ids.
+ *
+ * Each id takes 8 bytes of a table that is between 3/8 and 3/4 full, 11 to 21 bytes per id, instead of
+ * the 50 bytes or more of a boxed Long in a HashSet. Nothing is allocated per id.
+ *
+ * This class is not thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class LongHashSet {
+    private static final long EMPTY = 0; // 0 itself is kept in hasZero
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     *
+     * @param expectedSize number of values the set can hold before it grows
+     */
+    public LongHashSet(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Too many values: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    // Fibonacci hashing: the multiplication spreads the low bits, which are mostly 0 in tweet ids
+    private int slot(long value) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     *
+     * @param value
+     * @return true if value was not in the set
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (hasZero) return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int i = slot(value);
+        for (long current = table[i]; current != EMPTY; current = table[i]) {
+            if (current == value) return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        if (++size > table.length * 3 / 4) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return hasZero;
+        }
+        int i = slot(value);
+        for (long current = table[i]; current != EMPTY; current = table[i]) {
+            if (current == value) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        allocate(capacity);
+        for (long value : old) {
+            if (value != EMPTY) {
+                int i = slot(value);
+                while (table[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Removes the values that match filter and shrinks the table to the values left
+     *
+     * @param filter
+     * @return number of values removed
+     */
+    public int removeIf(LongPredicate filter) {
+        long[] old = table;
+        int before = size;
+        boolean keepZero = hasZero && !filter.test(EMPTY);
+        size = 0;
+        for (long value : old) {
+            if (value != EMPTY && !filter.test(value)) {
+                old[size++] = value; // compacts in place, the table is rebuilt below
+            }
+        }
+        long[] kept = Arrays.copyOf(old, size);
+        allocate(capacityFor(size + (keepZero ? 1 : 0)));
+        hasZero = false;
+        size = 0;
+        for (long value : kept) {
+            add(value);
+        }
+        if (keepZero) add(EMPTY);
+        return before - size;
+    }
+
+    /**
+     * Passes every value to action, in no particular order
+     *
+     * @param action
+     */
+    public void forEach(LongConsumer action) {
+        if (hasZero) action.accept(EMPTY);
+        for (long value : table) {
+            if (value != EMPTY) action.accept(value);
+        }
+    }
+
+    /**
+     *
+     * @return a new array with the values, in no particular order
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        int[] n = {0};
+        forEach(value -> values[n[0]++] = value);
+        return values;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        hasZero = false;
+        size = 0;
+    }
+
+    /**
+     *
+     * @return bytes used by the table
+     */
+    public long getMemory() {
+        return table.length * 8L;
+    }
+}
@@ -0,0 +1,107 @@
+package com.lagunex.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads lines from a stream and knows the byte offset where the next line starts,
+ * so a file can be reopened later at that position.
+ *
+ * Lines end with \n or \r\n and the terminator is not returned. The charset must encode '\n' and '\r'
+ * as single bytes, like UTF-8, ISO-8859-1 or the default charset of most platforms.
+ *
+ * This class is not thread safe.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class OffsetLineReader implements LineReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final Charset charset;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    private int position, limit;
+    private long offset;
+
+    /**
+     *
+     * @param in stream positioned at startOffset
+     * @param charset
+     * @param startOffset offset of the first byte of in, e.g. the position a file was opened at
+     */
+    public OffsetLineReader(InputStream in, Charset charset, long startOffset) {
+        this.in = in;
+        this.charset = charset;
+        this.offset = startOffset;
+    }
+
+    /**
+     *
+     * @return the next line without its terminator, or null at the end of the stream
+     * @throws IOException
+     */
+    @Override
+    public String readLine() throws IOException {
+        line.reset();
+        while (true) {
+            if (position == limit && !fill()) {
+                return line.size() == 0 ? null : decode();
+            }
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+            line.write(buffer, start, position - start);
+            offset += position - start;
+            if (position < limit) { // found \n
+                position++;
+                offset++;
+                return decode();
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer);
+        while (read == 0) {
+            read = in.read(buffer);
+        }
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private String decode() {
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, charset);
+    }
+
+    /**
+     *
+     * @return true if the next line has started to arrive, false if reading it may wait, e.g. for the
+     *         writer of a pipe, or if the stream is over
+     * @throws IOException
+     */
+    @Override
+    public boolean ready() throws IOException {
+        return position < limit || in.available() > 0;
+    }
+
+    /**
+     *
+     * @return offset of the first byte after the last line returned, where the next line starts
+     */
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,262 @@
+package com.lagunex.util;
+
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes records of fields separated by a reserved character, "|" by default, in a single pass
+ * over their characters and without regular expressions.
+ *
+ * The format is the same of StringUtils: messages have their line breaks collapsed into the string "\n",
+ * the separator escaped with a backslash and a final backslash followed by a space. A record is split
+ * by the separators that are not preceded by a backslash, like String.split("(?<!\\\\)\\|").
+ *
+ * split() only keeps the offsets of the fields. Their content can be compared, parsed or decoded into a buffer
+ * that is reused by the following calls, so a record can be consumed without creating Strings for its fields.
+ *
+ * This class is not thread safe, every thread should use its own codec.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class RecordCodec {
+    private static final char ESCAPE = '\\';
+
+    private final char separator;
+    private final StringBuilder decoded = new StringBuilder(256);
+    private CharSequence record;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int fields;
+
+    /**
+     * Codec of records separated by StringUtils.SEPARATOR
+     */
+    public RecordCodec() {
+        this(StringUtils.SEPARATOR.charAt(0));
+    }
+
+    /**
+     *
+     * @param separator reserved character that separates the fields
+     */
+    public RecordCodec(char separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * Appends message to out with its line breaks collapsed and its separators escaped.
+     * Same as StringUtils.escape(StringUtils.collapseLines(message), separator)
+     *
+     * @param message
+     * @param out
+     * @return out
+     */
+    public StringBuilder encode(CharSequence message, StringBuilder out) {
+        int start = out.length();
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '\n') {
+                out.append(ESCAPE).append('n');
+            } else if (c == separator) {
+                out.append(ESCAPE).append(c);
+            } else {
+                out.append(c);
+            }
+        }
+        // a final backslash would escape the next separator
+        int escape = findAtEnd(out, start, out.length(), ESCAPE, (char)0);
+        if (escape >= 0) {
+            out.insert(escape + 1, ' ');
+        }
+        return out;
+    }
+
+    /**
+     * Splits record by the separators that are not escaped. Empty fields at the end are dropped,
+     * and a record without separators is a single field
+     *
+     * @param record
+     * @return number of fields
+     */
+    public int split(CharSequence record) {
+        this.record = record;
+        fields = 0;
+        int start = 0;
+        int length = record.length();
+        for (int i = 0; i < length; i++) {
+            if (record.charAt(i) == separator && (i == 0 || record.charAt(i - 1) != ESCAPE)) {
+                add(start, i);
+                start = i + 1;
+            }
+        }
+        if (fields == 0) {
+            add(0, length);
+        } else {
+            add(start, length);
+            while (fields > 0 && starts[fields - 1] == ends[fields - 1]) {
+                fields--;
+            }
+        }
+        return fields;
+    }
+
+    private void add(int start, int end) {
+        if (fields == starts.length) {
+            starts = Arrays.copyOf(starts, fields * 2);
+            ends = Arrays.copyOf(ends, fields * 2);
+        }
+        starts[fields] = start;
+        ends[fields++] = end;
+    }
+
+    /**
+     *
+     * @return number of fields of the last record split
+     */
+    public int getFields() {
+        return fields;
+    }
+
+    /**
+     *
+     * @param field
+     * @return offset of the first character of field in the record
+     */
+    public int getStart(int field) {
+        checkField(field);
+        return starts[field];
+    }
+
+    /**
+     *
+     * @param field
+     * @return offset after the last character of field in the record
+     */
+    public int getEnd(int field) {
+        checkField(field);
+        return ends[field];
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fields) {
+            throw new IndexOutOfBoundsException("Field " + field + " of " + fields);
+        }
+    }
+
+    /**
+     *
+     * @param field
+     * @return a copy of field as it is in the record
+     */
+    public String getField(int field) {
+        return record.subSequence(getStart(field), getEnd(field)).toString();
+    }
+
+    /**
+     *
+     * @param field
+     * @param value
+     * @return true if field is value, without copying it
+     */
+    public boolean fieldEquals(int field, CharSequence value) {
+        int start = getStart(field);
+        int length = getEnd(field) - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (record.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param field
+     * @return field as a decimal number, without copying it
+     * @throws NumberFormatException if field is not a decimal long
+     */
+    public long parseLong(int field) {
+        int start = getStart(field);
+        int end = getEnd(field);
+        boolean negative = start < end && record.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException("For input string: \"" + getField(field) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = record.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException("For input string: \"" + getField(field) + "\"");
+            }
+            value = value * 10 - digit; // accumulated negatively to reach Long.MIN_VALUE
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            throw new NumberFormatException("For input string: \"" + getField(field) + "\"");
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Restores the message of field: separators unescaped and line breaks expanded.
+     * Same as StringUtils.uncollapseLines(StringUtils.unescape(field, separator))
+     *
+     * @param field
+     * @return a buffer with the message, valid until the next call
+     */
+    public CharSequence decode(int field) {
+        int start = getStart(field);
+        int end = getEnd(field);
+        decoded.setLength(0);
+        // the space added after a final backslash, if any
+        int space = findAtEnd(record, start, end, ESCAPE, ' ');
+        space = space < 0 ? -1 : space + 1;
+        for (int i = start; i < end; i++) {
+            char c = record.charAt(i);
+            if (c == ESCAPE && i + 1 < end && record.charAt(i + 1) == separator) {
+                decoded.append(separator);
+                i++;
+            } else if (c == ESCAPE && i + 1 < end && record.charAt(i + 1) == 'n') {
+                decoded.append('\n');
+                i++;
+            } else if (i != space) {
+                decoded.append(c);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Finds the first occurrence of first followed by second (if not 0) where the regular expression "$"
+     * matches in s between start and end: at the end, before a final line terminator or before a final \r\n
+     *
+     * @return offset of first or -1
+     */
+    private static int findAtEnd(CharSequence s, int start, int end, char first, char second) {
+        int length = second == 0 ? 1 : 2;
+        for (int position = Math.max(start, end - 2); position <= end; position++) {
+            if (isEndOfInput(s, start, end, position) && position - length >= start
+                    && s.charAt(position - length) == first && (second == 0 || s.charAt(position - 1) == second)) {
+                return position - length;
+            }
+        }
+        return -1;
+    }
+
+    // same as java.util.regex "$" without MULTILINE nor UNIX_LINES
+    private static boolean isEndOfInput(CharSequence s, int start, int end, int position) {
+        if (position == end) {
+            return true;
+        }
+        char c = s.charAt(position);
+        if (position == end - 2) {
+            return c == '\r' && s.charAt(position + 1) == '\n';
+        }
+        if (c == '\n') {
+            return position == start || s.charAt(position - 1) != '\r';
+        }
+        return c == '\r' || c == '\u0085' || (c | 1) == '\u2029';
+    }
+}
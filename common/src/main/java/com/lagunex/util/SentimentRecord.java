@@ -0,0 +1,101 @@
+package com.lagunex.util;
+
+/**
+ * A row of the sentiment table: tweet_id|sentiment|topic|score, where the string "null" is a NULL
+ * sentiment or topic.
+ *
+ * Records are mutable so readers can reuse them.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class SentimentRecord {
+    public static final String NULL = "null";
+
+    private long tweetId;
+    private String sentiment;
+    private String topic;
+    private double score;
+
+    public SentimentRecord() {
+    }
+
+    public SentimentRecord(SentimentRecord other) {
+        tweetId = other.tweetId;
+        sentiment = other.sentiment;
+        topic = other.topic;
+        score = other.score;
+    }
+
+    /**
+     * Reads the columns of the last record split by codec
+     *
+     * @param codec
+     * @return this
+     * @throws IllegalArgumentException if the record does not have 4 valid columns
+     */
+    public SentimentRecord parse(RecordCodec codec) {
+        if (codec.getFields() != 4) {
+            throw new IllegalArgumentException("Expected 4 columns but found " + codec.getFields());
+        }
+        try {
+            tweetId = codec.parseLong(0);
+            sentiment = codec.fieldEquals(1, NULL) ? null : codec.decode(1).toString();
+            topic = codec.fieldEquals(2, NULL) ? null : codec.decode(2).toString();
+            score = Double.parseDouble(codec.getField(3));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+        return this;
+    }
+
+    /**
+     * Appends the columns separated by StringUtils.SEPARATOR, with sentiment and topic encoded by codec
+     * since they are fragments of a message
+     *
+     * @param codec
+     * @param out
+     * @return out
+     */
+    public StringBuilder format(RecordCodec codec, StringBuilder out) {
+        out.append(tweetId).append(StringUtils.SEPARATOR);
+        codec.encode(sentiment == null ? NULL : sentiment, out).append(StringUtils.SEPARATOR);
+        codec.encode(topic == null ? NULL : topic, out).append(StringUtils.SEPARATOR);
+        return out.append(score);
+    }
+
+    public long getTweetId() {
+        return tweetId;
+    }
+
+    public SentimentRecord setTweetId(long tweetId) {
+        this.tweetId = tweetId;
+        return this;
+    }
+
+    public String getSentiment() {
+        return sentiment;
+    }
+
+    public SentimentRecord setSentiment(String sentiment) {
+        this.sentiment = sentiment;
+        return this;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public SentimentRecord setTopic(String topic) {
+        this.topic = topic;
+        return this;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public SentimentRecord setScore(double score) {
+        this.score = score;
+        return this;
+    }
+}
@@ -0,0 +1,204 @@
+package com.lagunex.util;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// external dependencies used to parse the command line arguments
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * CLI application that converts between the tbl files loaded in Vertica, tweet.tbl and sentiment.tbl,
+ * and a file of binary records (see BinaryRecordWriter), so the COPY scripts keep working with binary files.
+ *
+ * Run with -h or --help for details
+ *
+ * The binary file has every tweet followed by every sentiment. Lines that are not valid records are logged
+ * and skipped. Dates are written as yyyy-MM-dd HH:mm:ss, see StringUtils.formatDateTime
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class TblConverter {
+    private static final Logger LOGGER = Logger.getLogger(TblConverter.class.getName());
+    public static final String TWEET_FILE = "tweet.tbl";
+    public static final String SENTIMENT_FILE = "sentiment.tbl";
+
+    private final RecordCodec codec = new RecordCodec();
+    private final StringBuilder line = new StringBuilder(256);
+    private long records, skipped;
+
+    /**
+     * Entry poing of the application
+     *
+     * @param args arguments from the command line. Run with -h or --help for details
+     */
+    public static void main(String[] args) {
+        Options options = getCliOptions();
+        CommandLine cli = parseOptions(options, args);
+        TblConverter converter = new TblConverter();
+        Path directory = Paths.get(cli.getOptionValue('d'));
+        Path binary = Paths.get(cli.getArgs()[0]);
+        try {
+            if (cli.hasOption('b')) {
+                converter.toBinary(directory.resolve(TWEET_FILE), directory.resolve(SENTIMENT_FILE), binary);
+            } else {
+                converter.toTbl(binary, directory.resolve(TWEET_FILE), directory.resolve(SENTIMENT_FILE));
+            }
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.severe(ex.getMessage());
+            System.exit(1);
+        }
+        System.out.println(converter.getRecords());
+    }
+
+    private static Options getCliOptions() {
+        Options options = new Options();
+        options.addOption("d", "directory", true, "Directory of tweet.tbl and sentiment.tbl");
+        options.addOption("b", "to-binary", false, "Converts the tbl files into the binary file");
+        options.addOption("t", "to-tbl", false, "Converts the binary file into the tbl files");
+        options.addOption("h", "help", false, "Prints this message");
+        return options;
+    }
+
+    private static CommandLine parseOptions(Options cliOptions, String[] args) {
+        CommandLineParser parser = new BasicParser();
+        CommandLine cli = null;
+        try {
+            cli = parser.parse(cliOptions, args);
+            if (cli.hasOption("h")) {
+                printHelpAndExit(cliOptions, 0);
+            } else if (cli.getArgs().length != 1 || !cli.hasOption('d') || cli.hasOption('b') == cli.hasOption('t')) {
+                printHelpAndExit(cliOptions, -1);
+            }
+        } catch (ParseException ex) {
+            System.err.println(ex.getMessage());
+            LOGGER.info(ex.getMessage());
+            printHelpAndExit(cliOptions, 1);
+        }
+        return cli;
+    }
+
+    private static void printHelpAndExit(Options options, int exitCode) {
+        HelpFormatter formatter = new HelpFormatter();
+        PrintWriter err = new PrintWriter(System.err);
+        formatter.printHelp(
+                err, HelpFormatter.DEFAULT_WIDTH,
+                "java com.lagunex.util.TblConverter -d directory (-b|-t) binaryFile", "",
+                options,
+                HelpFormatter.DEFAULT_LEFT_PAD, HelpFormatter.DEFAULT_DESC_PAD,
+                "Exactly one of -b or -t is required"
+        );
+        err.flush();
+        err.close();
+        System.exit(exitCode);
+    }
+
+    /**
+     * Writes the records of the tbl files into binary. Missing tbl files are treated as empty
+     *
+     * @param tweets
+     * @param sentiments
+     * @param binary created or truncated
+     * @throws IOException
+     */
+    public void toBinary(Path tweets, Path sentiments, Path binary) throws IOException {
+        TweetRecord tweet = new TweetRecord();
+        SentimentRecord sentiment = new SentimentRecord();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(new FileOutputStream(binary.toFile()))) {
+            if (Files.exists(tweets)) {
+                try (LineReader reader = new ChunkedLineReader(tweets)) {
+                    String record;
+                    while ((record = reader.readLine()) != null) {
+                        try {
+                            codec.split(record);
+                            writer.write(tweet.parse(codec));
+                            records++;
+                        } catch (IllegalArgumentException ex) {
+                            skip(record, ex);
+                        }
+                    }
+                }
+            }
+            if (Files.exists(sentiments)) {
+                try (LineReader reader = new ChunkedLineReader(sentiments)) {
+                    String record;
+                    while ((record = reader.readLine()) != null) {
+                        try {
+                            codec.split(record);
+                            writer.write(sentiment.parse(codec));
+                            records++;
+                        } catch (IllegalArgumentException ex) {
+                            skip(record, ex);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void skip(String record, IllegalArgumentException ex) {
+        skipped++;
+        LOGGER.log(Level.WARNING, "Invalid line: {0} ({1})", new Object[]{record, ex.getMessage()});
+    }
+
+    /**
+     * Writes the records of binary into the tbl files, created or truncated
+     *
+     * @param binary
+     * @param tweets
+     * @param sentiments
+     * @throws IOException
+     */
+    public void toTbl(Path binary, Path tweets, Path sentiments) throws IOException {
+        try (BinaryRecordReader reader = new BinaryRecordReader(new FileInputStream(binary.toFile()), 0);
+             Writer tweetWriter = open(tweets);
+             Writer sentimentWriter = open(sentiments)) {
+            int type;
+            while ((type = reader.read()) >= 0) {
+                line.setLength(0);
+                if (type == BinaryRecordWriter.TWEET) {
+                    reader.getTweet().format(codec, line).append('\n');
+                    tweetWriter.append(line);
+                } else {
+                    reader.getSentiment().format(codec, line).append('\n');
+                    sentimentWriter.append(line);
+                }
+                records++;
+            }
+        }
+    }
+
+    private Writer open(Path file) throws IOException {
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     *
+     * @return number of records converted
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     *
+     * @return number of invalid lines skipped by toBinary
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+}
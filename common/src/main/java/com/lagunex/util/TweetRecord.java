@@ -0,0 +1,167 @@
+package com.lagunex.util;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A row of the tweet table: id|message|lang|created_at, optionally followed by |aggregate|score
+ * once the tweet is analysed.
+ *
+ * Records are mutable so readers can reuse them. created_at is kept as seconds since the epoch in UTC.
+ *
+ * @author Carlos A. Henríquez Q. <carlos.henriquez@lagunex.com>
+ */
+public class TweetRecord {
+    private long id;
+    private String message;
+    private String language;
+    private long createdAt;
+    private String aggregate;
+    private double score;
+
+    public TweetRecord() {
+    }
+
+    public TweetRecord(TweetRecord other) {
+        set(other);
+    }
+
+    /**
+     * Copies every column of other
+     *
+     * @param other
+     * @return this
+     */
+    public TweetRecord set(TweetRecord other) {
+        id = other.id;
+        message = other.message;
+        language = other.language;
+        createdAt = other.createdAt;
+        aggregate = other.aggregate;
+        score = other.score;
+        return this;
+    }
+
+    /**
+     * Reads the columns of the last record split by codec, with the message decoded
+     *
+     * @param codec
+     * @return this
+     * @throws IllegalArgumentException if the record does not have 4 or 6 valid columns
+     */
+    public TweetRecord parse(RecordCodec codec) {
+        if (codec.getFields() != 4 && codec.getFields() != 6) {
+            throw new IllegalArgumentException("Expected 4 or 6 columns but found " + codec.getFields());
+        }
+        try {
+            id = codec.parseLong(0);
+            message = codec.decode(1).toString();
+            language = codec.getField(2);
+            createdAt = parseDateTime(codec.getField(3));
+            aggregate = codec.getFields() == 6 ? codec.getField(4) : null;
+            score = codec.getFields() == 6 ? Double.parseDouble(codec.getField(5)) : 0;
+        } catch (NumberFormatException | DateTimeParseException ex) {
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+        return this;
+    }
+
+    // accepts "yyyy-MM-dd HH:mm:ss" and ISO "yyyy-MM-ddTHH:mm:ss"
+    private static long parseDateTime(String dateTime) {
+        DateTimeFormatter formatter = dateTime.indexOf('T') > 0 ?
+                DateTimeFormatter.ISO_LOCAL_DATE_TIME : StringUtils.DATE_TIME_FORMATTER;
+        return LocalDateTime.parse(dateTime, formatter).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Appends the columns separated by StringUtils.SEPARATOR, the message encoded by codec
+     * and created_at formatted by StringUtils.formatDateTime
+     *
+     * @param codec
+     * @param out
+     * @return out
+     */
+    public StringBuilder format(RecordCodec codec, StringBuilder out) {
+        out.append(id).append(StringUtils.SEPARATOR);
+        codec.encode(message, out).append(StringUtils.SEPARATOR)
+           .append(language).append(StringUtils.SEPARATOR)
+           .append(StringUtils.formatDateTime(getCreatedAtDateTime()));
+        if (aggregate != null) {
+            out.append(StringUtils.SEPARATOR).append(aggregate).append(StringUtils.SEPARATOR).append(score);
+        }
+        return out;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public TweetRecord setId(long id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public TweetRecord setMessage(String message) {
+        this.message = message;
+        return this;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public TweetRecord setLanguage(String language) {
+        this.language = language;
+        return this;
+    }
+
+    /**
+     * @return seconds since the epoch in UTC
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getCreatedAtDateTime() {
+        return LocalDateTime.ofEpochSecond(createdAt, 0, ZoneOffset.UTC);
+    }
+
+    public TweetRecord setCreatedAt(long epochSeconds) {
+        this.createdAt = epochSeconds;
+        return this;
+    }
+
+    public TweetRecord setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt.toEpochSecond(ZoneOffset.UTC);
+        return this;
+    }
+
+    /**
+     * @return the aggregate sentiment or null if the tweet was not analysed
+     */
+    public String getAggregate() {
+        return aggregate;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     *
+     * @param aggregate null if the tweet was not analysed
+     * @param score
+     * @return this
+     */
+    public TweetRecord setAggregate(String aggregate, double score) {
+        this.aggregate = aggregate;
+        this.score = score;
+        return this;
+    }
+}
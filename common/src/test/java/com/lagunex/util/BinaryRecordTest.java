@@ -0,0 +1,123 @@
+package com.lagunex.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BinaryRecordTest {
+    private final RecordCodec codec = new RecordCodec();
+
+    private String format(TweetRecord tweet) {
+        return tweet.format(codec, new StringBuilder()).toString();
+    }
+
+    private TweetRecord tweet(String record) {
+        codec.split(record);
+        return new TweetRecord().parse(codec);
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        List<String> tweets = Arrays.asList(
+                "562113053282426880|DEVASTATED !!! #SB49 😥\\nnot \\| ready|en|2015-02-02 04:59:30|negative|-0.7561",
+                "1|Esta es una línea en español|es|2015-01-01 14:00:00",
+                "2|unknown code|xx|1969-12-31 23:59:59|mixed|0.0");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryRecordWriter writer = new BinaryRecordWriter(bytes);
+        for (String record : tweets) {
+            writer.write(tweet(record));
+        }
+        writer.write(new SentimentRecord().setTweetId(1).setSentiment("good").setScore(0.6));
+        writer.flush();
+        assertEquals(bytes.size(), writer.getSize());
+
+        BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(bytes.toByteArray()), 0);
+        long firstOffset = -1;
+        for (String record : tweets) {
+            assertEquals(BinaryRecordWriter.TWEET, reader.read());
+            assertEquals(record, format(reader.getTweet()));
+            if (firstOffset < 0) firstOffset = reader.getOffset();
+        }
+        assertEquals(BinaryRecordWriter.SENTIMENT, reader.read());
+        assertEquals("1|good|null|0.6", reader.getSentiment().format(new RecordCodec(), new StringBuilder()).toString());
+        assertEquals(-1, reader.read());
+        assertEquals(bytes.size(), reader.getOffset());
+
+        // resumes at the offset of the second tweet
+        byte[] all = bytes.toByteArray();
+        reader = new BinaryRecordReader(new ByteArrayInputStream(all, (int)firstOffset, all.length), firstOffset);
+        assertEquals(BinaryRecordWriter.TWEET, reader.read());
+        assertEquals(tweets.get(1), format(reader.getTweet()));
+    }
+
+    @Test
+    public void skipsUnknownFrames() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[]{3, 9, 1, 2});
+        BinaryRecordWriter writer = new BinaryRecordWriter(bytes);
+        writer.write(new SentimentRecord().setTweetId(7).setTopic("line").setScore(-0.25));
+        writer.close();
+        BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(bytes.toByteArray()), 0);
+        assertEquals(BinaryRecordWriter.SENTIMENT, reader.read());
+        assertEquals("7|null|line|-0.25", reader.getSentiment().format(new RecordCodec(), new StringBuilder()).toString());
+        assertEquals(-1, reader.read());
+    }
+
+    @Test
+    public void sentimentFragmentsAreEncodedInTbl() {
+        RecordCodec codec = new RecordCodec();
+        SentimentRecord sentiment = new SentimentRecord().setTweetId(3).setSentiment("a | b\nc").setScore(0.5);
+        String line = sentiment.format(codec, new StringBuilder()).toString();
+        assertEquals("3|a \\| b\\nc|null|0.5", line);
+
+        codec.split(line);
+        SentimentRecord parsed = new SentimentRecord().parse(codec);
+        assertEquals("a | b\nc", parsed.getSentiment());
+        assertNull(parsed.getTopic());
+    }
+
+    @Test(expected = EOFException.class)
+    public void incompleteFrame() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(bytes)) {
+            writer.write(tweet("1|text|en|2015-01-01 14:00:00"));
+        }
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1);
+        new BinaryRecordReader(new ByteArrayInputStream(truncated), 0).read();
+    }
+
+    @Test
+    public void convertsTblFiles() throws IOException {
+        Path directory = Files.createTempDirectory("tbl");
+        Path tweets = directory.resolve(TblConverter.TWEET_FILE);
+        Path sentiments = directory.resolve(TblConverter.SENTIMENT_FILE);
+        String tweetLines = "1|line\\nbreak|en|2015-02-02 04:59:30|positive|0.6\n2|👍|und|2015-02-02 05:00:00\n";
+        String sentimentLines = "1|good|null|0.6\n1|null|break|-0.1\n";
+        Files.write(tweets, tweetLines.getBytes(StandardCharsets.UTF_8));
+        Files.write(sentiments, (sentimentLines + "invalid\n").getBytes(StandardCharsets.UTF_8));
+
+        TblConverter converter = new TblConverter();
+        Path binary = directory.resolve("records.bin");
+        converter.toBinary(tweets, sentiments, binary);
+        assertEquals(4, converter.getRecords());
+        assertEquals(1, converter.getSkipped());
+
+        Files.delete(tweets);
+        Files.delete(sentiments);
+        new TblConverter().toTbl(binary, tweets, sentiments);
+        assertEquals(tweetLines, new String(Files.readAllBytes(tweets), StandardCharsets.UTF_8));
+        assertEquals(sentimentLines, new String(Files.readAllBytes(sentiments), StandardCharsets.UTF_8));
+
+        for (Path file : new Path[]{tweets, sentiments, binary, directory}) {
+            Files.delete(file);
+        }
+    }
+}
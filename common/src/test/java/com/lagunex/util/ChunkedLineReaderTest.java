@@ -0,0 +1,123 @@
+package com.lagunex.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ChunkedLineReaderTest {
+    private byte[] content;
+    private final List<Path> files = new ArrayList<>();
+
+    // lines of random length, some of them longer than a chunk, with \r\n, multi-byte characters and no final \n
+    @Before
+    public void createContent() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i).append("|año ").append(i % 100 == 0 ? new String(new char[300]).replace('\0', 'x') : "")
+              .append(random.nextInt(1000)).append("|es").append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 500 == 0) sb.append('\n');
+        }
+        sb.append("last|line|en");
+        content = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        for (Path file : files) {
+            Files.delete(file);
+        }
+    }
+
+    private Path file(String suffix, boolean gzip) throws IOException {
+        Path file = Files.createTempFile("chunked", suffix);
+        files.add(file);
+        try (OutputStream out = gzip ? new GZIPOutputStream(Files.newOutputStream(file)) : Files.newOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private List<String> read(LineReader reader) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line + "@" + reader.getOffset());
+        }
+        reader.close();
+        return lines;
+    }
+
+    private List<String> expected(int skip) throws IOException {
+        return read(new OffsetLineReader(new ByteArrayInputStream(content, skip, content.length - skip),
+                StandardCharsets.UTF_8, skip));
+    }
+
+    private long offsetOfLine(int n) throws IOException {
+        OffsetLineReader reader = new OffsetLineReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8, 0);
+        for (int i = 0; i < n; i++) {
+            reader.readLine();
+        }
+        return reader.getOffset();
+    }
+
+    @Test
+    public void orderedLinesAndOffsetsOfMappedFiles() throws IOException {
+        Path file = file(".tbl", false);
+        assertEquals(expected(0), read(new ChunkedLineReader(file, StandardCharsets.UTF_8, 0, 3, 128)));
+        assertEquals(expected(0), read(new ChunkedLineReader(file)));
+        int middle = (int)offsetOfLine(1000);
+        assertEquals(expected(middle), read(new ChunkedLineReader(file, StandardCharsets.UTF_8, middle, 2, 100)));
+    }
+
+    @Test
+    public void orderedLinesAndOffsetsOfGzipFilesAndStreams() throws IOException {
+        Path file = file(".tbl.gz", true);
+        assertEquals(expected(0), read(new ChunkedLineReader(file, StandardCharsets.UTF_8, 0, 3, 128)));
+        int middle = (int)offsetOfLine(1000);
+        assertEquals(expected(middle), read(new ChunkedLineReader(file, StandardCharsets.UTF_8, middle, 2, 100)));
+        assertEquals(expected(0), read(new ChunkedLineReader(new ByteArrayInputStream(content),
+                StandardCharsets.UTF_8, 2, 64)));
+    }
+
+    @Test
+    public void parallelLines() throws IOException {
+        List<String> expected = new ArrayList<>();
+        for (String line : expected(0)) {
+            expected.add(line.substring(0, line.lastIndexOf('@')));
+        }
+        Collections.sort(expected);
+        for (Path file : new Path[] {file(".tbl", false), file(".tbl.gz", true)}) {
+            ConcurrentLinkedQueue<String> lines = new ConcurrentLinkedQueue<>();
+            try (ChunkedLineReader reader = new ChunkedLineReader(file, StandardCharsets.UTF_8, 0, 4, 256)) {
+                assertEquals(expected.size(), reader.forEach(lines::add));
+            }
+            List<String> sorted = new ArrayList<>(lines);
+            Collections.sort(sorted);
+            assertEquals(expected, sorted);
+        }
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        content = new byte[0];
+        try (ChunkedLineReader reader = new ChunkedLineReader(file(".tbl", false))) {
+            assertNull(reader.readLine());
+            assertFalse(reader.ready());
+            assertEquals(0, reader.getOffset());
+        }
+    }
+}
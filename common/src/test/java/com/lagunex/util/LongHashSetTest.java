@@ -0,0 +1,47 @@
+package com.lagunex.util;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LongHashSetTest {
+
+    @Test
+    public void behavesLikeHashSet() {
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 200_000; i++) {
+            // tweet-like ids with a narrow range of times, plus 0 and negatives
+            long value = random.nextInt(10) == 0 ? random.nextInt(5) - 2 : (562113053282426880L + random.nextInt(100_000)) << 4;
+            assertEquals(expected.add(value), set.add(value));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long value : expected) {
+            assertTrue(set.contains(value));
+        }
+        assertFalse(set.contains(7));
+        long[] values = set.toArray();
+        assertEquals(expected.size(), values.length);
+        for (long value : values) {
+            assertTrue(expected.contains(value));
+        }
+    }
+
+    @Test
+    public void removeIf() {
+        LongHashSet set = new LongHashSet();
+        for (long i = 0; i < 10_000; i++) {
+            set.add(i);
+        }
+        assertEquals(5_000, set.removeIf(i -> i % 2 == 0));
+        assertEquals(5_000, set.size());
+        assertFalse(set.contains(0));
+        assertTrue(set.contains(9_999));
+        assertTrue(set.add(0));
+        assertFalse(set.add(1));
+        assertTrue(set.getMemory() < 10_000 * 8);
+    }
+}
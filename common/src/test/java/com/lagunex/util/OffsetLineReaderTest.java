@@ -0,0 +1,59 @@
+package com.lagunex.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OffsetLineReaderTest {
+
+    private OffsetLineReader reader(String text, int skip) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new OffsetLineReader(new ByteArrayInputStream(bytes, skip, bytes.length - skip),
+                StandardCharsets.UTF_8, skip);
+    }
+
+    @Test
+    public void readLinesAndOffsets() throws IOException {
+        OffsetLineReader reader = reader("1|año|es\r\n2|text|en\n\n3|last|en", 0);
+        assertEquals("1|año|es", reader.readLine());
+        assertEquals(11, reader.getOffset()); // ñ takes two bytes
+        assertEquals("2|text|en", reader.readLine());
+        assertEquals(21, reader.getOffset());
+        assertEquals("", reader.readLine());
+        assertEquals(22, reader.getOffset());
+        assertEquals("3|last|en", reader.readLine());
+        assertEquals(31, reader.getOffset());
+        assertNull(reader.readLine());
+        assertEquals(31, reader.getOffset());
+    }
+
+    @Test
+    public void startAtOffset() throws IOException {
+        OffsetLineReader reader = reader("1|año|es\r\n2|text|en\n", 11);
+        assertEquals("2|text|en", reader.readLine());
+        assertEquals(21, reader.getOffset());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void linesLongerThanTheBuffer() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) sb.append('x');
+        String longLine = sb.toString();
+        // a stream that returns a few bytes per read
+        InputStream in = new ByteArrayInputStream((longLine + "\n" + longLine).getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        OffsetLineReader reader = new OffsetLineReader(in, StandardCharsets.UTF_8, 0);
+        assertEquals(longLine, reader.readLine());
+        assertEquals(100_001, reader.getOffset());
+        assertEquals(longLine, reader.readLine());
+        assertEquals(200_001, reader.getOffset());
+    }
+}
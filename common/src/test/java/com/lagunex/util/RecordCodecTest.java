@@ -0,0 +1,83 @@
+package com.lagunex.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RecordCodecTest {
+    // characters that StringUtils treats specially, plus regular ones
+    private static final char[] ALPHABET = {'a', 'n', ' ', '|', '\\', '\n', '\r', '\u0085', '\u2028', 'ñ'};
+
+    private String random(Random random) {
+        char[] chars = new char[random.nextInt(8)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(chars);
+    }
+
+    private List<String> split(RecordCodec codec, String record) {
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < codec.split(record); i++) {
+            fields.add(codec.getField(i));
+        }
+        return fields;
+    }
+
+    @Test
+    public void encodeAndDecodeLikeStringUtils() {
+        RecordCodec codec = new RecordCodec();
+        Random random = new Random(7);
+        StringBuilder out = new StringBuilder();
+        for (int n = 0; n < 200_000; n++) {
+            String message = random(random);
+            String encoded = StringUtils.escape(StringUtils.collapseLines(message));
+            out.setLength(0);
+            assertEquals(message, encoded, codec.encode(message, out.append("1|")).substring(2));
+
+            String record = "1|" + random(random) + "|en";
+            for (int i = 0; i < codec.split(record); i++) {
+                String field = codec.getField(i);
+                assertEquals(field, StringUtils.uncollapseLines(StringUtils.unescape(field)), codec.decode(i).toString());
+            }
+        }
+    }
+
+    @Test
+    public void splitLikeRegex() {
+        RecordCodec codec = new RecordCodec();
+        Random random = new Random(11);
+        for (int n = 0; n < 200_000; n++) {
+            String record = random(random);
+            assertEquals(record, Arrays.asList(record.split("(?<!\\\\)\\|")), split(codec, record));
+        }
+        assertEquals(Arrays.asList("1", "año \\| ok\\n\\ ", "es", "2015-01-01 00:00:00"),
+                split(codec, "1|año \\| ok\\n\\ |es|2015-01-01 00:00:00||"));
+    }
+
+    @Test
+    public void fieldsWithoutCopies() {
+        RecordCodec codec = new RecordCodec('&');
+        assertEquals(4, codec.split("562113053282426880&love&null&-0.25"));
+        assertEquals(562113053282426880L, codec.parseLong(0));
+        assertTrue(codec.fieldEquals(2, "null"));
+        assertFalse(codec.fieldEquals(1, "lov"));
+        assertEquals(19, codec.getStart(1));
+        assertEquals(23, codec.getEnd(1));
+        assertEquals(Long.MIN_VALUE, codec("-9223372036854775808").parseLong(0));
+    }
+
+    private RecordCodec codec(String record) {
+        RecordCodec codec = new RecordCodec();
+        codec.split(record);
+        return codec;
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseLongOverflow() {
+        codec("9223372036854775808").parseLong(0);
+    }
+}